@@ -0,0 +1,1292 @@
+/* 'use strict'; */
+
+var MYTIMEOUT = 20000;
+
+var isWindows = /Windows /.test(navigator.userAgent); // Windows (...)
+var isAndroid = !isWindows && /Android/.test(navigator.userAgent);
+
+// NOTE: These tests check the behavior of the native features that are
+// supported on Android only in this version (skipped on other platforms).
+var mytests = function() {
+
+  describe('Plugin: Android native feature test(s)', function() {
+
+    var openDatabase = function(name, options, success, error) {
+      var openargs = {name: name, key: 'test-password', location: 'default'};
+      for (var k in options) openargs[k] = options[k];
+      return window.sqlitePlugin.openDatabase(openargs, success, error);
+    }
+
+    // deletes the database (if it exists) before the test
+    var openNewDatabase = function(name, options, success, error) {
+      window.sqlitePlugin.deleteDatabase({name: name, location: 'default'}, function() {
+        openDatabase(name, options, success, error);
+      }, function() {
+        openDatabase(name, options, success, error);
+      });
+    }
+
+    // (the errors of the long operations are reported as strings)
+    var messageOf = function(error) {
+      return (!!error && error.message !== undefined) ? error.message : error;
+    }
+
+    // NOT EXPECTED error callback:
+    var unexpected = function(db, done) {
+      return function(error) {
+        expect(false).toBe(true);
+        expect(messageOf(error)).toBe('--');
+        db.close(done, done);
+      };
+    }
+
+    describe('Android query result cache', function() {
+
+      it('Cached SELECT result is invalidated by INSERT', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        openNewDatabase('cache-invalidation-test.db', {androidQueryCacheSize: 100000}, function(db) {
+          db.sqlBatch([
+            'CREATE TABLE Items (name)',
+            [ 'INSERT INTO Items VALUES (?)', ['first'] ]
+          ], function() {
+            db.executeSql('SELECT count(*) AS c FROM Items', [], function(rs) {
+              expect(rs.rows.item(0).c).toBe(1);
+
+              db.executeSql('INSERT INTO Items VALUES (?)', ['second'], function() {
+                db.executeSql('SELECT count(*) AS c FROM Items', [], function(rs) {
+                  expect(rs.rows.item(0).c).toBe(2);
+                  db.close(done, done);
+                }, unexpected(db, done));
+              }, unexpected(db, done));
+            }, unexpected(db, done));
+          }, unexpected(db, done));
+        });
+      }, MYTIMEOUT);
+
+      it('CURRENT_TIMESTAMP result is not cached', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        openNewDatabase('cache-volatile-test.db', {androidQueryCacheSize: 100000}, function(db) {
+          db.executeSql('SELECT CURRENT_TIMESTAMP AS t', [], function(rs1) {
+            setTimeout(function() {
+              db.executeSql('SELECT CURRENT_TIMESTAMP AS t', [], function(rs2) {
+                expect(rs2.rows.item(0).t).not.toBe(rs1.rows.item(0).t);
+                db.close(done, done);
+              }, unexpected(db, done));
+            }, 1100);
+          }, unexpected(db, done));
+        });
+      }, MYTIMEOUT);
+
+    });
+
+    describe('Android change notifications', function() {
+
+      it('Changes of a committed transaction are delivered in one message', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        openNewDatabase('change-notification-test.db', {}, function(db) {
+          db.executeSql('CREATE TABLE Items (name)', [], function() {
+            db.addChangeListener(function(message) {
+              expect(message.changes.length).toBe(1);
+              expect(message.changes[0].table.toLowerCase()).toBe('items');
+              expect(message.changes[0].rowsAffected).toBe(2);
+              db.removeChangeListeners(function() {
+                db.close(done, done);
+              }, unexpected(db, done));
+            }, unexpected(db, done));
+
+            db.transaction(function(tx) {
+              tx.executeSql('INSERT INTO Items VALUES (?)', ['first']);
+              tx.executeSql('INSERT INTO Items VALUES (?)', ['second']);
+            }, unexpected(db, done));
+          }, unexpected(db, done));
+        });
+      }, MYTIMEOUT);
+
+    });
+
+    describe('Android online export', function() {
+
+      it('Export into a database with another key', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        openNewDatabase('export-source-test.db', {}, function(db) {
+          db.sqlBatch([
+            'CREATE TABLE Items (name)',
+            [ 'INSERT INTO Items VALUES (?)', ['first'] ],
+            [ 'INSERT INTO Items VALUES (?)', ['second'] ],
+            [ 'INSERT INTO Items VALUES (?)', ['third'] ]
+          ], function() {
+            db.exportDatabase({name: 'export-target-test.db', key: 'backup-password'}, function(result) {
+              expect(result.tableCount).toBe(1);
+              expect(result.rowsCopied).toBe(3);
+
+              db.close(function() {
+                window.sqlitePlugin.openDatabase({name: 'export-target-test.db', key: 'backup-password', location: 'default'}, function(backup) {
+                  backup.executeSql('SELECT count(*) AS c FROM Items', [], function(rs) {
+                    expect(rs.rows.item(0).c).toBe(3);
+                    backup.close(done, done);
+                  }, unexpected(backup, done));
+                }, function(error) {
+                  expect(error.message).toBe('--');
+                  done();
+                });
+              }, done);
+            }, unexpected(db, done));
+          }, unexpected(db, done));
+        });
+      }, MYTIMEOUT);
+
+    });
+
+    describe('Android rekey', function() {
+
+      it('Rekey then open with the new key', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        openNewDatabase('rekey-test.db', {}, function(db) {
+          db.sqlBatch([
+            'CREATE TABLE Items (name)',
+            [ 'INSERT INTO Items VALUES (?)', ['first'] ]
+          ], function() {
+            db.rekey('new-password', function() {
+              db.executeSql('SELECT count(*) AS c FROM Items', [], function(rs) {
+                expect(rs.rows.item(0).c).toBe(1);
+
+                db.close(function() {
+                  window.sqlitePlugin.openDatabase({name: 'rekey-test.db', key: 'new-password', location: 'default'}, function(db2) {
+                    db2.executeSql('SELECT count(*) AS c FROM Items', [], function(rs) {
+                      expect(rs.rows.item(0).c).toBe(1);
+                      db2.close(done, done);
+                    }, unexpected(db2, done));
+                  }, function(error) {
+                    expect(error.message).toBe('--');
+                    done();
+                  });
+                }, done);
+              }, unexpected(db, done));
+            }, unexpected(db, done));
+          }, unexpected(db, done));
+        });
+      }, MYTIMEOUT);
+
+    });
+
+    describe('Android pre-populated database', function() {
+
+      it('Open fails for a missing asset, with no database file left', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        openNewDatabase('missing-asset-test.db', {createFromLocation: 'missing/missing-asset-test.db'}, function(db) {
+          // NOT EXPECTED:
+          expect(false).toBe(true);
+          db.close(done, done);
+        }, function(error) {
+          // EXPECTED:
+          expect(error).toBeDefined();
+
+          // (no partial database file)
+          openDatabase('missing-asset-test.db', {}, function(db) {
+            db.executeSql('SELECT count(*) AS c FROM sqlite_master', [], function(rs) {
+              expect(rs.rows.item(0).c).toBe(0);
+              db.close(done, done);
+            }, unexpected(db, done));
+          }, function(error) {
+            expect(error.message).toBe('--');
+            done();
+          });
+        });
+      }, MYTIMEOUT);
+
+    });
+
+    describe('Android native transaction execution', function() {
+
+      it('Aborted savepoint group is rolled back, the transaction is committed', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        openNewDatabase('native-transaction-test.db', {}, function(db) {
+          db.executeTransaction([
+            'CREATE TABLE MyTable (name, score)',
+            [ 'INSERT INTO MyTable VALUES (?,?)', ['Alice', 101] ],
+            { savepoint: [
+              [ 'INSERT INTO MyTable VALUES (?,?)', ['Betty', 202] ],
+              [ 'INSERT INTO MissingTable VALUES (?)', ['Carl'] ]
+            ], onError: 'abort' }
+          ], { onError: 'continue' }, function(results) {
+            expect(results.length).toBe(3);
+            expect(results[1].type).toBe('success');
+            expect(results[1].result.rowsAffected).toBe(1);
+            expect(results[2].type).toBe('error');
+
+            db.executeSql('SELECT name FROM MyTable', [], function(rs) {
+              expect(rs.rows.length).toBe(1);
+              expect(rs.rows.item(0).name).toBe('Alice');
+              db.close(done, done);
+            }, unexpected(db, done));
+          }, unexpected(db, done));
+        });
+      }, MYTIMEOUT);
+
+      it('Transaction is rolled back at the first error with onError abort', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        openNewDatabase('native-transaction-abort-test.db', {}, function(db) {
+          db.executeSql('CREATE TABLE MyTable (name)', [], function() {
+            db.executeTransaction([
+              [ 'INSERT INTO MyTable VALUES (?)', ['Alice'] ],
+              [ 'INSERT INTO MissingTable VALUES (?)', ['Betty'] ]
+            ], {}, function() {
+              // NOT EXPECTED:
+              expect(false).toBe(true);
+              db.close(done, done);
+            }, function(error) {
+              // EXPECTED:
+              expect(error).toBeDefined();
+
+              db.executeSql('SELECT count(*) AS c FROM MyTable', [], function(rs) {
+                expect(rs.rows.item(0).c).toBe(0);
+                db.close(done, done);
+              }, unexpected(db, done));
+            });
+          }, unexpected(db, done));
+        });
+      }, MYTIMEOUT);
+
+    });
+
+    describe('Android read-only transactions', function() {
+
+      it('Write statement in a readTransaction is rejected before execution', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        openNewDatabase('read-only-tx-test.db', {}, function(db) {
+          db.executeSql('CREATE TABLE Items (name)', [], function() {
+            db.readTransaction(function(tx) {
+              tx.executeSql('INSERT INTO Items VALUES (?)', ['first'], function() {
+                // NOT EXPECTED:
+                expect(false).toBe(true);
+              }, function(tx, error) {
+                // EXPECTED:
+                expect(error.message).toMatch(/invalid sql for a read-only transaction/);
+                return false;
+              });
+            }, unexpected(db, done), function() {
+              db.executeSql('SELECT count(*) AS c FROM Items', [], function(rs) {
+                expect(rs.rows.item(0).c).toBe(0);
+                db.close(done, done);
+              }, unexpected(db, done));
+            });
+          }, unexpected(db, done));
+        });
+      }, MYTIMEOUT);
+
+      it('readTransaction on the read connection sees the committed rows', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        openNewDatabase('read-connection-test.db', {androidReadConnection: true}, function(db) {
+          db.sqlBatch([
+            'CREATE TABLE Items (name)',
+            [ 'INSERT INTO Items VALUES (?)', ['first'] ]
+          ], function() {
+            db.readTransaction(function(tx) {
+              tx.executeSql('SELECT count(*) AS c FROM Items', [], function(tx, rs) {
+                expect(rs.rows.item(0).c).toBe(1);
+              });
+            }, unexpected(db, done), function() {
+              db.close(done, done);
+            });
+          }, unexpected(db, done));
+        });
+      }, MYTIMEOUT);
+
+    });
+
+    describe('Android attached databases', function() {
+
+      it('Query across an attached database with its own key, then detach', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        window.sqlitePlugin.deleteDatabase({name: 'attach-module-test.db', location: 'default'}, next, next);
+
+        function next() {
+          openNewDatabase('attach-main-test.db', {}, function(db) {
+            db.sqlBatch([
+              'CREATE TABLE Users (id, name)',
+              [ 'INSERT INTO Users VALUES (?,?)', [1, 'Alice'] ]
+            ], function() {
+              db.attachDatabase({name: 'attach-module-test.db', alias: 'module1', key: 'module-password'}, function() {
+                db.sqlBatch([
+                  'CREATE TABLE module1.Items (owner, title)',
+                  [ 'INSERT INTO module1.Items VALUES (?,?)', [1, 'first'] ]
+                ], function() {
+                  db.executeSql('SELECT name, title FROM Users JOIN module1.Items ON Items.owner = Users.id', [], function(rs) {
+                    expect(rs.rows.length).toBe(1);
+                    expect(rs.rows.item(0).name).toBe('Alice');
+                    expect(rs.rows.item(0).title).toBe('first');
+
+                    db.detachDatabase('module1', function() {
+                      db.executeSql('SELECT count(*) FROM module1.Items', [], function() {
+                        // NOT EXPECTED:
+                        expect(false).toBe(true);
+                        db.close(done, done);
+                      }, function(error) {
+                        // EXPECTED:
+                        expect(error).toBeDefined();
+                        db.close(done, done);
+                      });
+                    }, unexpected(db, done));
+                  }, unexpected(db, done));
+                }, unexpected(db, done));
+              }, unexpected(db, done));
+            }, unexpected(db, done));
+          });
+        }
+      }, MYTIMEOUT);
+
+      it('Attach rejects an invalid alias', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        openNewDatabase('attach-alias-test.db', {}, function(db) {
+          db.attachDatabase({name: 'attach-other-test.db', alias: 'bad alias'}, function() {
+            // NOT EXPECTED:
+            expect(false).toBe(true);
+            db.close(done, done);
+          }, function(error) {
+            // EXPECTED:
+            expect(messageOf(error)).toMatch(/invalid alias/);
+            db.close(done, done);
+          });
+        });
+      }, MYTIMEOUT);
+
+    });
+
+    describe('Android error statistics', function() {
+
+      it('Failed statements are counted by error code', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        openNewDatabase('error-stats-test.db', {}, function(db) {
+          window.sqlitePlugin.getStats({reset: true}, function() {
+            db.executeSql('SLCT 1', [], unexpected(db, done), function(error1) {
+              db.executeSql('SLCT 1', [], unexpected(db, done), function(error2) {
+                // (same message for the same error)
+                expect(error2.message).toBe(error1.message);
+
+                window.sqlitePlugin.getStats({}, function(stats) {
+                  expect(stats.errors.errorCount).toBe(2);
+                  expect(stats.errors.errorCountByCode[String(error1.code)]).toBe(2);
+                  db.close(done, done);
+                }, unexpected(db, done));
+              });
+            });
+          }, unexpected(db, done));
+        });
+      }, MYTIMEOUT);
+
+    });
+
+    describe('Android upsert batch', function() {
+
+      var testUpsertCounts = function(dbname, createSql, done) {
+        openNewDatabase(dbname, {}, function(db) {
+          db.sqlBatch([
+            createSql,
+            [ 'INSERT INTO Items VALUES (?,?)', [1, 'old'] ]
+          ], function() {
+            db.executeUpsertBatch('INSERT INTO Items (id, name) VALUES (?,?) ON CONFLICT(id) DO UPDATE SET name=excluded.name', [
+              [1, 'first'],
+              [2, 'second'],
+              [3, 'third']
+            ], {}, function(result) {
+              expect(result.committed).toBe(true);
+              expect(result.rowCount).toBe(3);
+              expect(result.inserted).toBe(2);
+              expect(result.updated).toBe(1);
+              expect(result.ignored).toBe(0);
+              expect(result.failed).toBe(0);
+
+              db.executeSql('SELECT name FROM Items WHERE id = 1', [], function(rs) {
+                expect(rs.rows.item(0).name).toBe('first');
+                db.close(done, done);
+              }, unexpected(db, done));
+            }, unexpected(db, done));
+          }, unexpected(db, done));
+        });
+      }
+
+      it('Upsert counts inserted and updated rows', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        testUpsertCounts('upsert-counts-test.db', 'CREATE TABLE Items (id INTEGER PRIMARY KEY, name)', done);
+      }, MYTIMEOUT);
+
+      it('Upsert counts inserted and updated rows for a WITHOUT ROWID table', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        testUpsertCounts('upsert-counts-without-rowid-test.db',
+          'CREATE TABLE Items (id INTEGER PRIMARY KEY, name) WITHOUT ROWID', done);
+      }, MYTIMEOUT);
+
+      it('Upsert counts rows ignored by INSERT OR IGNORE', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        openNewDatabase('upsert-ignore-test.db', {}, function(db) {
+          db.sqlBatch([
+            'CREATE TABLE Items (id INTEGER PRIMARY KEY, name)',
+            [ 'INSERT INTO Items VALUES (?,?)', [1, 'old'] ]
+          ], function() {
+            db.executeUpsertBatch('INSERT OR IGNORE INTO Items (id, name) VALUES (?,?)', [
+              [1, 'first'],
+              [2, 'second']
+            ], {}, function(result) {
+              expect(result.inserted).toBe(1);
+              expect(result.updated).toBe(0);
+              expect(result.ignored).toBe(1);
+              db.close(done, done);
+            }, unexpected(db, done));
+          }, unexpected(db, done));
+        });
+      }, MYTIMEOUT);
+
+    });
+
+    describe('Android execute path', function() {
+
+      it('rowsAffected and insertId for each statement type', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        openNewDatabase('execute-path-test.db', {}, function(db) {
+          db.transaction(function(tx) {
+            tx.executeSql('CREATE TABLE Items (name)', [], function(tx, rs) {
+              expect(rs.rowsAffected).toBe(0);
+            });
+            tx.executeSql('INSERT INTO Items VALUES (?),(?),(?)', ['a', 'b', 'c'], function(tx, rs) {
+              expect(rs.rowsAffected).toBe(3);
+              expect(rs.insertId).toBe(3);
+            });
+            tx.executeSql('INSERT INTO Items SELECT name FROM Items', [], function(tx, rs) {
+              expect(rs.rowsAffected).toBe(3);
+              expect(rs.insertId).toBe(6);
+            });
+            tx.executeSql('UPDATE Items SET name = ? WHERE name = ?', ['x', 'a'], function(tx, rs) {
+              expect(rs.rowsAffected).toBe(2);
+            });
+            tx.executeSql('DELETE FROM Items WHERE name = ?', ['x'], function(tx, rs) {
+              expect(rs.rowsAffected).toBe(2);
+            });
+          }, unexpected(db, done), function() {
+            db.close(done, done);
+          });
+        });
+      }, MYTIMEOUT);
+
+      it('rowsAffected includes the rows changed by a trigger', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        openNewDatabase('execute-path-trigger-test.db', {}, function(db) {
+          db.sqlBatch([
+            'CREATE TABLE Items (name)',
+            'CREATE TABLE ItemLog (name)',
+            'CREATE TRIGGER ItemsInsert AFTER INSERT ON Items BEGIN INSERT INTO ItemLog VALUES (NEW.name); END'
+          ], function() {
+            db.executeSql('INSERT INTO Items VALUES (?)', ['a'], function(rs) {
+              expect(rs.rowsAffected).toBe(2);
+              db.close(done, done);
+            }, unexpected(db, done));
+          }, unexpected(db, done));
+        });
+      }, MYTIMEOUT);
+
+    });
+
+    describe('Android runner generation', function() {
+
+      it('Transaction on a stale database object fails and releases the transaction lock', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        openNewDatabase('stale-handle-test.db', {}, function(db1) {
+          db1.close(function() {
+            openDatabase('stale-handle-test.db', {}, function(db2) {
+              // db1 still has the generation of the closed runner:
+              db1.transaction(function(tx) {
+                tx.executeSql('SELECT 1');
+              }, function(error) {
+                // EXPECTED:
+                expect(error).toBeDefined();
+                expect(error.message).toMatch(/stale/);
+
+                // (next transaction is not blocked)
+                db2.executeSql('SELECT 1 AS one', [], function(rs) {
+                  expect(rs.rows.item(0).one).toBe(1);
+                  db2.close(done, done);
+                }, unexpected(db2, done));
+              }, function() {
+                // NOT EXPECTED:
+                expect(false).toBe(true);
+                db2.close(done, done);
+              });
+            }, unexpected(db1, done));
+          }, unexpected(db1, done));
+        });
+      }, MYTIMEOUT);
+
+      it('Statement on a stale database object is rejected', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        openNewDatabase('stale-statement-test.db', {}, function(db1) {
+          db1.close(function() {
+            openDatabase('stale-statement-test.db', {}, function(db2) {
+              db1.executeSql('SELECT 1', [], function() {
+                // NOT EXPECTED:
+                expect(false).toBe(true);
+                db2.close(done, done);
+              }, function(error) {
+                // EXPECTED:
+                expect(error.message).toMatch(/stale/);
+                db2.close(done, done);
+              });
+            }, unexpected(db1, done));
+          }, unexpected(db1, done));
+        });
+      }, MYTIMEOUT);
+
+    });
+
+    describe('Android in-memory and temporary databases', function() {
+
+      it('In-memory database is empty when opened again', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        openDatabase('memory-mode-test.db', {androidDatabaseMode: 'memory'}, function(db) {
+          db.executeSql('CREATE TABLE Items (name)', [], function() {
+            db.close(function() {
+              openDatabase('memory-mode-test.db', {androidDatabaseMode: 'memory'}, function(db2) {
+                db2.executeSql('SELECT count(*) AS c FROM sqlite_master', [], function(rs) {
+                  expect(rs.rows.item(0).c).toBe(0);
+                  db2.close(done, done);
+                }, unexpected(db2, done));
+              }, function(error) {
+                expect(error.message).toBe('--');
+                done();
+              });
+            }, done);
+          }, unexpected(db, done));
+        });
+      }, MYTIMEOUT);
+
+      it('Temporary database is deleted when closed, the file database is kept', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        openNewDatabase('temp-mode-test.db', {}, function(filedb) {
+          filedb.executeSql('CREATE TABLE FileItems (name)', [], function() {
+            filedb.close(function() {
+              openDatabase('temp-mode-test.db', {androidDatabaseMode: 'temp'}, function(db) {
+                db.executeSql('SELECT count(*) AS c FROM sqlite_master', [], function(rs) {
+                  // (not the file database)
+                  expect(rs.rows.item(0).c).toBe(0);
+
+                  db.executeSql('CREATE TABLE Items (name)', [], function() {
+                    db.close(function() {
+                      openDatabase('temp-mode-test.db', {androidDatabaseMode: 'temp'}, function(db2) {
+                        db2.executeSql('SELECT count(*) AS c FROM sqlite_master', [], function(rs) {
+                          expect(rs.rows.item(0).c).toBe(0);
+
+                          db2.close(function() {
+                            openDatabase('temp-mode-test.db', {}, function(filedb2) {
+                              filedb2.executeSql("SELECT count(*) AS c FROM sqlite_master WHERE name = 'FileItems'", [], function(rs) {
+                                expect(rs.rows.item(0).c).toBe(1);
+                                filedb2.close(done, done);
+                              }, unexpected(filedb2, done));
+                            });
+                          }, done);
+                        }, unexpected(db2, done));
+                      });
+                    }, done);
+                  }, unexpected(db, done));
+                }, unexpected(db, done));
+              });
+            }, done);
+          }, unexpected(filedb, done));
+        });
+      }, MYTIMEOUT);
+
+    });
+
+    describe('Android multi-database batch', function() {
+
+      var openTwo = function(success) {
+        openNewDatabase('multi-batch-1-test.db', {}, function(db1) {
+          openNewDatabase('multi-batch-2-test.db', {}, function(db2) {
+            db1.executeSql('CREATE TABLE Items (name)', [], function() {
+              success(db1, db2);
+            });
+          });
+        });
+      }
+
+      it('Results are in the order of the batches, with statement errors', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        openTwo(function(db1, db2) {
+          window.sqlitePlugin.executeMultiBatch([
+            {db: db1, statements: [[ 'INSERT INTO Items VALUES (?)', ['first'] ], 'SELECT count(*) AS c FROM Items']},
+            {db: db2, statements: ['SELECT count(*) FROM MissingTable'], readOnly: true}
+          ], {}, function(results) {
+            expect(results.length).toBe(2);
+            expect(results[0].dbname).toBe('multi-batch-1-test.db');
+            expect(results[0].type).toBe('success');
+            expect(results[0].results[1].rows.item(0).c).toBe(1);
+            expect(results[1].type).toBe('success');
+            expect(results[1].results[0].message).toBeDefined();
+            db1.close(function() { db2.close(done, done); }, done);
+          }, function(error) {
+            expect(error.message).toBe('--');
+            db1.close(function() { db2.close(done, done); }, done);
+          });
+        });
+      }, MYTIMEOUT);
+
+      it('Streamed batch results are sent before the success callback', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        openTwo(function(db1, db2) {
+          var indexes = [];
+          window.sqlitePlugin.executeMultiBatch([
+            {db: db1, statements: ['SELECT 1']},
+            {db: db2, statements: ['SELECT 2']}
+          ], {stream: true}, function() {
+            expect(indexes.sort()).toEqual([0, 1]);
+            db1.close(function() { db2.close(done, done); }, done);
+          }, function(error) {
+            expect(error.message).toBe('--');
+            db1.close(function() { db2.close(done, done); }, done);
+          }, function(result) {
+            indexes.push(result.index);
+          });
+        });
+      }, MYTIMEOUT);
+
+    });
+
+    describe('Android file import', function() {
+
+      it('Import fails for a missing file', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        openNewDatabase('import-missing-file-test.db', {}, function(db) {
+          db.executeSql('CREATE TABLE Items (name)', [], function() {
+            db.importData({path: 'missing-import-file.csv', table: 'Items'}, function() {
+              // NOT EXPECTED:
+              expect(false).toBe(true);
+              db.close(done, done);
+            }, function(error) {
+              // EXPECTED:
+              expect(error).toBeDefined();
+              db.close(done, done);
+            });
+          }, unexpected(db, done));
+        });
+      }, MYTIMEOUT);
+
+      it('Import rejects an invalid onConflict option', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        openNewDatabase('import-options-test.db', {}, function(db) {
+          db.importData({path: 'import-options-test.csv', table: 'Items', onConflict: 'abort'}, function() {
+            // NOT EXPECTED:
+            expect(false).toBe(true);
+            db.close(done, done);
+          }, function(error) {
+            // EXPECTED:
+            expect(messageOf(error)).toMatch(/invalid onConflict option/);
+            db.close(done, done);
+          });
+        });
+      }, MYTIMEOUT);
+
+    });
+
+    describe('Android prepared statements', function() {
+
+      it('Prepare once, execute by handle, then finalize', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        openNewDatabase('prepared-test.db', {}, function(db) {
+          db.executeSql('CREATE TABLE Items (id INTEGER PRIMARY KEY, name)', [], function() {
+            db.prepare('INSERT INTO Items (name) VALUES (?)', function(handle) {
+              db.executePrepared(handle, ['first'], function(rs) {
+                expect(rs.rowsAffected).toBe(1);
+                expect(rs.insertId).toBe(1);
+
+                db.executePreparedBatch([[handle, ['second']], [handle, ['third']]], function(results) {
+                  expect(results.length).toBe(2);
+                  expect(results[1].insertId).toBe(3);
+
+                  db.finalize(handle, function() {
+                    db.executePrepared(handle, ['fourth'], function() {
+                      // NOT EXPECTED:
+                      expect(false).toBe(true);
+                      db.close(done, done);
+                    }, function(error) {
+                      // EXPECTED:
+                      expect(error).toBeDefined();
+                      db.close(done, done);
+                    });
+                  }, unexpected(db, done));
+                }, unexpected(db, done));
+              }, unexpected(db, done));
+            }, unexpected(db, done));
+          }, unexpected(db, done));
+        });
+      }, MYTIMEOUT);
+
+      it('Transaction statement cannot be prepared', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        openNewDatabase('prepared-begin-test.db', {}, function(db) {
+          db.prepare('BEGIN', function() {
+            // NOT EXPECTED:
+            expect(false).toBe(true);
+            db.close(done, done);
+          }, function(error) {
+            // EXPECTED:
+            expect(messageOf(error)).toMatch(/transaction statement cannot be prepared/);
+            db.close(done, done);
+          });
+        });
+      }, MYTIMEOUT);
+
+      it('Rekey fails with an open prepared statement', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        openNewDatabase('rekey-prepared-test.db', {}, function(db) {
+          db.executeSql('CREATE TABLE Items (name)', [], function() {
+            db.prepare('INSERT INTO Items VALUES (?)', function(handle) {
+              db.rekey('new-password', function() {
+                // NOT EXPECTED:
+                expect(false).toBe(true);
+                db.close(done, done);
+              }, function(error) {
+                // EXPECTED:
+                expect(error).toBeDefined();
+                expect(messageOf(error)).toMatch(/cannot rekey with open prepared statements or cursors/);
+
+                // still open with the old key:
+                db.executePrepared(handle, ['first'], function(rs) {
+                  expect(rs.rowsAffected).toBe(1);
+                  db.finalize(handle, function() {
+                    db.close(done, done);
+                  }, unexpected(db, done));
+                }, unexpected(db, done));
+              });
+            }, unexpected(db, done));
+          }, unexpected(db, done));
+        });
+      }, MYTIMEOUT);
+
+    });
+
+    describe('Android native library loading', function() {
+
+      it('Libraries are loaded once a database is open', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        openNewDatabase('libs-stats-test.db', {}, function(db) {
+          window.sqlitePlugin.getStats({}, function(stats) {
+            expect(stats.libs.loaded).toBe(true);
+            expect(stats.libs.loadTimeMs).toBeDefined();
+            expect(stats.libs.waitTimeMs).not.toBeLessThan(0);
+            expect(stats.libs.error).toBeUndefined();
+            db.close(done, done);
+          }, unexpected(db, done));
+        });
+      }, MYTIMEOUT);
+
+    });
+
+    describe('Android workload recording', function() {
+
+      it('Record batches, then replay them on scratch databases', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        openNewDatabase('record-test.db', {}, function(db) {
+          db.executeSql('CREATE TABLE Items (name)', [], function() {
+            window.sqlitePlugin.startRecording({path: 'record-test.ndjson'}, function() {
+              db.sqlBatch([
+                [ 'INSERT INTO Items VALUES (?)', ['first'] ],
+                [ 'INSERT INTO Items VALUES (?)', ['second'] ]
+              ], function() {
+                db.executeSql('SELECT count(*) AS c FROM Items', [], function() {
+                  window.sqlitePlugin.stopRecording(function(r) {
+                    expect(r.entries).toBeGreaterThan(1);
+
+                    window.sqlitePlugin.replayWorkload({path: 'record-test.ndjson', setup: ['CREATE TABLE Items (name)']}, function(r) {
+                      expect(r.replayed).toBeGreaterThan(1);
+                      expect(r.failed).toBe(0);
+                      db.close(done, done);
+                    }, unexpected(db, done));
+                  }, unexpected(db, done));
+                }, unexpected(db, done));
+              }, unexpected(db, done));
+            }, unexpected(db, done));
+          }, unexpected(db, done));
+        });
+      }, MYTIMEOUT);
+
+    });
+
+    describe('Android filtered queries', function() {
+
+      var openMessages = function(name, success) {
+        openNewDatabase(name, {}, function(db) {
+          db.sqlBatch([
+            'CREATE TABLE Messages (id INTEGER PRIMARY KEY, subject, headers)',
+            [ 'INSERT INTO Messages (subject, headers) VALUES (?,?)', ['re: first', '{"from":"alice"}'] ],
+            [ 'INSERT INTO Messages (subject, headers) VALUES (?,?)', ['second', '{"from":"betty"}'] ],
+            [ 'INSERT INTO Messages (subject, headers) VALUES (?,?)', ['re: third', null] ]
+          ], function() {
+            success(db);
+          }, unexpected(db, function() {}));
+        });
+      }
+
+      it('Only the rows selected by where are returned, with the select columns', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        openMessages('filtered-query-test.db', function(db) {
+          db.executeFiltered('SELECT id, subject, headers FROM Messages ORDER BY id', [], {
+            where: {fn: 'regexp', args: ['^re:', {column: 'subject'}]},
+            select: {sender: {fn: 'json_value', args: [{column: 'headers'}, 'from']}}
+          }, function(rs) {
+            expect(rs.rowsScanned).toBe(3);
+            expect(rs.rows.length).toBe(2);
+            expect(rs.rows.item(0).subject).toBe('re: first');
+            expect(rs.rows.item(0).sender).toBe('alice');
+            expect(rs.rows.item(1).subject).toBe('re: third');
+            expect(rs.rows.item(1).sender).toBe(null);
+            db.close(done, done);
+          }, unexpected(db, done));
+        });
+      }, MYTIMEOUT);
+
+      it('Aggregate over the selected rows', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        openMessages('filtered-aggregate-test.db', function(db) {
+          db.executeFiltered('SELECT id FROM Messages ORDER BY id', [], {
+            where: {fn: 'regexp', args: ['^[13]$', {column: 'id'}]},
+            aggregate: {ids: {fn: 'json_group_array', args: [{column: 'id'}]}}
+          }, function(rs) {
+            expect(rs.rows.length).toBe(1);
+            expect(rs.rows.item(0).ids).toBe('[1,3]');
+            db.close(done, done);
+          }, unexpected(db, done));
+        });
+      }, MYTIMEOUT);
+
+      it('Filtered query fails with a column that is not in the result', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        openMessages('filtered-missing-column-test.db', function(db) {
+          db.executeFiltered('SELECT id FROM Messages', [], {
+            where: {fn: 'regexp', args: ['^re:', {column: 'subject'}]}
+          }, function() {
+            // NOT EXPECTED:
+            expect(false).toBe(true);
+            db.close(done, done);
+          }, function(error) {
+            // EXPECTED:
+            expect(messageOf(error)).toMatch(/no such column/);
+            db.close(done, done);
+          });
+        });
+      }, MYTIMEOUT);
+
+    });
+
+    describe('Android schema migrations', function() {
+
+      var migrations = [
+        {version: 1, statements: ['CREATE TABLE Telemetry (ts, name, value)']},
+        {version: 2, statements: ['ALTER TABLE Telemetry ADD COLUMN unit', 'CREATE INDEX TelemetryName ON Telemetry (name)']}
+      ];
+
+      it('Pending migrations are applied at open', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        openNewDatabase('migrations-test.db', {androidMigrations: migrations.slice(0, 1)}, function(db) {
+          db.close(function() {
+            openDatabase('migrations-test.db', {androidMigrations: migrations}, function(db2) {
+              db2.executeSql('PRAGMA user_version', [], function(rs) {
+                expect(rs.rows.item(0).user_version).toBe(2);
+
+                db2.executeSql('INSERT INTO Telemetry (ts, name, value, unit) VALUES (?,?,?,?)', [1, 'cpu', 0.3, '%'], function(rs) {
+                  expect(rs.rowsAffected).toBe(1);
+                  db2.close(done, done);
+                }, unexpected(db2, done));
+              }, unexpected(db2, done));
+            }, function(error) {
+              expect(error.message).toBe('--');
+              done();
+            });
+          }, done);
+        }, function(error) {
+          expect(error.message).toBe('--');
+          done();
+        });
+      }, MYTIMEOUT);
+
+      it('Failed migration is rolled back and the open fails', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        var failing = migrations.concat([{version: 3, statements: ['CREATE TABLE Other (a)', 'SLCT 1']}]);
+
+        openNewDatabase('migrations-failure-test.db', {androidMigrations: migrations}, function(db) {
+          db.close(function() {
+            openDatabase('migrations-failure-test.db', {androidMigrations: failing}, function(db2) {
+              // NOT EXPECTED:
+              expect(false).toBe(true);
+              db2.close(done, done);
+            }, function(error) {
+              // EXPECTED:
+              expect(messageOf(error)).toMatch(/Could not open database/);
+
+              openDatabase('migrations-failure-test.db', {}, function(db3) {
+                db3.executeSql('PRAGMA user_version', [], function(rs) {
+                  expect(rs.rows.item(0).user_version).toBe(2);
+
+                  db3.executeSql("SELECT count(*) AS c FROM sqlite_master WHERE name = 'Other'", [], function(rs) {
+                    expect(rs.rows.item(0).c).toBe(0);
+                    db3.close(done, done);
+                  }, unexpected(db3, done));
+                }, unexpected(db3, done));
+              });
+            });
+          }, done);
+        });
+      }, MYTIMEOUT);
+
+    });
+
+    describe('Android query cursors', function() {
+
+      var testCursor = function(dbname, options, done) {
+        openNewDatabase(dbname, {}, function(db) {
+          var statements = [ 'CREATE TABLE Items (id INTEGER PRIMARY KEY, name)' ];
+          for (var i=1; i<=25; ++i) statements.push([ 'INSERT INTO Items VALUES (?,?)', [i, 'name-' + i] ]);
+
+          db.sqlBatch(statements, function() {
+            db.openCursor('SELECT id, name FROM Items ORDER BY id', [], options, function(handle) {
+              var ids = [];
+              var fetches = 0;
+
+              var fetch = function() {
+                db.fetchCursor(handle, 10, function(result) {
+                  ++fetches;
+                  for (var j=0; j<result.rows.length; ++j) ids.push(result.rows[j].id);
+                  if (!result.done) return fetch();
+
+                  expect(fetches).toBe(3);
+                  expect(ids.length).toBe(25);
+                  expect(ids[0]).toBe(1);
+                  expect(ids[24]).toBe(25);
+
+                  // closed after the last row:
+                  db.fetchCursor(handle, 10, function() {
+                    // NOT EXPECTED:
+                    expect(false).toBe(true);
+                    db.close(done, done);
+                  }, function(error) {
+                    // EXPECTED:
+                    expect(messageOf(error)).toMatch(/invalid or expired cursor handle/);
+                    db.close(done, done);
+                  });
+                }, unexpected(db, done));
+              }
+              fetch();
+            }, unexpected(db, done));
+          }, unexpected(db, done));
+        });
+      }
+
+      it('Fetch all rows of a cursor in pages', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        testCursor('cursor-test.db', {}, done);
+      }, MYTIMEOUT);
+
+      it('Fetch all rows of a keyset cursor in pages', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        testCursor('cursor-keyset-test.db', {keyColumn: 'id'}, done);
+      }, MYTIMEOUT);
+
+      it('Keyset cursor does not repeat or skip rows changed between the fetches', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        openNewDatabase('cursor-keyset-change-test.db', {}, function(db) {
+          var statements = [ 'CREATE TABLE Items (id INTEGER PRIMARY KEY, name)' ];
+          for (var i=1; i<=20; ++i) statements.push([ 'INSERT INTO Items VALUES (?,?)', [i, 'name-' + i] ]);
+
+          db.sqlBatch(statements, function() {
+            db.openCursor('SELECT id, name FROM Items', [], {keyColumn: 'id'}, function(handle) {
+              db.fetchCursor(handle, 10, function(result1) {
+                expect(result1.rows.length).toBe(10);
+                expect(result1.done).toBe(false);
+
+                // delete rows that were already read:
+                db.executeSql('DELETE FROM Items WHERE id <= 5', [], function() {
+                  db.fetchCursor(handle, 10, function(result2) {
+                    expect(result2.rows.length).toBe(10);
+                    expect(result2.rows[0].id).toBe(11);
+                    expect(result2.rows[9].id).toBe(20);
+                    expect(result2.done).toBe(true);
+                    db.close(done, done);
+                  }, unexpected(db, done));
+                }, unexpected(db, done));
+              }, unexpected(db, done));
+            }, unexpected(db, done));
+          }, unexpected(db, done));
+        });
+      }, MYTIMEOUT);
+
+      it('Plain table query with no key column is fetched by rowid', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        openNewDatabase('cursor-rowid-test.db', {}, function(db) {
+          var statements = [ 'CREATE TABLE Items (name)' ];
+          for (var i=1; i<=20; ++i) statements.push([ 'INSERT INTO Items VALUES (?)', ['name-' + i] ]);
+
+          db.sqlBatch(statements, function() {
+            db.openCursor('SELECT name FROM Items WHERE name LIKE ?', ['name-%'], {}, function(handle) {
+              db.fetchCursor(handle, 10, function(result1) {
+                expect(result1.rows.length).toBe(10);
+                expect(result1.rows[0]).toEqual({name: 'name-1'});
+
+                // delete rows that were already read:
+                db.executeSql('DELETE FROM Items WHERE rowid <= 5', [], function() {
+                  db.fetchCursor(handle, 10, function(result2) {
+                    expect(result2.rows.length).toBe(10);
+                    expect(result2.rows[0]).toEqual({name: 'name-11'});
+                    expect(result2.rows[9]).toEqual({name: 'name-20'});
+                    expect(result2.done).toBe(true);
+                    db.close(done, done);
+                  }, unexpected(db, done));
+                }, unexpected(db, done));
+              }, unexpected(db, done));
+            }, unexpected(db, done));
+          }, unexpected(db, done));
+        });
+      }, MYTIMEOUT);
+
+      it('Keyset cursor rejects a statement ordered by another column', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        openNewDatabase('cursor-keyset-order-test.db', {}, function(db) {
+          db.executeSql('CREATE TABLE Items (id INTEGER PRIMARY KEY, ts)', [], function() {
+            db.openCursor('SELECT id, ts FROM Items ORDER BY ts DESC', [], {keyColumn: 'id'}, function() {
+              // NOT EXPECTED:
+              expect(false).toBe(true);
+              db.close(done, done);
+            }, function(error) {
+              // EXPECTED:
+              expect(messageOf(error)).toMatch(/can only be ordered by the key column/);
+              db.close(done, done);
+            });
+          }, unexpected(db, done));
+        });
+      }, MYTIMEOUT);
+
+      it('Cursor rejects a statement that does not return rows', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        openNewDatabase('cursor-no-rows-test.db', {}, function(db) {
+          db.executeSql('CREATE TABLE Items (name)', [], function() {
+            db.openCursor('DELETE FROM Items', [], {}, function() {
+              // NOT EXPECTED:
+              expect(false).toBe(true);
+              db.close(done, done);
+            }, function(error) {
+              // EXPECTED:
+              expect(messageOf(error)).toMatch(/cursor needs a statement that returns rows/);
+              db.close(done, done);
+            });
+          }, unexpected(db, done));
+        });
+      }, MYTIMEOUT);
+
+    });
+
+    describe('Android warm-up', function() {
+
+      var warmUp = {
+        statements: ['SELECT name FROM Items WHERE name > ?'],
+        tables: ['Items', 'MissingTable']
+      };
+
+      var testWarmUp = function(dbname, options, done) {
+        openNewDatabase(dbname, {}, function(db) {
+          db.sqlBatch([
+            'CREATE TABLE Items (name)',
+            [ 'INSERT INTO Items VALUES (?)', ['first'] ]
+          ], function() {
+            db.close(function() {
+              openDatabase(dbname, {androidWarmUp: options}, function(db2) {
+                db2.executeSql('SELECT name FROM Items WHERE name > ?', [''], function(rs) {
+                  expect(rs.rows.length).toBe(1);
+                  db2.close(done, done);
+                }, unexpected(db2, done));
+              }, function(error) {
+                expect(error.message).toBe('--');
+                done();
+              });
+            }, done);
+          }, unexpected(db, done));
+        });
+      }
+
+      it('Open with warm-up (failed items skipped)', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        testWarmUp('warm-up-test.db', warmUp, done);
+      }, MYTIMEOUT);
+
+      it('Open with warm-up that yields to batches', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        testWarmUp('warm-up-yield-test.db', {statements: warmUp.statements, tables: warmUp.tables, yieldToBatches: true}, done);
+      }, MYTIMEOUT);
+
+    });
+
+    describe('Android query export', function() {
+
+      it('Export query to CSV then import the file', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        openNewDatabase('export-import-test.db', {}, function(db) {
+          var statements = [
+            'CREATE TABLE Items (id INTEGER PRIMARY KEY, name TEXT)',
+            'CREATE TABLE Copy (id INTEGER PRIMARY KEY, name TEXT)'
+          ];
+          for (var i=1; i<=25; ++i) statements.push([ 'INSERT INTO Items VALUES (?,?)', [i, 'name, ' + i] ]);
+
+          db.sqlBatch(statements, function() {
+            db.exportQuery('SELECT id, name FROM Items', [], {path: 'export-import-test.csv', keyColumn: 'id', chunkRows: 10}, function(result) {
+              expect(result.rows).toBe(25);
+
+              db.importData({path: 'export-import-test.csv', table: 'Copy', chunkRows: 10}, function(result) {
+                expect(result.rowsRead).toBe(25);
+                expect(result.rowsImported).toBe(25);
+
+                db.executeSql('SELECT count(*) AS c, max(name) AS m FROM Copy', [], function(rs) {
+                  expect(rs.rows.item(0).c).toBe(25);
+                  expect(rs.rows.item(0).m).toBe('name, 9');
+                  db.close(done, done);
+                }, unexpected(db, done));
+              }, unexpected(db, done));
+            }, unexpected(db, done));
+          }, unexpected(db, done));
+        });
+      }, MYTIMEOUT);
+
+      it('Import counts the rows ignored by onConflict ignore', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        openNewDatabase('import-ignore-test.db', {}, function(db) {
+          db.sqlBatch([
+            'CREATE TABLE Items (id INTEGER PRIMARY KEY, name TEXT)',
+            [ 'INSERT INTO Items VALUES (?,?)', [1, 'first'] ],
+            [ 'INSERT INTO Items VALUES (?,?)', [2, 'second'] ]
+          ], function() {
+            db.exportQuery('SELECT id, name FROM Items', [], {path: 'import-ignore-test.ndjson'}, function() {
+              db.executeSql('DELETE FROM Items WHERE id = 2', [], function() {
+                db.importData({path: 'import-ignore-test.ndjson', table: 'Items', onConflict: 'ignore'}, function(result) {
+                  expect(result.rowsRead).toBe(2);
+                  expect(result.rowsImported).toBe(1);
+                  expect(result.rowsIgnored).toBe(1);
+                  db.close(done, done);
+                }, unexpected(db, done));
+              }, unexpected(db, done));
+            }, unexpected(db, done));
+          }, unexpected(db, done));
+        });
+      }, MYTIMEOUT);
+
+      it('Export plain table query with no key column in steps by rowid', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        openNewDatabase('export-rowid-test.db', {}, function(db) {
+          var statements = [
+            'CREATE TABLE Items (name TEXT)',
+            'CREATE TABLE Copy (name TEXT)'
+          ];
+          for (var i=1; i<=25; ++i) statements.push([ 'INSERT INTO Items VALUES (?)', ['name-' + i] ]);
+
+          db.sqlBatch(statements, function() {
+            var progressCount = 0;
+            db.exportQuery('SELECT name FROM Items', [], {path: 'export-rowid-test.csv', chunkRows: 10}, function(result) {
+              expect(result.rows).toBe(25);
+              expect(progressCount).toBe(2);
+
+              // (with no rowid column in the file)
+              db.importData({path: 'export-rowid-test.csv', table: 'Copy'}, function(result) {
+                expect(result.rowsImported).toBe(25);
+                db.close(done, done);
+              }, unexpected(db, done));
+            }, unexpected(db, done), function(progress) {
+              ++progressCount;
+            });
+          }, unexpected(db, done));
+        });
+      }, MYTIMEOUT);
+
+      it('Export query needs a key column for a statement that is not a plain table query', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        openNewDatabase('export-no-key-test.db', {}, function(db) {
+          db.executeSql('CREATE TABLE Items (name)', [], function() {
+            db.exportQuery('SELECT name FROM Items ORDER BY name', [], {path: 'export-no-key-test.csv'}, function() {
+              // NOT EXPECTED:
+              expect(false).toBe(true);
+              db.close(done, done);
+            }, function(error) {
+              // EXPECTED:
+              expect(messageOf(error)).toMatch(/export needs a keyColumn/);
+              db.close(done, done);
+            });
+          }, unexpected(db, done));
+        });
+      }, MYTIMEOUT);
+
+      it('Export query rejects a statement that does not return rows', function(done) {
+        if (!isAndroid) pending('SKIP for this platform: Android only');
+
+        openNewDatabase('export-no-rows-test.db', {}, function(db) {
+          db.executeSql('CREATE TABLE Items (name)', [], function() {
+            db.exportQuery('DELETE FROM Items', [], {path: 'export-no-rows-test.csv'}, function() {
+              // NOT EXPECTED:
+              expect(false).toBe(true);
+              db.close(done, done);
+            }, function(error) {
+              // EXPECTED:
+              expect(error).toBeDefined();
+              db.close(done, done);
+            });
+          }, unexpected(db, done));
+        });
+      }, MYTIMEOUT);
+
+    });
+
+  });
+}
+
+if (window.hasBrowser) mytests();
+else exports.defineAutoTests = mytests;
+
+/* vim: set expandtab : */
@@ -0,0 +1,289 @@
+/* 'use strict'; */
+
+var MYTIMEOUT = 120000;
+
+// max time to wait for the remaining callbacks (then counted as lost):
+var LOST_CALLBACK_TIMEOUT = 60000;
+
+var isWindows = /Windows /.test(navigator.userAgent);
+var isAndroid = !isWindows && /Android/.test(navigator.userAgent);
+
+// NOTE: These tests send the requests directly to the native plugin (Android only),
+// with no help from the JS transaction queue, to stress the concurrent open, close,
+// delete, and batch requests for the db runners. Each test checks that there is
+// exactly one callback for each request and logs the throughput and latency.
+var mytests = function() {
+
+  describe('Plugin: native db runner stress test(s)', function() {
+
+    var newTracker = function(name) {
+      var tracker = {
+        name: name,
+        requests: 0,
+        completed: 0,
+        errors: 0,
+        duplicates: 0,
+        latencies: [],
+        startTime: Date.now()
+      };
+
+      tracker.exec = function(action, args, cb) {
+        var start = Date.now();
+        var calls = 0;
+
+        ++tracker.requests;
+
+        var report = function(ok, result) {
+          ++calls;
+          if (calls > 1) {
+            ++tracker.duplicates;
+            return;
+          }
+
+          ++tracker.completed;
+          if (!ok) ++tracker.errors;
+          tracker.latencies.push(Date.now() - start);
+
+          if (!!cb) cb(ok, result);
+          if (!!tracker.onIdle && tracker.completed === tracker.requests) tracker.onIdle();
+        };
+
+        cordova.exec(function(r) { report(true, r); }, function(e) { report(false, e); },
+          'SQLitePlugin', action, [args]);
+      };
+
+      tracker.percentile = function(p) {
+        var sorted = tracker.latencies.slice().sort(function(a, b) { return a - b; });
+        if (sorted.length === 0) return 0;
+        return sorted[Math.max(Math.ceil(p / 100 * sorted.length) - 1, 0)];
+      };
+
+      tracker.log = function() {
+        var ms = Date.now() - tracker.startTime;
+        console.log('STRESS ' + tracker.name + ': requests: ' + tracker.requests +
+          ' lost: ' + (tracker.requests - tracker.completed) + ' duplicates: ' + tracker.duplicates +
+          ' errors: ' + tracker.errors + ' total ms: ' + ms +
+          ' requests/sec: ' + Math.round(tracker.requests * 1000 / Math.max(ms, 1)) +
+          ' latency ms p50: ' + tracker.percentile(50) + ' p99: ' + tracker.percentile(99) +
+          ' max: ' + tracker.percentile(100));
+      };
+
+      // call done once all callbacks are received (or counted as lost after the timeout):
+      tracker.finish = function(done, check) {
+        var finished = false;
+
+        var end = function() {
+          if (finished) return;
+          finished = true;
+          clearTimeout(timer);
+          tracker.log();
+
+          expect(tracker.requests - tracker.completed).toBe(0);
+          expect(tracker.duplicates).toBe(0);
+          if (!!check) check();
+
+          // (wait for late duplicate callbacks, if any)
+          setTimeout(function() {
+            expect(tracker.duplicates).toBe(0);
+            done();
+          }, 500);
+        };
+
+        var timer = setTimeout(end, LOST_CALLBACK_TIMEOUT);
+
+        tracker.onIdle = end;
+        if (tracker.completed === tracker.requests) end();
+      };
+
+      return tracker;
+    };
+
+    var batchArgs = function(dbname, generation, sql, params) {
+      var dbargs = {dbname: dbname};
+      if (generation !== undefined) dbargs.generation = generation;
+      return {dbargs: dbargs, executes: [
+        {sql: 'CREATE TABLE IF NOT EXISTS tt (data)', params: []},
+        {sql: sql, params: params}
+      ]};
+    };
+
+    it('Concurrent open, batches, and close on many databases (in rounds)', function(done) {
+      if (!isAndroid) pending('SKIP: native db runner stress test is for Android only');
+
+      var DB_COUNT = 16;
+      var ROUNDS = 4;
+      var BATCHES_PER_ROUND = 10;
+
+      var t = newTracker('open-batch-close');
+      var remaining = DB_COUNT;
+
+      var runRound = function(dbname, round) {
+        if (round === ROUNDS) {
+          t.exec('delete', {path: dbname}, function(ok) {
+            expect(ok).toBe(true);
+            if (--remaining === 0) t.finish(done);
+          });
+          return;
+        }
+
+        t.exec('open', {name: dbname}, function(ok, result) {
+          expect(ok).toBe(true);
+          if (!ok) {
+            runRound(dbname, ROUNDS);
+            return;
+          }
+
+          var batchesLeft = BATCHES_PER_ROUND;
+          for (var i=0; i<BATCHES_PER_ROUND; ++i) {
+            t.exec('executeSqlBatch', batchArgs(dbname, result.generation,
+                'INSERT INTO tt VALUES (?)', ['round-' + round + '-' + i]), function(ok, results) {
+              expect(ok).toBe(true);
+              if (ok) expect(results[1].type).toBe('success');
+
+              if (--batchesLeft === 0) {
+                t.exec('close', {path: dbname}, function(ok) {
+                  expect(ok).toBe(true);
+                  runRound(dbname, round + 1);
+                });
+              }
+            });
+          }
+        });
+      };
+
+      for (var i=0; i<DB_COUNT; ++i) {
+        var dbname = 'stress-db-' + i + '.db';
+        // (start from a new database)
+        t.exec('delete', {path: dbname}, (function(dbname) {
+          return function() { runRound(dbname, 0); };
+        })(dbname));
+      }
+    }, MYTIMEOUT);
+
+    it('Pipelined open, batch, and close requests on the same database', function(done) {
+      if (!isAndroid) pending('SKIP: native db runner stress test is for Android only');
+
+      var CYCLES = 50;
+      var dbname = 'stress-pipelined.db';
+
+      var t = newTracker('pipelined-reopen');
+
+      t.exec('delete', {path: dbname}, function() {
+        // NOTE: the next request is sent with no wait for the previous callback
+        for (var i=0; i<CYCLES; ++i) {
+          t.exec('open', {name: dbname}, function(ok) {
+            expect(ok).toBe(true);
+          });
+          t.exec('executeSqlBatch', batchArgs(dbname, undefined, 'INSERT INTO tt VALUES (?)', [i]), function(ok, results) {
+            expect(ok).toBe(true);
+            if (ok) expect(results[1].type).toBe('success');
+          });
+          t.exec('close', {path: dbname}, function(ok) {
+            expect(ok).toBe(true);
+          });
+        }
+
+        t.finish(function() {
+          // all rows inserted:
+          var check = newTracker('pipelined-reopen-check');
+          check.exec('open', {name: dbname}, function(ok) {
+            expect(ok).toBe(true);
+            check.exec('executeSqlBatch', batchArgs(dbname, undefined, 'SELECT COUNT(*) AS c FROM tt', []), function(ok, results) {
+              expect(ok).toBe(true);
+              if (ok) expect(results[1].result.rows[0].c).toBe(CYCLES);
+              check.exec('delete', {path: dbname});
+              check.finish(done);
+            });
+          });
+        });
+      });
+    }, MYTIMEOUT);
+
+    it('Batches queued before and after delete: exactly one callback for each', function(done) {
+      if (!isAndroid) pending('SKIP: native db runner stress test is for Android only');
+
+      var BATCHES_BEFORE = 50;
+      var BATCHES_AFTER = 20;
+      var dbname = 'stress-delete.db';
+
+      var t = newTracker('batches-delete');
+      var succeededBefore = 0;
+      var failedAfter = 0;
+
+      t.exec('open', {name: dbname}, function(ok, result) {
+        expect(ok).toBe(true);
+
+        for (var i=0; i<BATCHES_BEFORE; ++i) {
+          t.exec('executeSqlBatch', batchArgs(dbname, result.generation, 'INSERT INTO tt VALUES (?)', [i]), function(ok) {
+            if (ok) ++succeededBefore;
+          });
+        }
+
+        t.exec('delete', {path: dbname}, function(ok) {
+          expect(ok).toBe(true);
+        });
+
+        for (var j=0; j<BATCHES_AFTER; ++j) {
+          t.exec('executeSqlBatch', batchArgs(dbname, result.generation, 'INSERT INTO tt VALUES (?)', [j]), function(ok) {
+            if (!ok) ++failedAfter;
+          });
+        }
+
+        t.finish(done, function() {
+          expect(succeededBefore).toBe(BATCHES_BEFORE);
+          expect(failedAfter).toBe(BATCHES_AFTER);
+        });
+      });
+    }, MYTIMEOUT);
+
+    it('Concurrent batches from many callers on a few databases (throughput)', function(done) {
+      if (!isAndroid) pending('SKIP: native db runner stress test is for Android only');
+
+      var DB_COUNT = 4;
+      var BATCHES_PER_DB = 500;
+
+      var t = newTracker('batch-throughput');
+      var opened = 0;
+
+      var generations = {};
+
+      var startBatches = function() {
+        for (var i=0; i<BATCHES_PER_DB; ++i) {
+          for (var d=0; d<DB_COUNT; ++d) {
+            var dbname = 'stress-throughput-' + d + '.db';
+            var sql = (i % 4 === 0) ? 'INSERT INTO tt VALUES (?)' : 'SELECT COUNT(*) AS c FROM tt WHERE data = ?';
+            t.exec('executeSqlBatch', batchArgs(dbname, generations[dbname], sql, [i]), function(ok, results) {
+              expect(ok).toBe(true);
+              if (ok) expect(results[1].type).toBe('success');
+            });
+          }
+        }
+
+        t.finish(function() {
+          for (var d=0; d<DB_COUNT; ++d) {
+            t.exec('delete', {path: 'stress-throughput-' + d + '.db'});
+          }
+          t.finish(done);
+        });
+      };
+
+      for (var d=0; d<DB_COUNT; ++d) {
+        (function(dbname) {
+          t.exec('delete', {path: dbname}, function() {
+            t.exec('open', {name: dbname}, function(ok, result) {
+              expect(ok).toBe(true);
+              generations[dbname] = result.generation;
+              if (++opened === DB_COUNT) startBatches();
+            });
+          });
+        })('stress-throughput-' + d + '.db');
+      }
+    }, MYTIMEOUT);
+
+  });
+}
+
+if (window.hasBrowser) mytests();
+else exports.defineAutoTests = mytests;
+
+/* vim: set expandtab : */
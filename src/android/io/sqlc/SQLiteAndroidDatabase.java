@@ -29,7 +29,18 @@ import java.io.File;
 import java.lang.IllegalArgumentException;
 import java.lang.Number;
 
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -45,7 +56,7 @@ import org.json.JSONObject;
 /**
  * Android Database helper class
  */
-class SQLiteAndroidDatabase
+class SQLiteAndroidDatabase implements SQLiteRunnerDatabase
 {
     private static final Pattern FIRST_WORD = Pattern.compile("^[\\s;]*([^\\s;]+)",
             Pattern.CASE_INSENSITIVE);
@@ -53,86 +64,1425 @@ class SQLiteAndroidDatabase
     private static final Pattern WHERE_CLAUSE = Pattern.compile("\\s+WHERE\\s+(.+)$",
             Pattern.CASE_INSENSITIVE);
 
-    private static final Pattern UPDATE_TABLE_NAME = Pattern.compile("^\\s*UPDATE\\s+(\\S+)",
+    // (stripped from a query used as a subquery)
+    private static final Pattern TRAILING_SEMICOLONS = Pattern.compile("[\\s;]+$");
+
+    // result column added for the keyset paging of a plain table query by rowid
+    // (not included in the rows):
+    static final String ROWID_KEY_COLUMN = "_sqlc_rowid_";
+
+    // table name or alias (as masked by maskQuery):
+    private static final String MASKED_NAME = "(?:\\w+|\"x*\"|`x*`|\\[x*\\])";
+
+    // SELECT from a single table (or alias) with an optional WHERE clause,
+    // in a masked query (see maskQuery):
+    private static final Pattern PLAIN_TABLE_QUERY = Pattern.compile(
+            "^\\s*SELECT\\s+(?:ALL\\s+)?(\\S.*?)\\s+FROM\\s+(" + MASKED_NAME + "(?:\\s*\\.\\s*" + MASKED_NAME + ")?)" +
+            "(?:\\s+(?:AS\\s+)?(?!(?:WHERE|INDEXED|NOT)\\b)(" + MASKED_NAME + "))?" +
+            "(?:\\s+(?:WHERE|INDEXED\\s+BY|NOT\\s+INDEXED)\\b.*)?$",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    // not a plain table query (or an aggregate of all rows), in a masked query:
+    private static final Pattern NOT_PLAIN_TABLE_QUERY = Pattern.compile(
+            "\\b(?:DISTINCT|EXCEPT|GROUP|HAVING|INTERSECT|JOIN|LIMIT|ORDER|UNION|WINDOW)\\b|" +
+            "\\b(?:avg|count|group_concat|max|min|sum|total)\\s*\\(",
+            Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern TOP_LEVEL_ORDER_BY = Pattern.compile("\\bORDER\\s+BY\\b",
+            Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern TOP_LEVEL_LIMIT = Pattern.compile("\\bLIMIT\\b",
+            Pattern.CASE_INSENSITIVE);
+
+    // ORDER BY term of a single (possibly qualified) column, ascending:
+    private static final Pattern ORDER_BY_COLUMN = Pattern.compile(
+            "^\\s*(?:(?:\\w+|\"(?:[^\"]|\"\")*\")\\s*\\.\\s*)?(\\w+|\"(?:[^\"]|\"\")*\")\\s*(?:ASC\\s*)?$",
+            Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern UPDATE_TABLE_NAME = Pattern.compile("^[\\s;]*UPDATE\\s+(?:OR\\s+\\w+\\s+)?([^\\s(]+)",
+            Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern DELETE_TABLE_NAME = Pattern.compile("^[\\s;]*DELETE\\s+FROM\\s+([^\\s(]+)",
+            Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern INSERT_TABLE_NAME = Pattern.compile("^[\\s;]*INSERT\\s+(?:OR\\s+\\w+\\s+)?INTO\\s+([^\\s(]+)",
+            Pattern.CASE_INSENSITIVE);
+
+    // table name (as written) of an INSERT or REPLACE statement:
+    private static final Pattern UPSERT_TABLE_NAME = Pattern.compile("^[\\s;]*(?:INSERT\\s+(?:OR\\s+\\w+\\s+)?|REPLACE\\s+)INTO\\s+([^\\s(]+)",
+            Pattern.CASE_INSENSITIVE);
+
+    // statements rejected (before execution) in a read-only batch:
+    private static final Pattern WRITE_STATEMENT = Pattern.compile(
+            "^[\\s;]*(?:alter|analyze|attach|begin|commit|create|delete|detach|drop|end|insert|reindex|release|replace|rollback|savepoint|update|vacuum)\\b",
             Pattern.CASE_INSENSITIVE);
 
-    private static final Pattern DELETE_TABLE_NAME = Pattern.compile("^\\s*DELETE\\s+FROM\\s+(\\S+)",
+    // max number of error details in the result of an upsert batch (or import):
+    private static final int MAX_UPSERT_ERRORS = 10;
+
+    private static final Pattern REPLACE_STATEMENT = Pattern.compile("^[\\s;]*replace\\b",
             Pattern.CASE_INSENSITIVE);
 
+    private static final Pattern ATTACH_ALIAS = Pattern.compile("^[A-Za-z_][A-Za-z0-9_]*$");
+
+    // written table name in case the effect of a statement is not known:
+    static final String UNKNOWN_TABLE = "*";
+
     private static final boolean isPostHoneycomb = android.os.Build.VERSION.SDK_INT >= 11;
 
     File dbFile;
 
+    // current key (needed to export or reopen the database):
+    String dbkey;
+
     SQLiteDatabase mydb;
 
     boolean isTransactionActive = false;
 
-    /**
-     * NOTE: Using default constructor, no explicit constructor.
-     */
+    // separate read-only connection (with PRAGMA query_only):
+    boolean isReadOnlyConnection = false;
+
+    // attached databases (alias -> file, key), attached again if the database is reopened:
+    final Map<String, AttachedDatabase> attachedDatabases = new LinkedHashMap<String, AttachedDatabase>();
+
+    SQLiteQueryCache queryCache = null;
+
+    SQLiteChangeNotifier changeNotifier = null;
+
+    // prepared statements by handle, finalized when the database is closed (db thread only):
+    private final Map<Integer, PreparedStatement> preparedStatements = new HashMap<Integer, PreparedStatement>();
+    private int lastPreparedHandle = 0;
+
+    // open (scrollable) query cursors by handle, closed when the database is closed (db thread only):
+    private final Map<Integer, OpenCursor> openCursors = new HashMap<Integer, OpenCursor>();
+    private int lastCursorHandle = 0;
+
+    // precompiled statements to get the change counts (db thread only):
+    private SQLiteStatement totalChangesStatement = null;
+    private SQLiteStatement lastInsertRowidStatement = null;
+
+    // tables written while write tracking is active (for export job):
+    Set<String> writtenTables = null;
+
+    // (lazily loaded) schema info needed for query cache invalidation:
+    Set<String> cacheSchemaTables = null;
+    Set<String> cacheTriggerTables = null;
+    boolean cacheForeignKeysOn = false;
+
+    /**
+     * NOTE: Using default constructor, no explicit constructor.
+     */
+
+    // native lib(s) loaded in the background, the first open waits for the load:
+    private static final AtomicBoolean libsLoadStarted = new AtomicBoolean(false);
+    private static final CountDownLatch libsLoaded = new CountDownLatch(1);
+    private static volatile Throwable libsLoadError = null;
+    private static volatile long libsLoadTimeMs = -1;
+    private static final AtomicLong libsWaitTimeMs = new AtomicLong(0);
+
+    // max time to wait for the native lib(s) to be loaded:
+    private static final int LIBS_LOAD_TIMEOUT_SECONDS = 30;
+
+    /**
+     * to load native lib(s), in the background (not on the plugin init path)
+     */
+    //@Override
+    static
+    public void initialize(final CordovaInterface cordova) {
+        if (!libsLoadStarted.compareAndSet(false, true)) return;
+
+        cordova.getThreadPool().execute(new Runnable() {
+            public void run() {
+                long start = System.nanoTime();
+                try {
+                    SQLiteDatabase.loadLibs(cordova.getActivity());
+                } catch (Throwable t) {
+                    Log.e(SQLitePlugin.class.getSimpleName(), "couldn't load native libs", t);
+                    libsLoadError = t;
+                }
+                libsLoadTimeMs = (System.nanoTime() - start) / 1000000;
+                libsLoaded.countDown();
+            }
+        });
+    }
+
+    /**
+     * Wait until the native lib(s) are loaded (in the db thread, before a database is opened).
+     */
+    static void awaitLibs() throws Exception {
+        if (libsLoaded.getCount() > 0) {
+            long start = System.nanoTime();
+            boolean loaded = libsLoaded.await(LIBS_LOAD_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            libsWaitTimeMs.addAndGet((System.nanoTime() - start) / 1000000);
+            if (!loaded) throw new RuntimeException("timed out loading native libs");
+        }
+
+        if (libsLoadError != null) {
+            throw new RuntimeException("couldn't load native libs: " + libsLoadError);
+        }
+    }
+
+    /**
+     * Get the native lib(s) load statistics.
+     *
+     * @return { loaded, loadTimeMs, waitTimeMs, error }
+     */
+    static JSONObject getLibsStats() throws JSONException {
+        JSONObject stats = new JSONObject();
+        stats.put("loaded", libsLoaded.getCount() == 0 && libsLoadError == null);
+        if (libsLoadTimeMs >= 0) stats.put("loadTimeMs", libsLoadTimeMs);
+        stats.put("waitTimeMs", libsWaitTimeMs.get());
+        if (libsLoadError != null) stats.put("error", libsLoadError.toString());
+        return stats;
+    }
+
+    /**
+     *
+     * Open a database.
+     *
+     * @param dbfile   The database File specification
+     */
+    void open(File dbfile, String key) throws Exception {
+        mydb = SQLiteDatabase.openOrCreateDatabase(dbfile, key, null);
+        dbFile = dbfile;
+        dbkey = key;
+
+        // (in case the database is reopened, such as after rekey)
+        for (Map.Entry<String, AttachedDatabase> e: attachedDatabases.entrySet()) {
+            attach(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * Open an in-memory database (no database file, dbFile is null).
+     *
+     * @param key      The key (empty for plaintext)
+     */
+    void openInMemory(String key) throws Exception {
+        mydb = SQLiteDatabase.openOrCreateDatabase(SQLiteDatabase.MEMORY, key, null);
+        dbFile = null;
+        dbkey = key;
+    }
+
+    /**
+     * Open a separate read-only connection to a database.
+     *
+     * @param dbfile   The database File specification
+     */
+    void openReadOnly(File dbfile, String key) throws Exception {
+        mydb = SQLiteDatabase.openDatabase(dbfile.getAbsolutePath(), key, null, SQLiteDatabase.OPEN_READONLY);
+        mydb.rawExecSQL("PRAGMA query_only = 1");
+        dbFile = dbfile;
+        dbkey = key;
+        isReadOnlyConnection = true;
+    }
+
+    /**
+     * Attach an additional database with its own key (not in a transaction).
+     *
+     * @param alias   Schema name of the attached database
+     * @param file    Database file (created if it does not exist), null for an in-memory database
+     *                (NOTE: empty again in case the database is reopened, such as after rekey)
+     * @param key     Key of the attached database (empty for plaintext, null for the same key)
+     */
+    void attachDatabase(String alias, File file, String key) throws Exception {
+        if (!ATTACH_ALIAS.matcher(alias).matches() || alias.equalsIgnoreCase("main") ||
+            alias.equalsIgnoreCase("temp") || alias.equalsIgnoreCase(SQLiteExportJob.ALIAS)) {
+            throw new RuntimeException("invalid alias: " + alias);
+        }
+
+        if (attachedDatabases.containsKey(alias)) {
+            throw new RuntimeException("database already attached as: " + alias);
+        }
+
+        if (file != null) {
+            if (file.equals(dbFile)) {
+                throw new RuntimeException("cannot attach database to itself");
+            }
+
+            file.getParentFile().mkdirs();
+        }
+
+        AttachedDatabase a = new AttachedDatabase(file, (key != null) ? key : dbkey);
+        attach(alias, a);
+        attachedDatabases.put(alias, a);
+    }
+
+    /**
+     * Detach a database attached by attachDatabase() (not in a transaction).
+     */
+    void detachDatabase(String alias) throws Exception {
+        if (!attachedDatabases.containsKey(alias)) {
+            throw new RuntimeException("no database attached as: " + alias);
+        }
+
+        mydb.execSQL("DETACH DATABASE " + alias);
+        attachedDatabases.remove(alias);
+
+        // table names may now resolve to the main database:
+        cacheSchemaTables = null;
+        if (queryCache != null) queryCache.invalidateAll();
+    }
+
+    private void attach(String alias, AttachedDatabase a) {
+        mydb.execSQL("ATTACH DATABASE ? AS " + alias + " KEY ?",
+            new Object[] { (a.file != null) ? a.file.getAbsolutePath() : SQLiteDatabase.MEMORY, a.key });
+
+        cacheSchemaTables = null;
+        if (queryCache != null) queryCache.invalidateAll();
+    }
+
+    /**
+     * Switch the database to WAL journal mode (persistent), needed to read
+     * from a separate connection while a write transaction is active.
+     */
+    void enableWriteAheadLogging() {
+        mydb.rawExecSQL("PRAGMA journal_mode = WAL");
+    }
+
+    /**
+     * Keep the rollback journal in memory and skip fsync, for a temporary
+     * (scratch) database that is deleted when closed.
+     */
+    void enableScratchMode() {
+        mydb.rawExecSQL("PRAGMA journal_mode = MEMORY");
+        mydb.rawExecSQL("PRAGMA synchronous = OFF");
+    }
+
+    /**
+     * Apply the versioned schema migrations newer than PRAGMA user_version,
+     * in a single transaction that also sets the new user_version.
+     *
+     * @param migrations  Array of { version, statements } in ascending version order
+     * @return { from, to } user_version before and after the migrations
+     */
+    JSONObject applyMigrations(JSONArray migrations) throws Exception {
+        int from = mydb.getVersion();
+        int to = from;
+
+        int last = 0;
+        for (int i = 0; i < migrations.length(); ++i) {
+            int version = migrations.getJSONObject(i).getInt("version");
+            if (version <= last) {
+                throw new IllegalArgumentException("invalid migrations: versions must be positive and in ascending order");
+            }
+            last = version;
+        }
+
+        if (last > from) {
+            mydb.beginTransaction();
+            try {
+                for (int i = 0; i < migrations.length(); ++i) {
+                    JSONObject m = migrations.getJSONObject(i);
+                    int version = m.getInt("version");
+                    if (version <= from) continue;
+
+                    JSONArray statements = m.getJSONArray("statements");
+                    for (int j = 0; j < statements.length(); ++j) {
+                        try {
+                            mydb.rawExecSQL(statements.getString(j));
+                        } catch (Exception ex) {
+                            throw new RuntimeException("migration to version " + version + " failed: " +
+                                SQLiteErrorReporter.messageFor(ex));
+                        }
+                    }
+                    to = version;
+                }
+
+                mydb.setVersion(to);
+                mydb.setTransactionSuccessful();
+            } finally {
+                mydb.endTransaction();
+            }
+        }
+
+        JSONObject result = new JSONObject();
+        result.put("from", from);
+        result.put("to", to);
+        return result;
+    }
+
+    /**
+     * Compile a statement into the SQLCipher statement cache (for warm-up).
+     *
+     * NOTE: SQLCipher caches the compiled SELECT, INSERT, UPDATE, REPLACE, and DELETE statements only.
+     */
+    void precompileStatement(String query) {
+        SQLiteStatement statement = mydb.compileStatement(query);
+        statement.close();
+    }
+
+    /**
+     * Read all pages of a table or index into the page cache (for warm-up).
+     */
+    void readAhead(String name) {
+        String sql = "SELECT count(*) FROM " + SQLiteExportJob.quote(name) + " NOT INDEXED";
+
+        Cursor cur = mydb.rawQuery("SELECT tbl_name FROM sqlite_master WHERE type = 'index' AND name = ?",
+            new String[] { name });
+        try {
+            if (cur.moveToFirst()) {
+                sql = "SELECT count(*) FROM " + SQLiteExportJob.quote(cur.getString(0)) +
+                    " INDEXED BY " + SQLiteExportJob.quote(name);
+            }
+        } finally {
+            cur.close();
+        }
+
+        Cursor count = mydb.rawQuery(sql, new String[0]);
+        try {
+            count.moveToFirst();
+        } finally {
+            count.close();
+        }
+    }
+
+    /**
+     * Enable the (opt-in) SELECT result cache for this database.
+     *
+     * @param cache   The result cache, shared with the Cordova bridge thread
+     */
+    void enableQueryCache(SQLiteQueryCache cache) {
+        queryCache = cache;
+    }
+
+    /**
+     * Enable change notifications for this database.
+     *
+     * @param notifier   The change notifier, with listeners added from the Cordova bridge thread
+     */
+    void enableChangeNotifier(SQLiteChangeNotifier notifier) {
+        changeNotifier = notifier;
+    }
+
+    /**
+     * Start tracking the tables written by the batches.
+     *
+     * @return false if write tracking is already active
+     */
+    boolean startWriteTracking() {
+        if (writtenTables != null) return false;
+        writtenTables = new HashSet<String>();
+        return true;
+    }
+
+    void stopWriteTracking() {
+        writtenTables = null;
+    }
+
+    /**
+     * Get (and reset) the tables written since the last call,
+     * including UNKNOWN_TABLE in case of a statement with unknown effect(s).
+     */
+    Set<String> takeWrittenTables() {
+        Set<String> tables = (writtenTables != null) ? writtenTables : new HashSet<String>();
+        if (writtenTables != null) writtenTables = new HashSet<String>();
+        return tables;
+    }
+
+    public boolean isTransactionActive() {
+        return isTransactionActive;
+    }
+
+    public boolean stepJob(SQLiteJob job) throws Exception {
+        return job.step(this);
+    }
+
+    public void cleanupJob(SQLiteJob job) {
+        job.cleanup(this);
+    }
+
+    /**
+     * Close a database (in the current thread).
+     */
+    public void closeDatabaseNow() {
+        if (mydb != null) {
+            if (isTransactionActive) {
+                mydb.endTransaction();
+                isTransactionActive = false;
+                if (changeNotifier != null) changeNotifier.discard();
+            }
+            for (PreparedStatement p: preparedStatements.values()) {
+                if (p.statement != null) p.statement.close();
+            }
+            preparedStatements.clear();
+
+            for (OpenCursor c: openCursors.values()) c.close();
+            openCursors.clear();
+
+            if (totalChangesStatement != null) totalChangesStatement.close();
+            if (lastInsertRowidStatement != null) lastInsertRowidStatement.close();
+            totalChangesStatement = null;
+            lastInsertRowidStatement = null;
+
+            mydb.close();
+            mydb = null;
+        }
+    }
+
+    /* NOTE: bug workaround NOT NEEDED in this version */
+
+    /**
+     * Executes a batch request and sends the results via cbc.
+     *
+     * @param queryarr   Array of query strings
+     * @param jsonparamsArr Array of JSON query parameters
+     * @param cbc        Callback context from Cordova API
+     */
+    public void executeSqlBatch(String[] queryarr, JSONArray[] jsonparamsArr, CallbackContext cbc) {
+
+        if (mydb == null) {
+            // not allowed - can only happen if someone has closed (and possibly deleted) a database and then re-used the database
+            cbc.error("database has been closed");
+            return;
+        }
+
+        int len = queryarr.length;
+        JSONArray batchResults = new JSONArray();
+
+        for (int i = 0; i < len; i++) {
+            executeSqlBatchStatement(queryarr[i], jsonparamsArr[i], batchResults);
+        }
+
+        cbc.success(batchResults);
+
+        // deliver changes committed by this batch:
+        if (changeNotifier != null && !isTransactionActive) {
+            changeNotifier.flush();
+        }
+    }
+
+    /**
+     * Executes a read-only batch request in its own read transaction
+     * (BEGIN DEFERRED with PRAGMA query_only) and sends the results via cbc.
+     * Write statements are rejected before execution.
+     *
+     * NOTE: each batch is a separate read transaction, the batches of the same
+     * readTransaction (in JS) may see changes committed in between.
+     *
+     * NOTE: in case a transaction is already active (on this connection)
+     * the batch is executed in that transaction.
+     *
+     * @param queryarr   Array of query strings
+     * @param jsonparamsArr Array of JSON query parameters
+     * @param cbc        Callback context from Cordova API
+     */
+    public void executeReadOnlyBatch(String[] queryarr, JSONArray[] jsonparamsArr, CallbackContext cbc) {
+
+        if (mydb == null) {
+            cbc.error("database has been closed");
+            return;
+        }
+
+        boolean snapshot = !isTransactionActive;
+
+        try {
+            if (snapshot) {
+                if (!isReadOnlyConnection) mydb.rawExecSQL("PRAGMA query_only = 1");
+                mydb.rawExecSQL("BEGIN DEFERRED");
+            }
+        } catch (Exception ex) {
+            Log.v("executeSqlBatch", "could not start read-only batch: " + ex.getMessage());
+            if (!isReadOnlyConnection) queryOnlyOff();
+            cbc.error("could not start read-only batch: " + ex.getMessage());
+            return;
+        }
+
+        int len = queryarr.length;
+        JSONArray batchResults = new JSONArray();
+
+        try {
+            for (int i = 0; i < len; i++) {
+                if (WRITE_STATEMENT.matcher(queryarr[i]).find()) {
+                    batchResults.put(SQLiteErrorReporter.errorResult("executeSqlBatch",
+                        SQLiteErrorReporter.SYNTAX_ERR, "invalid sql for a read-only transaction"));
+                } else {
+                    executeSqlBatchStatement(queryarr[i], jsonparamsArr[i], batchResults);
+                }
+            }
+        } catch (JSONException ex) {
+            // NOT expected:
+            Log.v("executeSqlBatch", "unexpected JSON error: " + ex.getMessage());
+        } finally {
+            if (snapshot) {
+                try {
+                    mydb.rawExecSQL("COMMIT");
+                } catch (Exception ex) {
+                    Log.v("executeSqlBatch", "could not end read-only batch: " + ex.getMessage());
+                }
+                if (!isReadOnlyConnection) queryOnlyOff();
+            }
+        }
+
+        cbc.success(batchResults);
+    }
+
+    private void queryOnlyOff() {
+        try {
+            mydb.rawExecSQL("PRAGMA query_only = 0");
+        } catch (Exception ex) {
+            Log.e(SQLitePlugin.class.getSimpleName(), "could not reset query_only", ex);
+        }
+    }
+
+    /**
+     * Executes an INSERT (or REPLACE) statement, compiled once, for each row of
+     * parameters in a single transaction (in the db thread), and counts the
+     * rows inserted, updated (by ON CONFLICT DO UPDATE), and ignored
+     * (OR IGNORE or ON CONFLICT DO NOTHING) with no exception for these conflicts.
+     *
+     * Rows are counted by comparing the result of executeInsert() (-1 if no change)
+     * with the last insert rowid, which is not changed by an upsert update.
+     * NOTE: a row replaced by INSERT OR REPLACE is counted as inserted.
+     *
+     * An insert into a WITHOUT ROWID table does not change the last insert rowid,
+     * so for such a table the inserted rows are counted by the number of rows in
+     * the table before and after the batch (two count(*) queries), and the other
+     * changed rows are counted as updated.
+     *
+     * @param query        INSERT or REPLACE statement with parameters
+     * @param rows         Array of parameter arrays
+     * @param abortOnError true to roll back all rows in case of any other error
+     * @return { rowCount, inserted, updated, ignored, failed, errors: [ { index, message, code } ] }
+     */
+    JSONObject executeUpsertBatch(String query, JSONArray rows, boolean abortOnError) throws Exception {
+        if (mydb == null) {
+            throw new RuntimeException("database has been closed");
+        }
+
+        QueryType queryType = getQueryType(query);
+        if (queryType != QueryType.insert && !REPLACE_STATEMENT.matcher(query).find()) {
+            throw new RuntimeException("upsert batch expects an INSERT or REPLACE statement");
+        }
+
+        if (writtenTables != null) trackWrittenTable(query, queryType);
+        if (queryCache != null) invalidateQueryCache(query, queryType);
+
+        String table = getWriteTableName(query, queryType);
+        boolean recordChanges = changeNotifier != null && changeNotifier.hasListeners();
+
+        // WITHOUT ROWID table (if determined):
+        String countTable = getWithoutRowidTable(query);
+
+        long inserted = 0, updated = 0, ignored = 0, failed = 0;
+        JSONArray errors = new JSONArray();
+
+        // deliver changes committed before this transaction:
+        if (changeNotifier != null) changeNotifier.flush();
+
+        mydb.beginTransaction();
+        isTransactionActive = true;
+
+        boolean committed = false;
+        SQLiteStatement myStatement = null;
+
+        try {
+            myStatement = mydb.compileStatement(query);
+
+            long lastRowid = getLastInsertRowid();
+            long countBefore = (countTable != null) ? countRows(countTable) : 0;
+
+            for (int i = 0; i < rows.length(); ++i) {
+                myStatement.clearBindings();
+                bindArgsToStatement(myStatement, rows.getJSONArray(i));
+
+                long rowid;
+                try {
+                    rowid = myStatement.executeInsert();
+                } catch (SQLiteException ex) {
+                    ++failed;
+                    int code = SQLiteErrorReporter.codeFor(ex);
+                    String message = SQLiteErrorReporter.messageFor(ex);
+                    SQLiteErrorReporter.report("executeUpsertBatch", code, message);
+
+                    if (errors.length() < MAX_UPSERT_ERRORS) {
+                        JSONObject er = new JSONObject();
+                        er.put("index", i);
+                        er.put("message", message);
+                        er.put("code", code);
+                        errors.put(er);
+                    }
+
+                    if (abortOnError) break;
+                    continue;
+                }
+
+                if (rowid == -1) {
+                    ++ignored;
+                } else if (countTable != null) {
+                    // (inserted or updated, counted after the batch)
+                    ++updated;
+                    if (recordChanges) changeNotifier.recordChange(table, 1, -1);
+                } else if (rowid == lastRowid) {
+                    ++updated;
+                    if (recordChanges) changeNotifier.recordChange(table, 1, -1);
+                } else {
+                    ++inserted;
+                    lastRowid = rowid;
+                    if (recordChanges) changeNotifier.recordChange(table, 1, rowid);
+                }
+            }
+
+            if (countTable != null) {
+                inserted = countRows(countTable) - countBefore;
+                updated -= inserted;
+            }
+
+            if (failed == 0 || !abortOnError) {
+                mydb.setTransactionSuccessful();
+                committed = true;
+            }
+        } finally {
+            if (myStatement != null) myStatement.close();
+
+            mydb.endTransaction();
+            isTransactionActive = false;
+
+            if (changeNotifier != null) {
+                if (committed) {
+                    changeNotifier.flush();
+                } else {
+                    changeNotifier.discard();
+                }
+            }
+        }
+
+        JSONObject result = new JSONObject();
+        result.put("committed", committed);
+        result.put("rowCount", rows.length());
+        result.put("inserted", inserted);
+        result.put("updated", updated);
+        result.put("ignored", ignored);
+        result.put("failed", failed);
+        result.put("errors", errors);
+        return result;
+    }
+
+    /**
+     * @return the table name (as written) of an INSERT or REPLACE statement
+     *         in case it is a WITHOUT ROWID table, otherwise null
+     */
+    private String getWithoutRowidTable(String query) {
+        Matcher matcher = UPSERT_TABLE_NAME.matcher(query);
+        if (!matcher.find()) return null;
+
+        String table = matcher.group(1);
+        try {
+            mydb.rawQuery("SELECT rowid FROM " + table + " LIMIT 0", new String[0]).close();
+            return null;
+        } catch (SQLiteException ex) {
+            // no rowid column in a WITHOUT ROWID table (other errors such as
+            // no such table are reported for each row of the batch):
+            String message = ex.getMessage();
+            return (message != null && message.contains("no such column")) ? table : null;
+        }
+    }
+
+    private long countRows(String table) {
+        SQLiteStatement st = mydb.compileStatement("SELECT count(*) FROM " + table);
+        try {
+            return st.simpleQueryForLong();
+        } finally {
+            st.close();
+        }
+    }
+
+    /**
+     * Executes an INSERT statement, compiled once, for the next rows of an
+     * import file in a single transaction (in the db thread).
+     *
+     * @param query      INSERT statement with one parameter per column
+     * @param reader     Row reader of the import file
+     * @param chunkRows  Max number of rows to read
+     * @param skipErrors true to skip (and count) the rows that fail,
+     *                   false to roll back the chunk and throw
+     * @param errors     Details of the first failed rows (updated)
+     * @return { inserted, ignored, failed } with the rows ignored by the conflict clause
+     *         (OR IGNORE) counted separately
+     */
+    JSONObject executeImportChunk(String query, SQLiteImportJob.RowReader reader, int chunkRows,
+            boolean skipErrors, JSONArray errors) throws Exception {
+        if (mydb == null) {
+            throw new RuntimeException("database has been closed");
+        }
+
+        QueryType queryType = getQueryType(query);
+
+        if (writtenTables != null) trackWrittenTable(query, queryType);
+        if (queryCache != null) invalidateQueryCache(query, queryType);
+
+        long inserted = 0, ignored = 0, failed = 0;
+
+        // deliver changes committed before this transaction:
+        if (changeNotifier != null) changeNotifier.flush();
+
+        mydb.beginTransaction();
+        isTransactionActive = true;
+
+        boolean committed = false;
+        SQLiteStatement myStatement = null;
+
+        try {
+            myStatement = mydb.compileStatement(query);
+
+            for (int i = 0; i < chunkRows; ++i) {
+                Object[] values = reader.readRow();
+                if (values == null) break;
+
+                myStatement.clearBindings();
+                bindValuesToStatement(myStatement, values);
+
+                try {
+                    // (-1 if the row was not inserted)
+                    if (myStatement.executeInsert() == -1) {
+                        ++ignored;
+                    } else {
+                        ++inserted;
+                    }
+                } catch (SQLiteException ex) {
+                    ++failed;
+
+                    int code = SQLiteErrorReporter.codeFor(ex);
+                    String message = SQLiteErrorReporter.messageFor(ex);
+                    SQLiteErrorReporter.report("importData", code, message);
+
+                    if (!skipErrors) {
+                        throw new RuntimeException("row " + reader.rowsRead + ": " + message);
+                    }
+
+                    if (errors.length() < MAX_UPSERT_ERRORS) {
+                        JSONObject er = new JSONObject();
+                        er.put("row", reader.rowsRead);
+                        er.put("message", message);
+                        er.put("code", code);
+                        errors.put(er);
+                    }
+                }
+            }
+
+            mydb.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            if (myStatement != null) myStatement.close();
+
+            mydb.endTransaction();
+            isTransactionActive = false;
+
+            if (changeNotifier != null) {
+                if (committed) {
+                    if (inserted > 0) changeNotifier.recordChange(getWriteTableName(query, queryType), inserted, -1);
+                    changeNotifier.flush();
+                } else {
+                    changeNotifier.discard();
+                }
+            }
+        }
+
+        JSONObject result = new JSONObject();
+        result.put("inserted", inserted);
+        result.put("ignored", ignored);
+        result.put("failed", failed);
+        return result;
+    }
+
+    /**
+     * Prepare a statement to be executed (by handle) with executePreparedBatch().
+     *
+     * A statement with no rows (such as INSERT, UPDATE, or DELETE) is compiled
+     * once and kept until finalized (or until the database is closed). A statement
+     * that may return rows (such as SELECT) is checked and its query type stored,
+     * it is executed with a cursor (compiled by SQLCipher from its statement cache).
+     *
+     * @param query   The statement (BEGIN, COMMIT, and ROLLBACK are not allowed)
+     * @return handle of the prepared statement
+     */
+    int prepareStatement(String query) throws Exception {
+        if (mydb == null) {
+            throw new RuntimeException("database has been closed");
+        }
+
+        QueryType queryType = getQueryType(query);
+        if (queryType == QueryType.begin || queryType == QueryType.commit || queryType == QueryType.rollback) {
+            throw new RuntimeException("transaction statement cannot be prepared: " + query);
+        }
+
+        SQLiteStatement statement = mydb.compileStatement(query);
+        if (!isNoRowsStatement(query, queryType)) {
+            // (checked only)
+            statement.close();
+            statement = null;
+        }
+
+        int handle = ++lastPreparedHandle;
+        preparedStatements.put(handle, new PreparedStatement(query, queryType, statement));
+        return handle;
+    }
+
+    /**
+     * Finalize a prepared statement.
+     */
+    void finalizeStatement(int handle) {
+        PreparedStatement p = preparedStatements.remove(handle);
+        if (p == null) {
+            throw new RuntimeException("invalid prepared statement handle: " + handle);
+        }
+
+        if (p.statement != null) p.statement.close();
+    }
+
+    /**
+     * @return true if any prepared statement or query cursor is open
+     *         (invalidated in case the database is closed and reopened)
+     */
+    boolean hasOpenHandles() {
+        return !preparedStatements.isEmpty() || !openCursors.isEmpty();
+    }
+
+    /**
+     * Open a query cursor.
+     *
+     * With a key column, each fetch runs a keyset query for the next page of rows
+     * (see queryPage) and nothing is kept open in between the fetches.
+     *
+     * With no key column, a plain table query is paged by rowid in the same way
+     * (see getRowidKeyQuery), unless the table has no rowid (such as a view or
+     * a WITHOUT ROWID table).
+     *
+     * Otherwise the SQLCipher cursor is kept open in between the fetches.
+     * NOTE: the SQLCipher cursor counts all of the rows upon the first fetch, and
+     * runs the query again from the first row (skipping the rows before) each time
+     * it reads the next window of rows, which may also see changes in between.
+     *
+     * @param query          SELECT statement
+     * @param params         Query parameters
+     * @param keyColumn      Result column with unique (not null) values for keyset paging, or null
+     * @param idleTimeoutMs  Time after the last fetch to close the cursor (see expireCursors)
+     * @return cursor handle
+     */
+    int openCursor(String query, JSONArray params, String keyColumn, long idleTimeoutMs) throws Exception {
+        if (mydb == null) {
+            throw new RuntimeException("database has been closed");
+        }
+
+        if (isNoRowsStatement(query, getQueryType(query))) {
+            throw new RuntimeException("cursor needs a statement that returns rows: " + query);
+        }
+
+        boolean rowidKey = false;
+        if (keyColumn == null) {
+            String rowidQuery = getRowidKeyQuery(query);
+            if (rowidQuery != null && hasRowidKey(rowidQuery, params)) {
+                query = rowidQuery;
+                keyColumn = ROWID_KEY_COLUMN;
+                rowidKey = true;
+            }
+        }
+
+        Cursor cur = null;
+        if (keyColumn != null) {
+            // (check the query and the key column, with no rows read)
+            Cursor check = queryPage(query, params, keyColumn, null, 0);
+            try {
+                getKeyColumnIndex(check, keyColumn);
+            } finally {
+                check.close();
+            }
+        } else {
+            // NOTE: the cursor reads the rows (window by window) upon fetch
+            cur = queryCursor(query, params);
+        }
+
+        int handle = ++lastCursorHandle;
+        openCursors.put(handle, new OpenCursor(cur, query, params, keyColumn, rowidKey, idleTimeoutMs));
+        return handle;
+    }
+
+    /**
+     * @return true if the keyset query by rowid (see getRowidKeyQuery) can be run
+     *         and returns a rowid (false for a view or a WITHOUT ROWID table)
+     */
+    boolean hasRowidKey(String rowidQuery, JSONArray params) {
+        try {
+            Cursor check = queryPage(rowidQuery, params, ROWID_KEY_COLUMN, null, 1);
+            try {
+                return !check.moveToFirst() || !check.isNull(getKeyColumnIndex(check, ROWID_KEY_COLUMN));
+            } finally {
+                check.close();
+            }
+        } catch (Exception ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Start a query, with the rows read (window by window) upon moving the cursor.
+     *
+     * @return the cursor, to be closed by the caller
+     */
+    Cursor queryCursor(String query, JSONArray params) throws Exception {
+        if (mydb == null) {
+            throw new RuntimeException("database has been closed");
+        }
+
+        String[] args = new String[params.length()];
+        for (int j = 0; j < args.length; j++) {
+            args[j] = params.isNull(j) ? "" : params.getString(j);
+        }
+
+        return mydb.rawQuery(query, args);
+    }
+
+    /**
+     * Query the next page of rows by a key column (keyset paging): the rows of the
+     * query ordered by the key, with a key greater than the key of the last row of
+     * the previous page. Each page reads only its own rows (with no OFFSET), and no
+     * row is repeated or skipped in case of changes in between the pages (except
+     * for the rows with a changed key).
+     *
+     * NOTE: the rows are always ordered by the key. A query with its own ORDER BY
+     * (other than by the key column, ascending) or LIMIT is rejected (see checkKeysetQuery).
+     *
+     * @param query      SELECT statement
+     * @param params     Query parameters
+     * @param keyColumn  Result column with unique (not null) values
+     * @param lastKey    Key of the last row of the previous page, null for the first page
+     * @param limit      Max number of rows
+     * @return the cursor, to be closed by the caller
+     */
+    Cursor queryPage(String query, JSONArray params, String keyColumn, Object lastKey, int limit)
+            throws Exception {
+        if (mydb == null) {
+            throw new RuntimeException("database has been closed");
+        }
+
+        checkKeysetQuery(query, keyColumn);
+
+        String key = SQLiteExportJob.quote(keyColumn);
+
+        StringBuilder sb = new StringBuilder("SELECT * FROM (");
+        sb.append(TRAILING_SEMICOLONS.matcher(query).replaceFirst(""));
+        sb.append(')');
+        if (lastKey != null) sb.append(" WHERE ").append(key).append(" > ?");
+        sb.append(" ORDER BY ").append(key).append(" LIMIT ").append(limit);
+
+        Object[] args = new Object[params.length() + ((lastKey != null) ? 1 : 0)];
+        for (int j = 0; j < params.length(); j++) {
+            args[j] = params.isNull(j) ? "" : params.getString(j);
+        }
+        if (lastKey != null) args[args.length - 1] = lastKey;
+
+        return mydb.rawQuery(sb.toString(), args);
+    }
+
+    /**
+     * Check that a query can be paged by a key column: the pages are ordered by
+     * the key (replacing the order of the query), and limited by the page size.
+     *
+     * @throws RuntimeException in case the query has its own ORDER BY (other than
+     *         by the key column, ascending) or LIMIT
+     */
+    static void checkKeysetQuery(String query, String keyColumn) {
+        String q = TRAILING_SEMICOLONS.matcher(query).replaceFirst("");
+        String masked = maskQuery(q);
+
+        if (TOP_LEVEL_LIMIT.matcher(masked).find()) {
+            throw new RuntimeException("query with a key column cannot have its own LIMIT: " + query);
+        }
+
+        Matcher m = TOP_LEVEL_ORDER_BY.matcher(masked);
+        int orderTerms = -1;
+        while (m.find()) orderTerms = m.end();
+        if (orderTerms < 0) return;
+
+        Matcher k = ORDER_BY_COLUMN.matcher(q.substring(orderTerms));
+        if (!k.matches() || !unquoteName(k.group(1)).equalsIgnoreCase(keyColumn)) {
+            throw new RuntimeException("query with a key column can only be ordered by the key column: " + query);
+        }
+    }
+
+    /**
+     * Get the keyset query by rowid for a plain table query: a SELECT from a single
+     * table with an optional WHERE clause (with no DISTINCT, GROUP BY, aggregate,
+     * join, compound, ORDER BY, or LIMIT), with the rowid of the table added as
+     * ROWID_KEY_COLUMN. The rows of such a query are in no particular order, so they
+     * can be paged in the order of the rowid instead.
+     *
+     * @return the keyset query by rowid, or null if not a plain table query
+     */
+    static String getRowidKeyQuery(String query) {
+        String q = TRAILING_SEMICOLONS.matcher(query).replaceFirst("");
+        String masked = maskQuery(q);
+
+        if (NOT_PLAIN_TABLE_QUERY.matcher(masked).find()) return null;
+
+        Matcher m = PLAIN_TABLE_QUERY.matcher(masked);
+        if (!m.matches()) return null;
+
+        // (positions of the masked query are the same in the query)
+        String table = (m.group(3) != null) ? q.substring(m.start(3), m.end(3)) : q.substring(m.start(2), m.end(2));
+
+        return q.substring(0, m.start(1)) + table + ".rowid AS " + SQLiteExportJob.quote(ROWID_KEY_COLUMN) +
+            ", " + q.substring(m.start(1));
+    }
+
+    /**
+     * Mask a query for matching its top-level clauses, with the same length: the
+     * contents of the quoted strings and names are replaced by 'x', and the comments
+     * and everything within parentheses (such as subqueries) by spaces.
+     */
+    static String maskQuery(String query) {
+        StringBuilder sb = new StringBuilder(query.length());
+        int depth = 0;
+        char quote = 0;
+        int len = query.length();
+
+        for (int i = 0; i < len; ++i) {
+            char c = query.charAt(i);
+            char next = (i + 1 < len) ? query.charAt(i + 1) : 0;
+
+            if (quote != 0) {
+                if (c == quote && quote != ']' && next == quote) {
+                    // (escaped quote)
+                    sb.append((depth > 0) ? "  " : "xx");
+                    ++i;
+                } else if (c == quote) {
+                    quote = 0;
+                    sb.append((depth > 0) ? ' ' : c);
+                } else {
+                    sb.append((depth > 0) ? ' ' : 'x');
+                }
+            } else if (c == '\'' || c == '"' || c == '`' || c == '[') {
+                quote = (c == '[') ? ']' : c;
+                sb.append((depth > 0) ? ' ' : c);
+            } else if ((c == '-' && next == '-') || (c == '/' && next == '*')) {
+                int end = (c == '-') ? query.indexOf('\n', i) : query.indexOf("*/", i + 2);
+                end = (end < 0) ? len : ((c == '-') ? end : end + 2);
+                while (i < end) {
+                    sb.append(' ');
+                    ++i;
+                }
+                --i;
+            } else if (c == '(') {
+                sb.append((depth > 0) ? ' ' : c);
+                ++depth;
+            } else if (c == ')' && depth > 0) {
+                --depth;
+                sb.append((depth > 0) ? ' ' : c);
+            } else {
+                sb.append((depth > 0) ? ' ' : c);
+            }
+        }
+
+        return sb.toString();
+    }
+
+    private static String unquoteName(String name) {
+        if (name.startsWith("\"")) return name.substring(1, name.length() - 1).replace("\"\"", "\"");
+        return name;
+    }
+
+    /**
+     * @return index of the key column in the result of queryPage
+     */
+    static int getKeyColumnIndex(Cursor cur, String keyColumn) {
+        int index = cur.getColumnIndex(keyColumn);
+        if (index < 0) {
+            throw new RuntimeException("no such key column in the result: " + keyColumn);
+        }
+        return index;
+    }
+
+    /**
+     * @return value of the key column in the current row (for the next queryPage)
+     */
+    static Object getKeyValue(Cursor cur, int keyIndex) {
+        switch (cur.getType(keyIndex)) {
+            case Cursor.FIELD_TYPE_NULL:
+                throw new RuntimeException("NULL value in key column: " + cur.getColumnName(keyIndex));
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cur.getLong(keyIndex);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cur.getDouble(keyIndex);
+            case Cursor.FIELD_TYPE_BLOB:
+                return cur.getBlob(keyIndex);
+            default:
+                return cur.getString(keyIndex);
+        }
+    }
+
+    /**
+     * Fetch the next rows of a cursor (the cursor is closed after the last row).
+     *
+     * @return { rows, done }
+     */
+    JSONObject fetchCursor(int handle, int count) throws Exception {
+        OpenCursor c = openCursors.get(handle);
+        if (c == null) {
+            throw new RuntimeException("invalid or expired cursor handle: " + handle);
+        }
+
+        JSONArray rows = new JSONArray();
+        boolean done;
+
+        if (c.keyColumn != null) {
+            // (one more row to know if the page is the last one)
+            Cursor cur = queryPage(c.query, c.params, c.keyColumn, c.lastKey, count + 1);
+            try {
+                int keyIndex = getKeyColumnIndex(cur, c.keyColumn);
+                while (rows.length() < count && cur.moveToNext()) {
+                    // (with no rowid key column added by getRowidKeyQuery)
+                    rows.put(getRow(cur, c.rowidKey ? keyIndex : -1));
+                    c.lastKey = getKeyValue(cur, keyIndex);
+                }
+                done = !cur.moveToNext();
+            } finally {
+                cur.close();
+            }
+        } else {
+            Cursor cur = c.cursor;
+            done = false;
+            while (rows.length() < count) {
+                if (!cur.moveToNext()) {
+                    done = true;
+                    break;
+                }
+                rows.put(getRow(cur, -1));
+            }
+        }
+
+        if (done) {
+            openCursors.remove(handle);
+            c.close();
+        } else {
+            c.lastUsed = System.currentTimeMillis();
+        }
+
+        JSONObject result = new JSONObject();
+        result.put("rows", rows);
+        result.put("done", done);
+        return result;
+    }
+
+    /**
+     * Close a cursor (no error if already closed or expired).
+     */
+    void closeCursor(int handle) {
+        OpenCursor c = openCursors.remove(handle);
+        if (c != null) c.close();
+    }
+
+    /**
+     * @return time in milliseconds until the next idle cursor expires, or -1 if no cursor is open
+     */
+    public long expireCursors() {
+        long now = System.currentTimeMillis();
+        long next = -1;
+
+        Iterator<Map.Entry<Integer, OpenCursor>> it = openCursors.entrySet().iterator();
+        while (it.hasNext()) {
+            OpenCursor c = it.next().getValue();
+            long remaining = c.lastUsed + c.idleTimeoutMs - now;
+            if (remaining <= 0) {
+                c.close();
+                it.remove();
+            } else if (next == -1 || remaining < next) {
+                next = remaining;
+            }
+        }
+
+        return next;
+    }
+
+    /**
+     * Executes prepared statements (in a single transaction in case of more than one)
+     * and returns the results in the same form as executeSqlBatch().
+     *
+     * @param executes  Array of [ handle, params ] arrays
+     */
+    JSONArray executePreparedBatch(JSONArray executes) throws Exception {
+        if (mydb == null) {
+            throw new RuntimeException("database has been closed");
+        }
+
+        JSONArray batchResults = new JSONArray();
+
+        boolean useTransaction = executes.length() > 1;
+        if (useTransaction) {
+            // deliver changes committed before this transaction:
+            if (changeNotifier != null) changeNotifier.flush();
+
+            mydb.beginTransaction();
+            isTransactionActive = true;
+        }
+
+        try {
+            for (int i = 0; i < executes.length(); ++i) {
+                JSONArray e = executes.getJSONArray(i);
+                int handle = e.getInt(0);
+                JSONArray params = (e.length() > 1 && !e.isNull(1)) ? e.getJSONArray(1) : new JSONArray();
+
+                PreparedStatement p = preparedStatements.get(handle);
+                if (p == null) {
+                    batchResults.put(SQLiteErrorReporter.errorResult("executePrepared",
+                        SQLiteErrorReporter.UNKNOWN_ERR, "invalid prepared statement handle: " + handle));
+                    continue;
+                }
+
+                executeSqlBatchStatement(p.sql, p.queryType, p.statement, params, batchResults);
+            }
+
+            // NOTE: a failed statement has no effect, the other changes are committed
+            if (useTransaction) mydb.setTransactionSuccessful();
+        } finally {
+            if (useTransaction) {
+                mydb.endTransaction();
+                isTransactionActive = false;
+            }
+
+            if (changeNotifier != null) changeNotifier.flush();
+        }
 
-    /**
-     * to load native lib(s)
-     */
-    //@Override
-    static
-    public void initialize(CordovaInterface cordova) {
-        SQLiteDatabase.loadLibs(cordova.getActivity());
+        return batchResults;
     }
 
     /**
+     * Executes a list of statements in a single transaction, with nested
+     * savepoint groups, and returns the results (in the db thread).
      *
-     * Open a database.
+     * Each element of the executes list is either a statement { sql, params }
+     * or a savepoint group { savepoint: [ executes ], onError } which is rolled
+     * back to its savepoint in case it is aborted by a statement error.
      *
-     * @param dbfile   The database File specification
+     * @param executes        List of statements and savepoint groups
+     * @param continueOnError true to continue after a statement error, false to abort (and roll back)
+     * @return { committed, results } with the results in the same form as executeSqlBatch()
+     *         (nested for savepoint groups) up to the statement that aborted the transaction
      */
-    void open(File dbfile, String key) throws Exception {
-        mydb = SQLiteDatabase.openOrCreateDatabase(dbfile, key, null);
-    }
+    JSONObject executeTransaction(JSONArray executes, boolean continueOnError) throws Exception {
+        if (mydb == null) {
+            throw new RuntimeException("database has been closed");
+        }
 
-    /**
-     * Close a database (in the current thread).
-     */
-    void closeDatabaseNow() {
-        if (mydb != null) {
-            if (isTransactionActive) {
-                mydb.endTransaction();
-                isTransactionActive = false;
+        if (isTransactionActive) {
+            // NOTE: not expected since the db thread does not run jobs in a transaction
+            throw new RuntimeException("another transaction is active");
+        }
+
+        // deliver changes committed before this transaction:
+        if (changeNotifier != null) changeNotifier.flush();
+
+        mydb.beginTransaction();
+        isTransactionActive = true;
+
+        JSONArray results = new JSONArray();
+        boolean committed = false;
+
+        try {
+            if (executeTransactionStatements(executes, continueOnError, results, 0)) {
+                mydb.setTransactionSuccessful();
+                committed = true;
+            }
+        } finally {
+            mydb.endTransaction();
+            isTransactionActive = false;
+
+            if (changeNotifier != null) {
+                if (committed) {
+                    changeNotifier.flush();
+                } else {
+                    changeNotifier.discard();
+                }
             }
-            mydb.close();
-            mydb = null;
         }
-    }
 
-    /* NOTE: bug workaround NOT NEEDED in this version */
+        JSONObject result = new JSONObject();
+        result.put("committed", committed);
+        result.put("results", results);
+        return result;
+    }
 
     /**
-     * Executes a batch request and sends the results via cbc.
-     *
-     * @param queryarr   Array of query strings
-     * @param jsonparamsArr Array of JSON query parameters
-     * @param cbc        Callback context from Cordova API
+     * @return false if aborted by a statement error
      */
-    void executeSqlBatch(String[] queryarr, JSONArray[] jsonparamsArr, CallbackContext cbc) {
+    private boolean executeTransactionStatements(JSONArray executes, boolean continueOnError,
+            JSONArray results, int depth) throws JSONException {
 
-        if (mydb == null) {
-            // not allowed - can only happen if someone has closed (and possibly deleted) a database and then re-used the database
-            cbc.error("database has been closed");
-            return;
-        }
+        for (int i = 0; i < executes.length(); ++i) {
+            JSONObject e = executes.getJSONObject(i);
 
-        int len = queryarr.length;
-        JSONArray batchResults = new JSONArray();
+            if (e.has("savepoint")) {
+                boolean groupContinueOnError = e.has("onError") ?
+                    e.getString("onError").equals("continue") : continueOnError;
 
-        for (int i = 0; i < len; i++) {
-            executeSqlBatchStatement(queryarr[i], jsonparamsArr[i], batchResults);
+                String savepoint = "sqlc_sp" + depth;
+                mydb.execSQL("SAVEPOINT " + savepoint);
+
+                JSONArray groupResults = new JSONArray();
+                boolean groupDone = executeTransactionStatements(e.getJSONArray("savepoint"),
+                    groupContinueOnError, groupResults, depth + 1);
+
+                JSONObject r = new JSONObject();
+                JSONObject gr = new JSONObject();
+                gr.put("results", groupResults);
+
+                if (!groupDone) {
+                    mydb.execSQL("ROLLBACK TO " + savepoint);
+
+                    // NOTE: the changes recorded for the rolled back statements
+                    // cannot be removed, report a change with unknown effect.
+                    if (changeNotifier != null) changeNotifier.recordOtherChange();
+
+                    r.put("type", "error");
+                    gr.put("message", "savepoint group rolled back");
+                    gr.put("code", 0);
+                } else {
+                    r.put("type", "success");
+                }
+
+                mydb.execSQL("RELEASE " + savepoint);
+
+                r.put("result", gr);
+                results.put(r);
+
+                if (!groupDone && !continueOnError) return false;
+                continue;
+            }
+
+            String query = e.getString("sql");
+
+            QueryType queryType = null;
+            try {
+                queryType = getQueryType(query);
+            } catch (RuntimeException ex) {
+                // (reported by executeSqlBatchStatement)
+            }
+
+            if (queryType == QueryType.begin || queryType == QueryType.commit ||
+                queryType == QueryType.rollback) {
+                results.put(SQLiteErrorReporter.errorResult("executeTransaction",
+                    SQLiteErrorReporter.SYNTAX_ERR, "transaction statement not allowed in executeTransaction: " + query));
+            } else {
+                executeSqlBatchStatement(query, e.has("params") ? e.getJSONArray("params") : new JSONArray(), results);
+            }
+
+            boolean failed = results.getJSONObject(results.length() - 1).getString("type").equals("error");
+            if (failed && !continueOnError) return false;
         }
 
-        cbc.success(batchResults);
+        return true;
     }
 
     @SuppressLint("NewApi")
     private void executeSqlBatchStatement(String query, JSONArray json_params, JSONArray batchResults) {
+        executeSqlBatchStatement(query, null, null, json_params, batchResults);
+    }
+
+    /**
+     * @param knownType  Query type of a prepared statement, null to get it from the query
+     * @param prepared   Compiled statement with no rows (prepared statement), null to compile the query
+     */
+    private void executeSqlBatchStatement(String query, QueryType knownType, SQLiteStatement prepared,
+            JSONArray json_params, JSONArray batchResults) {
 
         if (mydb == null) {
             // Should not happen here
@@ -140,110 +1490,72 @@ class SQLiteAndroidDatabase
 
         } else {
 
-            int rowsAffectedCompat = 0;
-            boolean needRowsAffectedCompat = false;
-
             JSONObject queryResult = null;
 
             String errorMessage = "unknown";
             int code = 0; // SQLException.UNKNOWN_ERR
 
+            QueryType queryType = null;
+
             try {
                 boolean needRawQuery = true;
 
                 //Log.v("executeSqlBatch", "...");
-                QueryType queryType = getQueryType(query);
+                queryType = (knownType != null) ? knownType : getQueryType(query);
                 //Log.v("executeSqlBatch", "query type: " + queryType);
 
-                if (queryType == QueryType.update || queryType == queryType.delete) {
-                    // NOTE: SQLCipher for Android provides consistent SQLiteStatement.executeUpdateDelete();
-                    // no need for rowsAffectedCompat hack.
-                    SQLiteStatement myStatement = mydb.compileStatement(query);
-
-                    bindArgsToStatement(myStatement, json_params);
+                String cacheKey = null;
+                Set<String> cacheReadTables = null;
 
-                    long rowsAffected = -1; // (assuming invalid)
-
-                    try {
-                        rowsAffected = myStatement.executeUpdateDelete();
-                        // Indicate valid results:
-                        needRawQuery = false;
-                    } catch (SQLiteConstraintException ex) {
-                        // Indicate problem & stop this query:
-                        ex.printStackTrace();
-                        errorMessage = "constraint failure: " + ex.getMessage();
-                        code = 6; // SQLException.CONSTRAINT_ERR
-                        Log.v("executeSqlBatch", "SQLiteStatement.executeUpdateDelete(): Error=" + errorMessage);
-                        // stop the query in case of error:
-                        needRawQuery = false;
-                    } catch (SQLiteException ex) {
-                        // Indicate problem & stop this query:
-                        ex.printStackTrace();
-                        errorMessage = ex.getMessage();
-                        Log.v("executeSqlBatch", "SQLiteStatement.executeUpdateDelete(): Error=" + errorMessage);
-                        // stop the query in case of error:
-                        needRawQuery = false;
-                    }
-
-                    // "finally" cleanup myStatement
-                    myStatement.close();
+                if (writtenTables != null) {
+                    trackWrittenTable(query, queryType);
+                }
 
-                    if (rowsAffected != -1) {
-                        queryResult = new JSONObject();
-                        queryResult.put("rowsAffected", rowsAffected);
+                if (queryCache != null) {
+                    if (queryType == QueryType.select) {
+                        cacheKey = SQLiteQueryCache.keyFor(query, json_params);
+                        queryResult = queryCache.get(cacheKey);
+                        if (queryResult != null) {
+                            needRawQuery = false;
+                        } else if (!isTransactionActive) {
+                            // NOTE: results read in a transaction are NOT cached
+                            // since the transaction may be rolled back.
+                            cacheReadTables = getCacheableReadTables(query);
+                        }
+                    } else {
+                        invalidateQueryCache(query, queryType);
                     }
                 }
 
-                // INSERT:
-                if (queryType == QueryType.insert && json_params != null) {
+                // INSERT, UPDATE, DELETE, and other statements with no rows
+                // (such as CREATE, DROP, REPLACE): executed with no cursor,
+                // with change counts read from the connection.
+                if (needRawQuery && queryType != QueryType.begin && queryType != QueryType.commit &&
+                    queryType != QueryType.rollback && isNoRowsStatement(query, queryType)) {
                     needRawQuery = false;
 
-                    SQLiteStatement myStatement = mydb.compileStatement(query);
-
-                    bindArgsToStatement(myStatement, json_params);
-
-                    long insertId = -1; // (invalid)
-
                     try {
-                        insertId = myStatement.executeInsert();
-
-                        // statement has finished with no constraint violation:
-                        queryResult = new JSONObject();
-                        if (insertId != -1) {
-                            queryResult.put("insertId", insertId);
-                            queryResult.put("rowsAffected", 1);
-                        } else {
-                            queryResult.put("rowsAffected", 0);
-                        }
-                    } catch (SQLiteConstraintException ex) {
-                        // report constraint violation error result with the error message
-                        ex.printStackTrace();
-                        errorMessage = "constraint failure: " + ex.getMessage();
-                        code = 6; // SQLException.CONSTRAINT_ERR
-                        Log.v("executeSqlBatch", "SQLiteDatabase.executeInsert(): Error=" + errorMessage);
+                        queryResult = executeSqlStatementNoRows(query, queryType, prepared, json_params);
                     } catch (SQLiteException ex) {
-                        // report some other error result with the error message
-                        ex.printStackTrace();
-                        errorMessage = ex.getMessage();
-                        Log.v("executeSqlBatch", "SQLiteDatabase.executeInsert(): Error=" + errorMessage);
+                        // report constraint violation (or other) error result with the error message
+                        errorMessage = SQLiteErrorReporter.messageFor(ex);
+                        code = SQLiteErrorReporter.codeFor(ex);
                     }
-
-                    // "finally" cleanup myStatement
-                    myStatement.close();
                 }
 
                 if (queryType == QueryType.begin) {
                     needRawQuery = false;
                     try {
+                        // deliver changes committed before this transaction:
+                        if (changeNotifier != null) changeNotifier.flush();
+
                         mydb.beginTransaction();
                         isTransactionActive = true;
 
                         queryResult = new JSONObject();
                         queryResult.put("rowsAffected", 0);
                     } catch (SQLiteException ex) {
-                        ex.printStackTrace();
                         errorMessage = ex.getMessage();
-                        Log.v("executeSqlBatch", "SQLiteDatabase.beginTransaction(): Error=" + errorMessage);
                     }
                 }
 
@@ -257,9 +1569,7 @@ class SQLiteAndroidDatabase
                         queryResult = new JSONObject();
                         queryResult.put("rowsAffected", 0);
                     } catch (SQLiteException ex) {
-                        ex.printStackTrace();
                         errorMessage = ex.getMessage();
-                        Log.v("executeSqlBatch", "SQLiteDatabase.setTransactionSuccessful/endTransaction(): Error=" + errorMessage);
                     }
                 }
 
@@ -268,42 +1578,44 @@ class SQLiteAndroidDatabase
                     try {
                         mydb.endTransaction();
                         isTransactionActive = false;
+                        if (changeNotifier != null) changeNotifier.discard();
 
                         queryResult = new JSONObject();
                         queryResult.put("rowsAffected", 0);
                     } catch (SQLiteException ex) {
-                        ex.printStackTrace();
                         errorMessage = ex.getMessage();
-                        Log.v("executeSqlBatch", "SQLiteDatabase.endTransaction(): Error=" + errorMessage);
                     }
                 }
 
-                // raw query for other statements:
+                // raw query for SELECT and other statements that may return rows:
                 if (needRawQuery) {
                     try {
+                        // NOTE: no change count for SELECT statements
+                        long lastTotal = (queryType != QueryType.select) ? getTotalChanges() : 0;
+                        long lastRowid = (queryType != QueryType.select) ? getLastInsertRowid() : 0;
+
                         queryResult = this.executeSqlStatementQuery(mydb, query, json_params);
 
-                    } catch (SQLiteConstraintException ex) {
-                        // report constraint violation error result with the error message
-                        ex.printStackTrace();
-                        errorMessage = "constraint failure: " + ex.getMessage();
-                        code = 6; // SQLException.CONSTRAINT_ERR
-                        Log.v("executeSqlBatch", "Raw query error=" + errorMessage);
+                        // statement with possible changes (such as WITH ... INSERT or PRAGMA):
+                        if (queryType != QueryType.select) {
+                            putChanges(queryResult, getTotalChanges() - lastTotal, lastRowid, false);
+                        }
                     } catch (SQLiteException ex) {
-                        // report some other error result with the error message
-                        ex.printStackTrace();
-                        errorMessage = ex.getMessage();
-                        Log.v("executeSqlBatch", "Raw query error=" + errorMessage);
+                        // report constraint violation (or other) error result with the error message
+                        errorMessage = SQLiteErrorReporter.messageFor(ex);
+                        code = SQLiteErrorReporter.codeFor(ex);
                     }
 
-                    if (needRowsAffectedCompat) {
-                        queryResult.put("rowsAffected", rowsAffectedCompat);
+                    if (cacheReadTables != null && queryResult != null) {
+                        queryCache.put(cacheKey, cacheReadTables, queryResult);
                     }
                 }
             } catch (Exception ex) {
-                ex.printStackTrace();
                 errorMessage = ex.getMessage();
-                Log.v("executeSqlBatch", "SQLiteAndroidDatabase.executeSql[Batch](): Error=" + errorMessage);
+            }
+
+            if (queryResult != null && changeNotifier != null && changeNotifier.hasListeners()) {
+                recordChange(query, queryType, queryResult);
             }
 
             try {
@@ -315,15 +1627,7 @@ class SQLiteAndroidDatabase
 
                     batchResults.put(r);
                 } else {
-                    JSONObject r = new JSONObject();
-                    r.put("type", "error");
-
-                    JSONObject er = new JSONObject();
-                    er.put("message", errorMessage);
-                    er.put("code", code);
-                    r.put("result", er);
-
-                    batchResults.put(r);
+                    batchResults.put(SQLiteErrorReporter.errorResult("executeSqlBatch", code, errorMessage));
                 }
             } catch (JSONException ex) {
                 ex.printStackTrace();
@@ -333,6 +1637,241 @@ class SQLiteAndroidDatabase
         }
     }
 
+    /**
+     * Check if a statement is known not to return any rows.
+     */
+    static boolean isNoRowsStatement(String query, QueryType queryType) {
+        switch (queryType) {
+            case insert:
+            case update:
+            case delete:
+                return true;
+            case select:
+            case pragma:
+                return false;
+            default:
+                return WRITE_STATEMENT.matcher(query).find();
+        }
+    }
+
+    /**
+     * Execute a statement with no rows (one prepare/step, no cursor)
+     * and get the number of rows affected and the insert id.
+     *
+     * @param prepared   Compiled statement to reuse (prepared statement), null to compile the query
+     */
+    private JSONObject executeSqlStatementNoRows(String query, QueryType queryType, SQLiteStatement prepared,
+            JSONArray json_params) throws JSONException {
+        long lastTotal = getTotalChanges();
+        long lastRowid = getLastInsertRowid();
+
+        SQLiteStatement myStatement = (prepared != null) ? prepared : mydb.compileStatement(query);
+        try {
+            myStatement.clearBindings();
+            bindArgsToStatement(myStatement, json_params);
+            myStatement.execute();
+        } finally {
+            if (prepared == null) myStatement.close();
+        }
+
+        JSONObject queryResult = new JSONObject();
+
+        // NOTE: insert id is reported for an INSERT or REPLACE statement even if it is the same
+        // as the last insert rowid before (such as the same rowid in another table).
+        boolean isInsert = queryType == QueryType.insert ||
+            (queryType == QueryType.other && REPLACE_STATEMENT.matcher(query).find());
+
+        putChanges(queryResult, getTotalChanges() - lastTotal, lastRowid, isInsert);
+
+        return queryResult;
+    }
+
+    /**
+     * Add rowsAffected (including changes by triggers, same as on iOS) and
+     * insertId (if a row was inserted) to a statement result.
+     */
+    private void putChanges(JSONObject queryResult, long rowsAffected, long lastRowid, boolean isInsert)
+            throws JSONException {
+        queryResult.put("rowsAffected", rowsAffected);
+
+        if (rowsAffected > 0) {
+            long insertId = getLastInsertRowid();
+            if (insertId != lastRowid || isInsert) {
+                queryResult.put("insertId", insertId);
+            }
+        }
+    }
+
+    private long getTotalChanges() {
+        if (totalChangesStatement == null) {
+            totalChangesStatement = mydb.compileStatement("SELECT total_changes()");
+        }
+        return totalChangesStatement.simpleQueryForLong();
+    }
+
+    private long getLastInsertRowid() {
+        if (lastInsertRowidStatement == null) {
+            lastInsertRowidStatement = mydb.compileStatement("SELECT last_insert_rowid()");
+        }
+        return lastInsertRowidStatement.simpleQueryForLong();
+    }
+
+    private void trackWrittenTable(String query, QueryType queryType) {
+        switch (queryType) {
+            case select:
+            case pragma:
+            case begin:
+            case commit:
+            case rollback:
+                return;
+
+            case insert:
+            case update:
+            case delete:
+                String table = getWriteTableName(query, queryType);
+                writtenTables.add(table != null ? table : UNKNOWN_TABLE);
+                return;
+
+            default:
+                writtenTables.add(UNKNOWN_TABLE);
+        }
+    }
+
+    /**
+     * Record the change made by a successful statement, to be delivered to the
+     * change listeners upon commit (or at the end of the batch).
+     */
+    private void recordChange(String query, QueryType queryType, JSONObject queryResult) {
+        switch (queryType) {
+            case select:
+            case pragma:
+            case begin:
+            case commit:
+            case rollback:
+                return;
+
+            case insert:
+            case update:
+            case delete:
+                changeNotifier.recordChange(getWriteTableName(query, queryType),
+                    queryResult.optLong("rowsAffected", 1), queryResult.optLong("insertId", -1));
+                return;
+
+            default:
+                changeNotifier.recordOtherChange();
+        }
+    }
+
+    /**
+     * Invalidate cached SELECT results that may be affected by a statement
+     * (before the statement is executed).
+     */
+    private void invalidateQueryCache(String query, QueryType queryType) {
+        switch (queryType) {
+            case begin:
+            case commit:
+            case rollback:
+                // NOTE: results read in a transaction are not cached.
+                return;
+
+            case insert:
+            case update:
+            case delete:
+                String table = getWriteTableName(query, queryType);
+                if (table != null && loadCacheSchemaInfo() &&
+                    !cacheForeignKeysOn && !cacheTriggerTables.contains(table)) {
+                    queryCache.invalidateTable(table);
+                } else {
+                    // possible cascade or trigger effects on other table(s):
+                    queryCache.invalidateAll();
+                }
+                return;
+
+            default:
+                // schema change or other unknown effects:
+                cacheSchemaTables = null;
+                queryCache.invalidateAll();
+        }
+    }
+
+    /**
+     * Get the tables read by a SELECT statement, if its result can be cached.
+     *
+     * @return set of table names or null if the result should not be cached
+     */
+    private Set<String> getCacheableReadTables(String query) {
+        Set<String> tables = SQLiteQueryCache.getReadTables(query);
+        if (tables == null || !loadCacheSchemaInfo()) return null;
+
+        // NOTE: results from views, temp tables, or attached databases are not cached.
+        for (String table: tables) {
+            if (!cacheSchemaTables.contains(table)) return null;
+        }
+
+        return tables;
+    }
+
+    private boolean loadCacheSchemaInfo() {
+        if (cacheSchemaTables != null) return true;
+
+        Set<String> tables = new HashSet<String>();
+        Set<String> triggerTables = new HashSet<String>();
+        boolean foreignKeysOn = false;
+
+        Cursor cur = null;
+        try {
+            cur = mydb.rawQuery("SELECT type, tbl_name FROM sqlite_master WHERE type IN ('table', 'trigger')",
+                new String[0]);
+            while (cur.moveToNext()) {
+                String name = SQLiteQueryCache.normalizeTableName(cur.getString(1));
+                if (cur.getString(0).equals("table")) {
+                    tables.add(name);
+                } else {
+                    triggerTables.add(name);
+                }
+            }
+            cur.close();
+
+            cur = mydb.rawQuery("PRAGMA foreign_keys", new String[0]);
+            foreignKeysOn = cur.moveToFirst() && cur.getLong(0) != 0;
+        } catch (Exception ex) {
+            Log.v("executeSqlBatch", "could not load schema info for query cache: " + ex.getMessage());
+            return false;
+        } finally {
+            if (cur != null) cur.close();
+        }
+
+        cacheTriggerTables = triggerTables;
+        cacheForeignKeysOn = foreignKeysOn;
+        cacheSchemaTables = tables;
+        return true;
+    }
+
+    /**
+     * Get the (normalized) name of the table written by an INSERT, UPDATE, or DELETE statement.
+     *
+     * @return table name or null if not determined
+     */
+    static String getWriteTableName(String query, QueryType queryType) {
+        Pattern p;
+        switch (queryType) {
+            case insert:
+                p = INSERT_TABLE_NAME;
+                break;
+            case update:
+                p = UPDATE_TABLE_NAME;
+                break;
+            case delete:
+                p = DELETE_TABLE_NAME;
+                break;
+            default:
+                return null;
+        }
+
+        Matcher matcher = p.matcher(query);
+        return matcher.find() ? SQLiteQueryCache.normalizeTableName(matcher.group(1)) : null;
+    }
+
     private void bindArgsToStatement(SQLiteStatement myStatement, JSONArray sqlArgs) throws JSONException {
         for (int i = 0; i < sqlArgs.length(); i++) {
             if (sqlArgs.get(i) instanceof Float || sqlArgs.get(i) instanceof Double) {
@@ -347,6 +1886,23 @@ class SQLiteAndroidDatabase
         }
     }
 
+    private void bindValuesToStatement(SQLiteStatement myStatement, Object[] values) {
+        for (int i = 0; i < values.length; i++) {
+            Object v = values[i];
+            if (v == null || v == JSONObject.NULL) {
+                myStatement.bindNull(i + 1);
+            } else if (v instanceof Float || v instanceof Double) {
+                myStatement.bindDouble(i + 1, ((Number)v).doubleValue());
+            } else if (v instanceof Number) {
+                myStatement.bindLong(i + 1, ((Number)v).longValue());
+            } else if (v instanceof Boolean) {
+                myStatement.bindLong(i + 1, ((Boolean)v) ? 1 : 0);
+            } else {
+                myStatement.bindString(i + 1, v.toString());
+            }
+        }
+    }
+
     /**
      * Get rows results from query cursor.
      *
@@ -372,9 +1928,7 @@ class SQLiteAndroidDatabase
 
             cur = mydb.rawQuery(query, params);
         } catch (Exception ex) {
-            ex.printStackTrace();
-            String errorMessage = ex.getMessage();
-            Log.v("executeSqlBatch", "SQLiteAndroidDatabase.executeSql[Batch](): Error=" + errorMessage);
+            // (reported by the caller)
             throw ex;
         }
 
@@ -416,6 +1970,110 @@ class SQLiteAndroidDatabase
         return rowsResult;
     }
 
+    /**
+     * Execute a query with the rows filtered (and possibly aggregated) by Java
+     * functions on the db thread. The functions are evaluated on the column
+     * values of the cursor, so that only the matching rows are serialized
+     * (or none with aggregate values).
+     *
+     * NOTE: a statement that does not return rows (such as INSERT, UPDATE, or DELETE)
+     * is rejected, since it would not be tracked for the query cache, change
+     * notifications, and export.
+     *
+     * @param query    SELECT statement
+     * @param params   Query parameters
+     * @param q        Filter options
+     * @return { rows, rowsScanned }
+     */
+    JSONObject executeFilteredQuery(String query, JSONArray params, SQLiteFunctions.Query q) throws Exception {
+        if (mydb == null) {
+            throw new RuntimeException("database has been closed");
+        }
+
+        if (isNoRowsStatement(query, getQueryType(query))) {
+            throw new RuntimeException("filtered query needs a statement that returns rows: " + query);
+        }
+
+        String[] args = new String[params.length()];
+        for (int j = 0; j < args.length; j++) {
+            args[j] = params.isNull(j) ? "" : params.getString(j);
+        }
+
+        Map<String, SQLiteFunctions.Aggregate> aggregates = new LinkedHashMap<String, SQLiteFunctions.Aggregate>();
+        for (Map.Entry<String, SQLiteFunctions.Call> e: q.aggregate.entrySet()) {
+            aggregates.put(e.getKey(), e.getValue().aggregate.create());
+        }
+
+        JSONArray rows = new JSONArray();
+        long rowsScanned = 0;
+
+        Cursor cur = mydb.rawQuery(query, args);
+        try {
+            int colCount = cur.getColumnCount();
+
+            q.bindColumns(cur);
+
+            while (cur.moveToNext()) {
+                ++rowsScanned;
+
+                // (evaluated on the cursor columns, before any JSON row is built)
+                if (q.where != null && !SQLiteFunctions.isTrue(q.where.apply(cur))) continue;
+
+                if (!aggregates.isEmpty()) {
+                    for (Map.Entry<String, SQLiteFunctions.Call> e: q.aggregate.entrySet()) {
+                        aggregates.get(e.getKey()).step(e.getValue().argsFor(cur));
+                    }
+                    continue;
+                }
+
+                JSONObject row = new JSONObject();
+                for (int i = 0; i < colCount; ++i) {
+                    bindPostHoneycomb(row, cur.getColumnName(i), cur, i);
+                }
+
+                for (Map.Entry<String, SQLiteFunctions.Call> e: q.select.entrySet()) {
+                    Object v = e.getValue().apply(cur);
+                    row.put(e.getKey(), (v != null) ? v : JSONObject.NULL);
+                }
+
+                rows.put(row);
+
+                if (q.limit > 0 && rows.length() >= q.limit) break;
+            }
+        } finally {
+            cur.close();
+        }
+
+        if (!aggregates.isEmpty()) {
+            JSONObject row = new JSONObject();
+            for (Map.Entry<String, SQLiteFunctions.Aggregate> e: aggregates.entrySet()) {
+                Object v = e.getValue().result();
+                row.put(e.getKey(), (v != null) ? v : JSONObject.NULL);
+            }
+            rows.put(row);
+        }
+
+        JSONObject result = new JSONObject();
+        result.put("rows", rows);
+        result.put("rowsScanned", rowsScanned);
+        return result;
+    }
+
+    /**
+     * Get the values of the current row of a cursor.
+     */
+    /**
+     * @param skipIndex  Index of a column not included in the row, or -1
+     */
+    private JSONObject getRow(Cursor cur, int skipIndex) throws JSONException {
+        JSONObject row = new JSONObject();
+        for (int i = 0; i < cur.getColumnCount(); ++i) {
+            if (i == skipIndex) continue;
+            bindPostHoneycomb(row, cur.getColumnName(i), cur, i);
+        }
+        return row;
+    }
+
     /**
      * bindPostHoneycomb - always valid for SQLCipher for Android
      *
@@ -464,11 +2122,68 @@ class SQLiteAndroidDatabase
         }
     }
 
+    private static final class PreparedStatement {
+        final String sql;
+        final QueryType queryType;
+
+        // compiled statement, null for a statement that may return rows:
+        final SQLiteStatement statement;
+
+        PreparedStatement(String sql, QueryType queryType, SQLiteStatement statement) {
+            this.sql = sql;
+            this.queryType = queryType;
+            this.statement = statement;
+        }
+    }
+
+    private static final class OpenCursor {
+        // SQLCipher cursor, null for keyset paging:
+        final Cursor cursor;
+
+        // keyset paging (see queryPage):
+        final String query;
+        final JSONArray params;
+        final String keyColumn;
+        Object lastKey = null;
+
+        // true if the key column is the rowid added by getRowidKeyQuery:
+        final boolean rowidKey;
+
+        final long idleTimeoutMs;
+
+        long lastUsed = System.currentTimeMillis();
+
+        OpenCursor(Cursor cursor, String query, JSONArray params, String keyColumn, boolean rowidKey,
+                long idleTimeoutMs) {
+            this.cursor = cursor;
+            this.query = query;
+            this.params = params;
+            this.keyColumn = keyColumn;
+            this.rowidKey = rowidKey;
+            this.idleTimeoutMs = idleTimeoutMs;
+        }
+
+        void close() {
+            if (cursor != null) cursor.close();
+        }
+    }
+
+    private static final class AttachedDatabase {
+        final File file;
+        final String key;
+
+        AttachedDatabase(File file, String key) {
+            this.file = file;
+            this.key = key;
+        }
+    }
+
     static enum QueryType {
         update,
         insert,
         delete,
         select,
+        pragma,
         begin,
         commit,
         rollback,
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2012-present Christopher J. Brody (aka Chris Brody)
+ * Copyright (c) 2005-2010, Nitobi Software Inc.
+ * Copyright (c) 2010, IBM Corporation
+ */
+
+package io.sqlc;
+
+import java.io.File;
+
+import java.util.Set;
+
+import org.apache.cordova.CallbackContext;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Attach (or detach) an additional database with its own key on the
+ * connection of an open database, executed in the db thread when no
+ * transaction is active (ATTACH and DETACH are not allowed in a transaction).
+ */
+class SQLiteAttachJob extends SQLiteJob
+{
+    final String alias;
+    final File file;
+    final String key;
+    final boolean detach;
+
+    // aliases of the attached databases, shared with the Cordova bridge thread:
+    final Set<String> aliases;
+
+    /**
+     * Attach a database.
+     *
+     * @param alias   Schema name of the attached database
+     * @param file    Database file to attach, null for an in-memory database
+     * @param key     Key of the attached database (empty for plaintext, null for the same key)
+     * @param aliases Set of attached aliases to be updated upon success
+     * @param cbc     Callback context for the result
+     */
+    SQLiteAttachJob(String alias, File file, String key, Set<String> aliases, CallbackContext cbc) {
+        super(cbc);
+        this.alias = alias;
+        this.file = file;
+        this.key = key;
+        this.detach = false;
+        this.aliases = aliases;
+    }
+
+    /**
+     * Detach a database.
+     *
+     * @param alias   Schema name of the attached database
+     * @param aliases Set of attached aliases to be updated upon success
+     * @param cbc     Callback context for the result
+     */
+    SQLiteAttachJob(String alias, Set<String> aliases, CallbackContext cbc) {
+        super(cbc);
+        this.alias = alias;
+        this.file = null;
+        this.key = null;
+        this.detach = true;
+        this.aliases = aliases;
+    }
+
+    @Override
+    boolean step(SQLiteAndroidDatabase mydb) throws Exception {
+        if (!detach) {
+            mydb.attachDatabase(alias, file, key);
+            aliases.add(alias);
+        } else {
+            mydb.detachDatabase(alias);
+            aliases.remove(alias);
+        }
+        return true;
+    }
+
+    @Override
+    JSONObject getResult() throws JSONException {
+        JSONObject result = new JSONObject();
+        result.put("alias", alias);
+        if (file != null) {
+            result.put("path", file.getAbsolutePath());
+        } else if (!detach) {
+            result.put("memory", true);
+        }
+        return result;
+    }
+} /* vim: set expandtab : */
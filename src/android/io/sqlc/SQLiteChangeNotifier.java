@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2012-present Christopher J. Brody (aka Chris Brody)
+ * Copyright (c) 2005-2010, Nitobi Software Inc.
+ * Copyright (c) 2010, IBM Corporation
+ */
+
+package io.sqlc;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Change notifications for a database, coalesced per transaction
+ * (or per batch in case no transaction is active) and delivered
+ * to the listeners through keep-callback results.
+ *
+ * NOTE: SQLCipher for Android does not provide sqlite3_update_hook(),
+ * changes are recorded from the results of INSERT/UPDATE/DELETE statements
+ * executed by SQLiteAndroidDatabase (on the db thread).
+ */
+class SQLiteChangeNotifier
+{
+    final String dbname;
+
+    // NOTE: listeners are added from the Cordova bridge thread:
+    private final List<CallbackContext> listeners = new CopyOnWriteArrayList<CallbackContext>();
+
+    // pending (not yet committed) changes, by table name:
+    private final Map<String, TableChanges> pending = new LinkedHashMap<String, TableChanges>();
+
+    // pending change(s) by statement(s) with unknown effect (such as schema changes):
+    private boolean pendingOther = false;
+
+    SQLiteChangeNotifier(String dbname) {
+        this.dbname = dbname;
+    }
+
+    void addListener(CallbackContext cbc) {
+        listeners.add(cbc);
+
+        PluginResult r = new PluginResult(PluginResult.Status.NO_RESULT);
+        r.setKeepCallback(true);
+        cbc.sendPluginResult(r);
+    }
+
+    void removeListeners() {
+        for (CallbackContext cbc: listeners) {
+            cbc.sendPluginResult(new PluginResult(PluginResult.Status.NO_RESULT));
+        }
+        listeners.clear();
+    }
+
+    boolean hasListeners() {
+        return !listeners.isEmpty();
+    }
+
+    /**
+     * Record a change by an INSERT, UPDATE, or DELETE statement.
+     *
+     * @param table        The (normalized) table name, null if not known
+     * @param rowsAffected Number of rows affected
+     * @param insertId     Row id in case a single row was inserted, -1 otherwise
+     */
+    void recordChange(String table, long rowsAffected, long insertId) {
+        if (rowsAffected <= 0) return;
+
+        if (table == null) {
+            pendingOther = true;
+            return;
+        }
+
+        TableChanges changes = pending.get(table);
+        if (changes == null) {
+            changes = new TableChanges();
+            pending.put(table, changes);
+        }
+
+        changes.rowsAffected += rowsAffected;
+        if (insertId != -1 && rowsAffected == 1) {
+            changes.addRowid(insertId);
+        } else {
+            changes.otherRows = true;
+        }
+    }
+
+    /**
+     * Record a change by a statement with unknown effect.
+     */
+    void recordOtherChange() {
+        pendingOther = true;
+    }
+
+    /**
+     * Discard the pending changes (upon rollback).
+     */
+    void discard() {
+        pending.clear();
+        pendingOther = false;
+    }
+
+    /**
+     * Deliver the pending changes (upon commit or end of batch) in a single message.
+     */
+    void flush() {
+        if (pending.isEmpty() && !pendingOther) return;
+
+        JSONObject message = new JSONObject();
+        try {
+            JSONArray changes = new JSONArray();
+            for (Map.Entry<String, TableChanges> e: pending.entrySet()) {
+                changes.put(e.getValue().toJSON(e.getKey()));
+            }
+
+            message.put("dbname", dbname);
+            message.put("changes", changes);
+            if (pendingOther) message.put("other", true);
+        } catch (JSONException ex) {
+            Log.e(SQLitePlugin.class.getSimpleName(), "unexpected JSON error in change notification", ex);
+        }
+
+        discard();
+
+        for (CallbackContext cbc: listeners) {
+            PluginResult r = new PluginResult(PluginResult.Status.OK, message);
+            r.setKeepCallback(true);
+            cbc.sendPluginResult(r);
+        }
+    }
+
+    private static final class TableChanges {
+        long rowsAffected = 0;
+
+        // rows changed (updated, deleted, or multi-row inserts) with unknown rowid:
+        boolean otherRows = false;
+
+        // inserted rowid ranges: [first, last], ...
+        final List<long[]> ranges = new ArrayList<long[]>();
+
+        void addRowid(long rowid) {
+            if (!ranges.isEmpty()) {
+                long[] last = ranges.get(ranges.size() - 1);
+                if (rowid == last[1] + 1) {
+                    last[1] = rowid;
+                    return;
+                }
+            }
+            ranges.add(new long[] { rowid, rowid });
+        }
+
+        JSONObject toJSON(String table) throws JSONException {
+            JSONObject o = new JSONObject();
+            o.put("table", table);
+            o.put("rowsAffected", rowsAffected);
+
+            if (!ranges.isEmpty()) {
+                JSONArray rowids = new JSONArray();
+                for (long[] range: ranges) {
+                    JSONArray r = new JSONArray();
+                    r.put(range[0]);
+                    r.put(range[1]);
+                    rowids.put(r);
+                }
+                o.put("insertedRowids", rowids);
+            }
+
+            if (otherRows) o.put("otherRows", true);
+
+            return o;
+        }
+    }
+} /* vim: set expandtab : */
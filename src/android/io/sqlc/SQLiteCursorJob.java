@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2012-present Christopher J. Brody (aka Chris Brody)
+ * Copyright (c) 2005-2010, Nitobi Software Inc.
+ * Copyright (c) 2010, IBM Corporation
+ */
+
+package io.sqlc;
+
+import org.apache.cordova.CallbackContext;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Query cursor operation (open, fetch, or close), executed in one step of the db thread.
+ *
+ * NOTE: a cursor with no key column keeps its SQLCipher cursor open between
+ * the fetches (see SQLiteAndroidDatabase.openCursor), a cursor is closed
+ * after the last row, after the idle timeout, or when the database is closed.
+ */
+class SQLiteCursorJob extends SQLiteJob
+{
+    static enum Operation {
+        open,
+        fetch,
+        close,
+    }
+
+    final Operation operation;
+    final String sql;
+    final JSONArray params;
+    final String keyColumn;
+    final long idleTimeoutMs;
+    final int handle;
+    final int count;
+
+    private JSONObject result = null;
+
+    private SQLiteCursorJob(Operation operation, String sql, JSONArray params, String keyColumn,
+            long idleTimeoutMs, int handle, int count, CallbackContext cbc) {
+        super(cbc);
+        this.operation = operation;
+        this.sql = sql;
+        this.params = params;
+        this.keyColumn = keyColumn;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.handle = handle;
+        this.count = count;
+    }
+
+    static SQLiteCursorJob open(String sql, JSONArray params, String keyColumn, long idleTimeoutMs,
+            CallbackContext cbc) {
+        return new SQLiteCursorJob(Operation.open, sql, params, keyColumn, idleTimeoutMs, 0, 0, cbc);
+    }
+
+    static SQLiteCursorJob fetch(int handle, int count, CallbackContext cbc) {
+        return new SQLiteCursorJob(Operation.fetch, null, null, null, 0, handle, count, cbc);
+    }
+
+    static SQLiteCursorJob close(int handle, CallbackContext cbc) {
+        return new SQLiteCursorJob(Operation.close, null, null, null, 0, handle, 0, cbc);
+    }
+
+    @Override
+    boolean step(SQLiteAndroidDatabase mydb) throws Exception {
+        switch (operation) {
+            case open:
+                result = new JSONObject();
+                result.put("handle", mydb.openCursor(sql, params, keyColumn, idleTimeoutMs));
+                break;
+
+            case fetch:
+                result = mydb.fetchCursor(handle, count);
+                break;
+
+            case close:
+                mydb.closeCursor(handle);
+                result = new JSONObject();
+                result.put("handle", handle);
+                break;
+        }
+
+        return true;
+    }
+
+    @Override
+    JSONObject getResult() throws JSONException {
+        return result;
+    }
+} /* vim: set expandtab : */
@@ -0,0 +1,446 @@
+/*
+ * Copyright (c) 2012-present Christopher J. Brody (aka Chris Brody)
+ * Copyright (c) 2005-2010, Nitobi Software Inc.
+ * Copyright (c) 2010, IBM Corporation
+ */
+
+package io.sqlc;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.cordova.CallbackContext;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Db runner (thread) of an open database: runs the batches and job steps
+ * from its queue until it is stopped or closed.
+ *
+ * NOTE: the queue and close lifecycle only depends on the SQLiteRunnerDatabase
+ * interface; opening and closing the actual database is left to the subclass
+ * (see SQLitePlugin.DBRunner).
+ */
+abstract class SQLiteDBRunner implements Runnable {
+    // max time to wait for a closing database (before reopen):
+    static final int CLOSE_TIMEOUT_SECONDS = 30;
+
+    // generation id of the last started db runner:
+    private static final AtomicLong nextGeneration = new AtomicLong(0);
+
+    final String dbname;
+
+    final BlockingQueue<DBQuery> q = new LinkedBlockingQueue<DBQuery>();
+    final CallbackContext openCbc;
+
+    // runner map with this runner (removed from the map when finished):
+    private final SQLiteRunnerRegistry<?> registry;
+
+    // number of batches waiting in the queue or being executed:
+    final AtomicInteger pendingBatches = new AtomicInteger(0);
+
+    // number of jobs waiting in the queue (or deferred) or not yet finished:
+    final AtomicInteger pendingJobs = new AtomicInteger(0);
+
+    // jobs waiting for the end of a transaction or exclusive job (db thread only):
+    private final List<DBQuery> deferredJobs = new ArrayList<DBQuery>();
+
+    // number of jobs started and not yet finished (db thread only):
+    private int startedJobs = 0;
+
+    // exclusive job in progress, if any (db thread only):
+    private SQLiteJob exclusiveJob = null;
+
+    volatile SQLiteRunnerDatabase mydb;
+
+    // unique id of this runner, to detect requests for a closed (stale) runner:
+    final long generation = nextGeneration.incrementAndGet();
+
+    // set when a close (or delete) is requested, no other request is accepted:
+    final AtomicBoolean closing = new AtomicBoolean(false);
+
+    // released when the runner is finished (database closed):
+    final CountDownLatch closed = new CountDownLatch(1);
+
+    // closing runner (for the same database) to wait for before opening:
+    SQLiteDBRunner previous = null;
+
+    SQLiteDBRunner(String dbname, SQLiteRunnerRegistry<?> registry, CallbackContext openCbc) {
+        this.dbname = dbname;
+        this.registry = registry;
+        this.openCbc = openCbc;
+    }
+
+    /**
+     * Open the database (in the db thread), before the open callback.
+     *
+     * @param openResult  Result for the open callback (with the generation added)
+     *
+     * @return the open database, or null in case of an error (with error sent to openCbc)
+     */
+    abstract SQLiteRunnerDatabase openDatabase(JSONObject openResult) throws Exception;
+
+    /**
+     * Called after the open callback, before the first request is taken from the queue.
+     */
+    void afterOpen() {
+    }
+
+    /**
+     * Called when the queue is stopped, before the database is closed.
+     */
+    void afterStop() {
+    }
+
+    /**
+     * Close the database (upon a close or delete request).
+     */
+    void closeDatabase() throws Exception {
+        mydb.closeDatabaseNow();
+    }
+
+    /**
+     * Delete the database after it was closed.
+     *
+     * @return true if successful
+     */
+    abstract boolean deleteDatabase();
+
+    public void run() {
+        try {
+            if (previous != null && !awaitPrevious()) return;
+
+            runDatabase();
+        } finally {
+            closed.countDown();
+
+            // requests queued while the runner was stopping
+            // (see rejectIfClosed):
+            cancelJobs();
+        }
+    }
+
+    /**
+     * Put a batch in the queue.
+     */
+    void queueBatch(DBQuery dbq) {
+        try {
+            pendingBatches.incrementAndGet();
+            q.put(dbq);
+            if (rejectIfClosed(dbq)) pendingBatches.decrementAndGet();
+        } catch(Exception e) {
+            pendingBatches.decrementAndGet();
+            Log.e(SQLiteDBRunner.class.getSimpleName(), "couldn't add to queue", e);
+            dbq.cbc.error("couldn't add to queue");
+        }
+    }
+
+    /**
+     * Put a job in the queue.
+     */
+    void queueJob(SQLiteJob job) {
+        try {
+            DBQuery dbq = new DBQuery(job);
+            pendingJobs.incrementAndGet();
+            q.put(dbq);
+            if (rejectIfClosed(dbq)) pendingJobs.decrementAndGet();
+        } catch(Exception e) {
+            pendingJobs.decrementAndGet();
+            Log.e(SQLiteDBRunner.class.getSimpleName(), "couldn't add to queue", e);
+            job.cbc.error("couldn't add to queue");
+        }
+    }
+
+    /**
+     * Reject a request that was put in the queue of a runner that is already
+     * finished (after its last check of the queue), so that no callback is lost.
+     *
+     * @return true if rejected
+     */
+    private boolean rejectIfClosed(DBQuery dbq) {
+        if (closed.getCount() == 0 && q.remove(dbq)) {
+            dbq.cbc.error("database closed");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Take the next request from the queue, closing idle cursors while waiting.
+     */
+    private DBQuery takeQuery() throws InterruptedException {
+        long wait = mydb.expireCursors();
+        while (wait >= 0) {
+            DBQuery dbq = q.poll(wait, TimeUnit.MILLISECONDS);
+            if (dbq != null) return dbq;
+            wait = mydb.expireCursors();
+        }
+        return q.take();
+    }
+
+    /**
+     * Wait for the previous (closing) runner of the same database to finish.
+     */
+    private boolean awaitPrevious() {
+        try {
+            if (previous.closed.await(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                previous = null;
+                return true;
+            }
+            openCbc.error("can't open database: timed out waiting for previous close");
+        } catch (InterruptedException e) {
+            openCbc.error("can't open database: interrupted waiting for previous close");
+        }
+
+        registry.remove(dbname, this);
+        return false;
+    }
+
+    private void runDatabase() {
+        JSONObject openResult = new JSONObject();
+
+        try {
+            // NOTE: batches are queued (waiting) while the database is opened
+            this.mydb = openDatabase(openResult);
+        } catch (Exception e) {
+            Log.e(SQLiteDBRunner.class.getSimpleName(), "unexpected error, stopping db thread", e);
+        }
+
+        if (mydb == null) {
+            registry.remove(dbname, this);
+            return;
+        }
+
+        try {
+            openResult.put("generation", generation);
+
+            // NOTE: NO Android locking/closing BUG workaround needed here
+            openCbc.success(openResult);
+        } catch (JSONException e) {
+            // NOT expected:
+            openCbc.success();
+        }
+
+        afterOpen();
+
+        DBQuery dbq = null;
+
+        try {
+            dbq = takeQuery();
+
+            while (!dbq.stop) {
+                if (dbq.job != null) {
+                    runJobStep(dbq);
+                } else {
+                    if (dbq.readOnly) {
+                        mydb.executeReadOnlyBatch(dbq.queries, dbq.jsonparams, dbq.cbc);
+                    } else {
+                        mydb.executeSqlBatch(dbq.queries, dbq.jsonparams, dbq.cbc);
+                    }
+                    pendingBatches.decrementAndGet();
+
+                    resumeDeferredJobs();
+                }
+
+                dbq = takeQuery();
+            }
+        } catch (Exception e) {
+            Log.e(SQLiteDBRunner.class.getSimpleName(), "unexpected error", e);
+        }
+
+        cancelJobs();
+
+        afterStop();
+
+        if (dbq != null && dbq.close) {
+            try {
+                closeDatabase();
+
+                // NOTE: the map may already have a new runner for the same database (reopen):
+                registry.remove(dbname, this);
+
+                if (!dbq.delete || deleteDatabase()) {
+                    dbq.cbc.success();
+                } else {
+                    dbq.cbc.error("couldn't delete database");
+                }
+            } catch (Exception e) {
+                Log.e(SQLiteDBRunner.class.getSimpleName(), "couldn't close database", e);
+                if (dbq.cbc != null) {
+                    dbq.cbc.error("couldn't close database: " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Run the next step of a job and put it back in the queue (after
+     * any other waiting batches) if not finished.
+     */
+    private void runJobStep(DBQuery dbq) throws InterruptedException {
+        if (mydb.isTransactionActive() || (exclusiveJob != null && exclusiveJob != dbq.job)) {
+            // wait for the end of the transaction (or exclusive job):
+            deferredJobs.add(dbq);
+            return;
+        }
+
+        if (!dbq.started) {
+            if (dbq.job.isExclusive()) {
+                if (startedJobs > 0) {
+                    pendingJobs.decrementAndGet();
+                    dbq.cbc.error("job failed: other jobs are in progress");
+                    return;
+                }
+                exclusiveJob = dbq.job;
+            }
+
+            dbq.started = true;
+            ++startedJobs;
+        }
+
+        boolean done;
+        try {
+            done = mydb.stepJob(dbq.job);
+        } catch (Exception e) {
+            Log.e(SQLiteDBRunner.class.getSimpleName(), "job failed", e);
+            mydb.cleanupJob(dbq.job);
+            endJob(dbq);
+            dbq.cbc.error("job failed: " + e.getMessage());
+            return;
+        }
+
+        if (!done) {
+            q.put(dbq);
+            return;
+        }
+
+        endJob(dbq);
+
+        try {
+            dbq.cbc.success(dbq.job.getResult());
+        } catch (JSONException e) {
+            Log.e(SQLiteDBRunner.class.getSimpleName(), "unexpected JSON error", e);
+            dbq.cbc.error("unexpected JSON error");
+        }
+    }
+
+    private void endJob(DBQuery dbq) throws InterruptedException {
+        --startedJobs;
+        pendingJobs.decrementAndGet();
+
+        if (exclusiveJob == dbq.job) {
+            exclusiveJob = null;
+            resumeDeferredJobs();
+        }
+    }
+
+    /**
+     * Put the deferred jobs back in the queue, unless a transaction
+     * or an exclusive job is still in progress.
+     */
+    private void resumeDeferredJobs() throws InterruptedException {
+        if (mydb.isTransactionActive() || exclusiveJob != null || deferredJobs.isEmpty()) return;
+
+        for (DBQuery job: deferredJobs) q.put(job);
+        deferredJobs.clear();
+    }
+
+    /**
+     * Cancel the unfinished job(s) and the batches still in the queue
+     * when the db thread is stopped.
+     */
+    private void cancelJobs() {
+        List<DBQuery> jobs = new ArrayList<DBQuery>(deferredJobs);
+        deferredJobs.clear();
+
+        DBQuery dbq;
+        while ((dbq = q.poll()) != null) {
+            if (dbq.job != null) {
+                jobs.add(dbq);
+            } else if (!dbq.stop) {
+                // (batch queued after the close request)
+                pendingBatches.decrementAndGet();
+                dbq.cbc.error("database closed");
+            }
+        }
+
+        SQLiteRunnerDatabase db = mydb;
+        for (DBQuery job: jobs) {
+            pendingJobs.decrementAndGet();
+            // (nothing to clean up if the database was never opened)
+            if (db != null) db.cleanupJob(job.job);
+            job.cbc.error("database closed");
+        }
+    }
+
+    static final class DBQuery {
+        // XXX TODO replace with DBRunner action enum:
+        final boolean stop;
+        final boolean close;
+        final boolean delete;
+        final String[] queries;
+        final JSONArray[] jsonparams;
+        final boolean readOnly;
+        final SQLiteJob job;
+        final CallbackContext cbc;
+
+        // set when the first step of the job is started (db thread only):
+        boolean started = false;
+
+        DBQuery(String[] myqueries, JSONArray[] params, boolean readOnly, CallbackContext c) {
+            this.stop = false;
+            this.close = false;
+            this.delete = false;
+            this.queries = myqueries;
+            this.jsonparams = params;
+            this.readOnly = readOnly;
+            this.job = null;
+            this.cbc = c;
+        }
+
+        DBQuery(SQLiteJob job) {
+            this.stop = false;
+            this.close = false;
+            this.delete = false;
+            this.queries = null;
+            this.jsonparams = null;
+            this.readOnly = false;
+            this.job = job;
+            this.cbc = job.cbc;
+        }
+
+        DBQuery(boolean delete, CallbackContext cbc) {
+            this.stop = true;
+            this.close = true;
+            this.delete = delete;
+            this.queries = null;
+            this.jsonparams = null;
+            this.readOnly = false;
+            this.job = null;
+            this.cbc = cbc;
+        }
+
+        // signal the DBRunner thread to stop:
+        DBQuery() {
+            this.stop = true;
+            this.close = false;
+            this.delete = false;
+            this.queries = null;
+            this.jsonparams = null;
+            this.readOnly = false;
+            this.job = null;
+            this.cbc = null;
+        }
+    }
+} /* vim: set expandtab : */
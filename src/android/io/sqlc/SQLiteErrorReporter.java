@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2012-present Christopher J. Brody (aka Chris Brody)
+ * Copyright (c) 2005-2010, Nitobi Software Inc.
+ * Copyright (c) 2010, IBM Corporation
+ */
+
+package io.sqlc;
+
+import android.util.Log;
+
+// SQLCipher version of database classes:
+import net.sqlcipher.database.SQLiteConstraintException;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Statement error reporting: error code mapping, error result objects
+ * (built once for each code and message), per-code counters, and sampled
+ * logging (no stack traces) so that workloads with many failed statements
+ * are not dominated by logging and allocation.
+ */
+class SQLiteErrorReporter
+{
+    // SQLException codes (as in the Web SQL API):
+    static final int UNKNOWN_ERR = 0;
+    static final int DATABASE_ERR = 1;
+    static final int VERSION_ERR = 2;
+    static final int TOO_LARGE_ERR = 3;
+    static final int QUOTA_ERR = 4;
+    static final int SYNTAX_ERR = 5;
+    static final int CONSTRAINT_ERR = 6;
+    static final int TIMEOUT_ERR = 7;
+
+    private static final int CODE_COUNT = 8;
+
+    private static final AtomicLongArray counts = new AtomicLongArray(CODE_COUNT);
+
+    // log the first error and then every n-th error of each code (0: no logging):
+    private static volatile int logSampleRate = 100;
+
+    // max number of error results kept for each code:
+    private static final int ERROR_RESULT_CACHE_SIZE = 256;
+
+    // error results by message for each code (shared, never changed):
+    private static final ConcurrentHashMap<String, JSONObject>[] errorResults = newErrorResultMaps();
+
+    private SQLiteErrorReporter() { }
+
+    /**
+     * Map an exception thrown by a statement to an SQLException code.
+     *
+     * NOTE: only constraint failures are mapped, other errors are reported
+     * with UNKNOWN_ERR (same as before).
+     */
+    static int codeFor(Exception ex) {
+        return (ex instanceof SQLiteConstraintException) ? CONSTRAINT_ERR : UNKNOWN_ERR;
+    }
+
+    static String messageFor(Exception ex) {
+        return (ex instanceof SQLiteConstraintException) ?
+            "constraint failure: " + ex.getMessage() : ex.getMessage();
+    }
+
+    /**
+     * Count (and possibly log) a statement error.
+     *
+     * @param tag      Log tag
+     * @param code     SQLException code
+     * @param message  Error message
+     */
+    static void report(String tag, int code, String message) {
+        int index = (code >= 0 && code < CODE_COUNT) ? code : UNKNOWN_ERR;
+        long count = counts.incrementAndGet(index);
+
+        int rate = logSampleRate;
+        if (rate > 0 && (count - 1) % rate == 0) {
+            Log.v(tag, "Error code=" + code + " message=" + message + " (count: " + count + ")");
+        }
+    }
+
+    /**
+     * Get the error result for the batch results, and report the error.
+     *
+     * NOTE: the same (cached) result object is returned for the same code and
+     * message, it must not be changed.
+     *
+     * @return { type: "error", result: { message, code } }
+     */
+    static JSONObject errorResult(String tag, int code, String message) throws JSONException {
+        report(tag, code, message);
+
+        if (code < 0 || code >= CODE_COUNT || message == null) return newErrorResult(code, message);
+
+        ConcurrentHashMap<String, JSONObject> results = errorResults[code];
+        JSONObject r = results.get(message);
+        if (r == null) {
+            r = newErrorResult(code, message);
+            // (messages with varying details are not kept beyond the limit)
+            if (results.size() < ERROR_RESULT_CACHE_SIZE) results.putIfAbsent(message, r);
+        }
+        return r;
+    }
+
+    private static JSONObject newErrorResult(int code, String message) throws JSONException {
+        JSONObject er = new JSONObject();
+        er.put("message", message);
+        er.put("code", code);
+
+        JSONObject r = new JSONObject();
+        r.put("type", "error");
+        r.put("result", er);
+        return r;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ConcurrentHashMap<String, JSONObject>[] newErrorResultMaps() {
+        ConcurrentHashMap<String, JSONObject>[] maps = new ConcurrentHashMap[CODE_COUNT];
+        for (int i = 0; i < CODE_COUNT; ++i) maps[i] = new ConcurrentHashMap<String, JSONObject>();
+        return maps;
+    }
+
+    /**
+     * @param rate  Log the first error and then every n-th error of each code (0: no logging)
+     */
+    static void setLogSampleRate(int rate) {
+        logSampleRate = Math.max(rate, 0);
+    }
+
+    /**
+     * Get the error counters (by code).
+     *
+     * @param reset  true to reset the counters
+     */
+    static JSONObject getStats(boolean reset) throws JSONException {
+        JSONObject byCode = new JSONObject();
+        long total = 0;
+
+        for (int i = 0; i < CODE_COUNT; ++i) {
+            long count = reset ? counts.getAndSet(i, 0) : counts.get(i);
+            if (count > 0) byCode.put(String.valueOf(i), count);
+            total += count;
+        }
+
+        JSONObject stats = new JSONObject();
+        stats.put("errorCount", total);
+        stats.put("errorCountByCode", byCode);
+        stats.put("logSampleRate", logSampleRate);
+        return stats;
+    }
+} /* vim: set expandtab : */
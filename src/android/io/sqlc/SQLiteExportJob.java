@@ -0,0 +1,424 @@
+/*
+ * Copyright (c) 2012-present Christopher J. Brody (aka Chris Brody)
+ * Copyright (c) 2005-2010, Nitobi Software Inc.
+ * Copyright (c) 2010, IBM Corporation
+ */
+
+package io.sqlc;
+
+import android.util.Log;
+
+// SQLCipher version of database classes:
+import net.sqlcipher.*;
+import net.sqlcipher.database.*;
+
+import java.io.File;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import java.util.regex.Pattern;
+
+import org.apache.cordova.CallbackContext;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Online export of an open database into a new database file (with a new key,
+ * or plaintext in case of an empty key), copied in chunks of rows so that
+ * other batches can run in between the steps.
+ *
+ * The SQLite backup API is not available from SQLCipher for Android and
+ * sqlcipher_export() copies everything in one step, so the tables are
+ * copied by rowid range into an attached database. Any table written
+ * after its copy was started is copied again; in case of a write with
+ * unknown effect the export is restarted, and after MAX_RESTARTS the
+ * remaining work is done in a single step to guarantee a consistent copy.
+ *
+ * A snapshot export (such as for an in-memory or temporary database) copies
+ * the entire database in a single step with sqlcipher_export() instead.
+ */
+class SQLiteExportJob extends SQLiteJob
+{
+    static final String ALIAS = "sqlc_export";
+
+    private static final int MAX_RESTARTS = 3;
+
+    private static final Pattern CREATE_PREFIX = Pattern.compile(
+            "^(\\s*CREATE\\s+(?:UNIQUE\\s+|VIRTUAL\\s+)?(?:TABLE|INDEX|VIEW|TRIGGER)\\s+(?:IF\\s+NOT\\s+EXISTS\\s+)?)",
+            Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern CREATE_VIRTUAL = Pattern.compile("^\\s*CREATE\\s+VIRTUAL\\s+",
+            Pattern.CASE_INSENSITIVE);
+
+    final File target;
+    final File tempFile;
+    final String key;
+    final int chunkRows;
+    final boolean snapshot;
+
+    private boolean tracking = false;
+    private boolean attached = false;
+    private int restarts = 0;
+
+    // tables waiting to be copied; the first one is being copied:
+    private final LinkedList<String> pendingTables = new LinkedList<String>();
+    private final Set<String> virtualTables = new HashSet<String>();
+    private final Set<String> startedTables = new HashSet<String>();
+    private final List<String> postDataSchema = new ArrayList<String>();
+    private final Set<String> triggerTables = new HashSet<String>();
+    private boolean foreignKeysOn = false;
+    private boolean hasSequence = false;
+
+    private int tableCount = 0;
+    private long lastRowid = Long.MIN_VALUE;
+    private long rowsCopied = 0;
+
+    /**
+     * @param target    Target database file (replaced atomically upon completion)
+     * @param key       Key for the target database (empty for plaintext, null for the same key)
+     * @param chunkRows Number of rows to copy in each step
+     * @param cbc       Callback context for progress and the final result
+     */
+    SQLiteExportJob(File target, String key, int chunkRows, CallbackContext cbc) {
+        this(target, key, chunkRows, false, cbc);
+    }
+
+    /**
+     * @param target    Target database file (replaced atomically upon completion)
+     * @param key       Key for the target database (empty for plaintext, null for the same key)
+     * @param chunkRows Number of rows to copy in each step (not used for a snapshot)
+     * @param snapshot  true to copy the entire database in a single step
+     * @param cbc       Callback context for progress and the final result
+     */
+    SQLiteExportJob(File target, String key, int chunkRows, boolean snapshot, CallbackContext cbc) {
+        super(cbc);
+        this.target = target;
+        this.tempFile = new File(target.getAbsolutePath() + "-export");
+        this.key = key;
+        this.chunkRows = chunkRows;
+        this.snapshot = snapshot;
+    }
+
+    @Override
+    boolean step(SQLiteAndroidDatabase mydb) throws Exception {
+        SQLiteDatabase db = mydb.mydb;
+
+        if (snapshot) {
+            exportSnapshot(mydb);
+            return true;
+        }
+
+        if (!attached) {
+            setup(mydb);
+        } else {
+            handleWrites(mydb, mydb.takeWrittenTables());
+            if (!attached) setup(mydb);
+        }
+
+        if (restarts > MAX_RESTARTS) {
+            // finish in this step (no other batches in between):
+            while (!pendingTables.isEmpty()) copyChunk(db);
+        } else if (!pendingTables.isEmpty()) {
+            copyChunk(db);
+        }
+
+        if (pendingTables.isEmpty()) {
+            finish(mydb);
+            return true;
+        }
+
+        JSONObject progress = new JSONObject();
+        progress.put("progress", true);
+        progress.put("table", pendingTables.getFirst());
+        progress.put("tablesCopied", tableCount - pendingTables.size());
+        progress.put("tableCount", tableCount);
+        progress.put("rowsCopied", rowsCopied);
+        sendProgress(progress);
+
+        return false;
+    }
+
+    @Override
+    JSONObject getResult() throws JSONException {
+        JSONObject result = new JSONObject();
+        result.put("path", target.getAbsolutePath());
+        result.put("tableCount", tableCount);
+        result.put("rowsCopied", rowsCopied);
+        result.put("restarts", restarts);
+        if (snapshot) result.put("snapshot", true);
+        return result;
+    }
+
+    @Override
+    void cleanup(SQLiteAndroidDatabase mydb) {
+        if (tracking) mydb.stopWriteTracking();
+        tracking = false;
+        if (attached && mydb.mydb != null) detach(mydb.mydb);
+        attached = false;
+        deleteTempFile();
+    }
+
+    private void setup(SQLiteAndroidDatabase mydb) throws Exception {
+        SQLiteDatabase db = mydb.mydb;
+
+        if (!mydb.startWriteTracking()) {
+            throw new RuntimeException("another export is in progress for this database");
+        }
+        tracking = true;
+
+        deleteTempFile();
+        tempFile.getParentFile().mkdirs();
+
+        db.execSQL("ATTACH DATABASE ? AS " + ALIAS + " KEY ?",
+            new Object[] { tempFile.getAbsolutePath(), (key != null) ? key : mydb.dbkey });
+        attached = true;
+
+        pendingTables.clear();
+        virtualTables.clear();
+        startedTables.clear();
+        postDataSchema.clear();
+        triggerTables.clear();
+        hasSequence = false;
+        lastRowid = Long.MIN_VALUE;
+        rowsCopied = 0;
+
+        List<String> tables = new ArrayList<String>();
+        List<String> tableSchema = new ArrayList<String>();
+
+        Cursor cur = db.rawQuery("SELECT type, name, tbl_name, sql FROM main.sqlite_master ORDER BY rowid",
+            new String[0]);
+        try {
+            while (cur.moveToNext()) {
+                String type = cur.getString(0);
+                String name = cur.getString(1);
+                String sql = cur.isNull(3) ? null : cur.getString(3);
+
+                if (name.equals("sqlite_sequence")) hasSequence = true;
+                if (type.equals("trigger")) triggerTables.add(SQLiteQueryCache.normalizeTableName(cur.getString(2)));
+
+                // internal objects & automatic indexes:
+                if (name.startsWith("sqlite_") || sql == null) continue;
+
+                if (type.equals("table")) {
+                    tables.add(name);
+                    tableSchema.add(qualify(sql));
+                    if (CREATE_VIRTUAL.matcher(sql).find()) virtualTables.add(name);
+                } else {
+                    postDataSchema.add(qualify(sql));
+                }
+            }
+        } finally {
+            cur.close();
+        }
+
+        cur = db.rawQuery("PRAGMA foreign_keys", new String[0]);
+        try {
+            foreignKeysOn = cur.moveToFirst() && cur.getLong(0) != 0;
+        } finally {
+            cur.close();
+        }
+
+        for (int i = 0; i < tables.size(); ++i) {
+            String table = tables.get(i);
+
+            // shadow tables are created (and filled) by the virtual table:
+            if (isShadowTable(table)) continue;
+
+            db.execSQL(tableSchema.get(i));
+            pendingTables.add(table);
+        }
+
+        tableCount = pendingTables.size();
+    }
+
+    private boolean isShadowTable(String table) {
+        for (String vt: virtualTables) {
+            if (table.startsWith(vt + "_")) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Copy any table written after its copy was started again,
+     * or restart in case of a write with unknown effect(s).
+     */
+    private void handleWrites(SQLiteAndroidDatabase mydb, Set<String> written) {
+        if (written.isEmpty()) return;
+
+        boolean restart = written.contains(SQLiteAndroidDatabase.UNKNOWN_TABLE) || foreignKeysOn;
+        for (String table: written) {
+            if (triggerTables.contains(table)) restart = true;
+        }
+
+        if (restart) {
+            ++restarts;
+            Log.v("exportDatabase", "restart export after write with unknown effects, restarts: " + restarts);
+            cleanup(mydb);
+            return;
+        }
+
+        SQLiteDatabase db = mydb.mydb;
+        String current = pendingTables.getFirst();
+
+        for (String table: new ArrayList<String>(startedTables)) {
+            if (!written.contains(SQLiteQueryCache.normalizeTableName(table))) continue;
+
+            db.execSQL("DELETE FROM " + ALIAS + "." + quote(table));
+            startedTables.remove(table);
+
+            if (table.equals(current)) {
+                lastRowid = Long.MIN_VALUE;
+            } else {
+                pendingTables.add(table);
+            }
+        }
+    }
+
+    private void copyChunk(SQLiteDatabase db) {
+        String table = pendingTables.getFirst();
+        String from = "main." + quote(table);
+        String to = ALIAS + "." + quote(table);
+
+        startedTables.add(table);
+
+        if (virtualTables.contains(table) || !hasRowid(db, from)) {
+            // copy the entire table in one step:
+            db.execSQL("INSERT INTO " + to + " SELECT * FROM " + from);
+            rowsCopied += countRows(db, to);
+            nextTable();
+            return;
+        }
+
+        long count = 0;
+        long maxRowid = lastRowid;
+
+        Cursor cur = db.rawQuery("SELECT count(*), max(rowid) FROM (SELECT rowid FROM " + from +
+            " WHERE rowid > ? ORDER BY rowid LIMIT ?)", new Object[] { lastRowid, chunkRows });
+        try {
+            if (cur.moveToFirst() && !cur.isNull(1)) {
+                count = cur.getLong(0);
+                maxRowid = cur.getLong(1);
+            }
+        } finally {
+            cur.close();
+        }
+
+        if (count > 0) {
+            db.execSQL("INSERT INTO " + to + " SELECT * FROM " + from + " WHERE rowid > ? AND rowid <= ?",
+                new Object[] { lastRowid, maxRowid });
+            rowsCopied += count;
+            lastRowid = maxRowid;
+        }
+
+        if (count < chunkRows) nextTable();
+    }
+
+    private void nextTable() {
+        pendingTables.removeFirst();
+        lastRowid = Long.MIN_VALUE;
+    }
+
+    private void finish(SQLiteAndroidDatabase mydb) {
+        SQLiteDatabase db = mydb.mydb;
+
+        if (hasSequence) {
+            db.execSQL("DELETE FROM " + ALIAS + ".sqlite_sequence");
+            db.execSQL("INSERT INTO " + ALIAS + ".sqlite_sequence SELECT * FROM main.sqlite_sequence");
+        }
+
+        // indexes, views, and triggers are created after the data is copied:
+        for (String sql: postDataSchema) {
+            db.execSQL(sql);
+        }
+
+        db.execSQL("PRAGMA " + ALIAS + ".user_version = " + db.getVersion());
+
+        mydb.stopWriteTracking();
+        tracking = false;
+        detach(db);
+        attached = false;
+
+        if (!tempFile.renameTo(target)) {
+            deleteTempFile();
+            throw new RuntimeException("could not rename export file to: " + target.getAbsolutePath());
+        }
+    }
+
+    private void exportSnapshot(SQLiteAndroidDatabase mydb) {
+        SQLiteDatabase db = mydb.mydb;
+
+        deleteTempFile();
+        tempFile.getParentFile().mkdirs();
+
+        db.execSQL("ATTACH DATABASE ? AS " + ALIAS + " KEY ?",
+            new Object[] { tempFile.getAbsolutePath(), (key != null) ? key : mydb.dbkey });
+        attached = true;
+
+        db.rawExecSQL("SELECT sqlcipher_export('" + ALIAS + "')");
+        db.execSQL("PRAGMA " + ALIAS + ".user_version = " + db.getVersion());
+
+        Cursor cur = db.rawQuery("SELECT name FROM " + ALIAS + ".sqlite_master WHERE type = 'table'" +
+            " AND name NOT LIKE 'sqlite_%'", new String[0]);
+        try {
+            while (cur.moveToNext()) {
+                ++tableCount;
+                rowsCopied += countRows(db, ALIAS + "." + quote(cur.getString(0)));
+            }
+        } finally {
+            cur.close();
+        }
+
+        detach(db);
+        attached = false;
+
+        if (!tempFile.renameTo(target)) {
+            deleteTempFile();
+            throw new RuntimeException("could not rename export file to: " + target.getAbsolutePath());
+        }
+    }
+
+    private static boolean hasRowid(SQLiteDatabase db, String from) {
+        try {
+            db.rawQuery("SELECT rowid FROM " + from + " LIMIT 0", new String[0]).close();
+            return true;
+        } catch (SQLiteException ex) {
+            // WITHOUT ROWID table
+            return false;
+        }
+    }
+
+    private static long countRows(SQLiteDatabase db, String table) {
+        Cursor cur = db.rawQuery("SELECT count(*) FROM " + table, new String[0]);
+        try {
+            return cur.moveToFirst() ? cur.getLong(0) : 0;
+        } finally {
+            cur.close();
+        }
+    }
+
+    private static void detach(SQLiteDatabase db) {
+        try {
+            db.execSQL("DETACH DATABASE " + ALIAS);
+        } catch (Exception ex) {
+            Log.e(SQLitePlugin.class.getSimpleName(), "couldn't detach export database, ignored", ex);
+        }
+    }
+
+    private void deleteTempFile() {
+        tempFile.delete();
+        new File(tempFile.getAbsolutePath() + "-journal").delete();
+    }
+
+    static String quote(String name) {
+        return "\"" + name.replace("\"", "\"\"") + "\"";
+    }
+
+    private static String qualify(String sql) {
+        return CREATE_PREFIX.matcher(sql).replaceFirst("$1" + ALIAS + ".");
+    }
+} /* vim: set expandtab : */
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2012-present Christopher J. Brody (aka Chris Brody)
+ * Copyright (c) 2005-2010, Nitobi Software Inc.
+ * Copyright (c) 2010, IBM Corporation
+ */
+
+package io.sqlc;
+
+import org.apache.cordova.CallbackContext;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Query with the rows filtered (and possibly aggregated) by the Java
+ * functions of SQLiteFunctions, executed in one step of the db thread.
+ */
+class SQLiteFilterJob extends SQLiteJob
+{
+    final String sql;
+    final JSONArray params;
+    final SQLiteFunctions.Query query;
+
+    private JSONObject result = null;
+
+    /**
+     * @param sql     SELECT statement
+     * @param params  Query parameters
+     * @param query   Filter options (where, select, aggregate, limit)
+     * @param cbc     Callback context for the result
+     */
+    SQLiteFilterJob(String sql, JSONArray params, SQLiteFunctions.Query query, CallbackContext cbc) {
+        super(cbc);
+        this.sql = sql;
+        this.params = params;
+        this.query = query;
+    }
+
+    @Override
+    boolean step(SQLiteAndroidDatabase mydb) throws Exception {
+        result = mydb.executeFilteredQuery(sql, params, query);
+        return true;
+    }
+
+    @Override
+    JSONObject getResult() throws JSONException {
+        return result;
+    }
+} /* vim: set expandtab : */
@@ -0,0 +1,297 @@
+/*
+ * Copyright (c) 2012-present Christopher J. Brody (aka Chris Brody)
+ * Copyright (c) 2005-2010, Nitobi Software Inc.
+ * Copyright (c) 2010, IBM Corporation
+ */
+
+package io.sqlc;
+
+import android.database.Cursor;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Registry of Java scalar and aggregate functions, evaluated on the db thread
+ * over the column values of a query cursor (see SQLiteAndroidDatabase.executeFilteredQuery),
+ * so that only the matching rows (or the aggregate values) are serialized and
+ * sent to JS.
+ *
+ * NOTE: SQLCipher for Android does not support user-defined SQL functions,
+ * so these functions cannot be called from SQL.
+ *
+ * Built-in functions:
+ * - regexp(pattern, value): 1 if the value matches the (Java) regular expression, 0 if not
+ * - json_value(json, key): value of a key in a JSON object (text)
+ * - json_group_array(value): aggregate of the values as JSON array text
+ *
+ * Other functions can be registered by the app (with a unique name), before the
+ * first query that uses them.
+ */
+public class SQLiteFunctions
+{
+    /**
+     * Scalar function (called for each row).
+     */
+    public interface ScalarFunction {
+        /**
+         * @param args  Argument values (null, Long, Double, or String)
+         * @return the result (null, Number, Boolean, or String)
+         */
+        Object apply(Object[] args) throws Exception;
+    }
+
+    /**
+     * Aggregate function state (created for each query).
+     */
+    public interface Aggregate {
+        void step(Object[] args) throws Exception;
+
+        Object result() throws Exception;
+    }
+
+    /**
+     * Aggregate function (creates the state for each query).
+     */
+    public interface AggregateFunction {
+        Aggregate create();
+    }
+
+    // max number of compiled REGEXP patterns to keep:
+    private static final int PATTERN_CACHE_SIZE = 64;
+
+    private static final Map<String, ScalarFunction> scalarFunctions =
+        new ConcurrentHashMap<String, ScalarFunction>();
+
+    private static final Map<String, AggregateFunction> aggregateFunctions =
+        new ConcurrentHashMap<String, AggregateFunction>();
+
+    // compiled patterns by pattern string (least recently used first):
+    private static final Map<String, Pattern> patternCache =
+        new LinkedHashMap<String, Pattern>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Pattern> eldest) {
+                return size() > PATTERN_CACHE_SIZE;
+            }
+        };
+
+    static {
+        registerScalarFunction("regexp", new ScalarFunction() {
+            public Object apply(Object[] args) {
+                if (args.length != 2) throw new IllegalArgumentException("regexp expects 2 arguments");
+                if (args[0] == null || args[1] == null) return null;
+                return getPattern(args[0].toString()).matcher(args[1].toString()).find() ? 1 : 0;
+            }
+        });
+
+        registerScalarFunction("json_value", new ScalarFunction() {
+            public Object apply(Object[] args) throws JSONException {
+                if (args.length != 2) throw new IllegalArgumentException("json_value expects 2 arguments");
+                if (args[0] == null || args[1] == null) return null;
+                Object v = new JSONObject(args[0].toString()).opt(args[1].toString());
+                return (v == JSONObject.NULL) ? null : v;
+            }
+        });
+
+        registerAggregateFunction("json_group_array", new AggregateFunction() {
+            public Aggregate create() {
+                return new Aggregate() {
+                    final JSONArray values = new JSONArray();
+
+                    public void step(Object[] args) {
+                        values.put((args.length > 0 && args[0] != null) ? args[0] : JSONObject.NULL);
+                    }
+
+                    public Object result() {
+                        return values.toString();
+                    }
+                };
+            }
+        });
+    }
+
+    /**
+     * Register (or replace) a scalar function.
+     */
+    public static void registerScalarFunction(String name, ScalarFunction f) {
+        scalarFunctions.put(name.toLowerCase(Locale.ENGLISH), f);
+    }
+
+    /**
+     * Register (or replace) an aggregate function.
+     */
+    public static void registerAggregateFunction(String name, AggregateFunction f) {
+        aggregateFunctions.put(name.toLowerCase(Locale.ENGLISH), f);
+    }
+
+    /**
+     * Get a compiled pattern (from the cache).
+     */
+    static Pattern getPattern(String regex) {
+        synchronized (patternCache) {
+            Pattern p = patternCache.get(regex);
+            if (p == null) {
+                p = Pattern.compile(regex);
+                patternCache.put(regex, p);
+            }
+            return p;
+        }
+    }
+
+    /**
+     * Function call in a filtered query: { fn, args } where each argument
+     * is a column reference { column } or a literal value.
+     */
+    static final class Call
+    {
+        final String name;
+        final ScalarFunction scalar;
+        final AggregateFunction aggregate;
+
+        // column name or null (literal value) for each argument:
+        final String[] columns;
+        final Object[] literals;
+
+        // column index in the query cursor for each column argument:
+        private final int[] columnIndexes;
+
+        private final Object[] args;
+
+        Call(JSONObject spec, boolean isAggregate) throws JSONException {
+            name = spec.getString("fn").toLowerCase(Locale.ENGLISH);
+
+            if (isAggregate) {
+                scalar = null;
+                aggregate = aggregateFunctions.get(name);
+                if (aggregate == null) throw new IllegalArgumentException("no such aggregate function: " + name);
+            } else {
+                aggregate = null;
+                scalar = scalarFunctions.get(name);
+                if (scalar == null) throw new IllegalArgumentException("no such function: " + name);
+            }
+
+            JSONArray a = spec.optJSONArray("args");
+            int len = (a != null) ? a.length() : 0;
+            columns = new String[len];
+            literals = new Object[len];
+            columnIndexes = new int[len];
+            args = new Object[len];
+
+            for (int i = 0; i < len; ++i) {
+                JSONObject ref = a.optJSONObject(i);
+                if (ref != null && ref.has("column")) {
+                    columns[i] = ref.getString("column");
+                } else {
+                    Object v = a.get(i);
+                    literals[i] = (v == JSONObject.NULL) ? null : v;
+                }
+            }
+        }
+
+        /**
+         * Look up the columns of the arguments in the query cursor
+         * (once for each query, before the rows are read).
+         */
+        void bindColumns(Cursor cur) {
+            for (int i = 0; i < args.length; ++i) {
+                if (columns[i] == null) continue;
+
+                columnIndexes[i] = cur.getColumnIndex(columns[i]);
+                if (columnIndexes[i] < 0) throw new IllegalArgumentException("no such column: " + columns[i]);
+            }
+        }
+
+        /**
+         * Get the argument values for the current row of the cursor.
+         *
+         * NOTE: the returned array is reused for each row (not thread-safe).
+         */
+        Object[] argsFor(Cursor cur) {
+            for (int i = 0; i < args.length; ++i) {
+                args[i] = (columns[i] == null) ? literals[i] : columnValue(cur, columnIndexes[i]);
+            }
+            return args;
+        }
+
+        Object apply(Cursor cur) throws Exception {
+            return scalar.apply(argsFor(cur));
+        }
+    }
+
+    /**
+     * Filtered query options: where, select, aggregate, limit.
+     */
+    static final class Query
+    {
+        final Call where;
+        final Map<String, Call> select = new LinkedHashMap<String, Call>();
+        final Map<String, Call> aggregate = new LinkedHashMap<String, Call>();
+        final int limit;
+
+        Query(JSONObject options) throws JSONException {
+            JSONObject w = options.optJSONObject("where");
+            where = (w != null) ? new Call(w, false) : null;
+
+            addCalls(options.optJSONObject("select"), select, false);
+            addCalls(options.optJSONObject("aggregate"), aggregate, true);
+
+            limit = options.optInt("limit", 0);
+        }
+
+        /**
+         * Look up the column arguments of all calls in the query cursor.
+         */
+        void bindColumns(Cursor cur) {
+            if (where != null) where.bindColumns(cur);
+            for (Call c: select.values()) c.bindColumns(cur);
+            for (Call c: aggregate.values()) c.bindColumns(cur);
+        }
+
+        private static void addCalls(JSONObject specs, Map<String, Call> calls, boolean isAggregate)
+                throws JSONException {
+            if (specs == null) return;
+
+            Iterator<String> it = specs.keys();
+            while (it.hasNext()) {
+                String name = it.next();
+                calls.put(name, new Call(specs.getJSONObject(name), isAggregate));
+            }
+        }
+    }
+
+    /**
+     * Get a column value of the current row of the cursor, with the same
+     * types as the JSON rows (null, Long, Double, or String).
+     */
+    static Object columnValue(Cursor cur, int i) {
+        switch (cur.getType(i)) {
+            case Cursor.FIELD_TYPE_NULL:
+                return null;
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cur.getLong(i);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cur.getDouble(i);
+            case Cursor.FIELD_TYPE_STRING:
+            default: /* (BLOB) */
+                return cur.getString(i);
+        }
+    }
+
+    /**
+     * @return true unless the value is null, false, zero, or an empty string
+     */
+    static boolean isTrue(Object v) {
+        if (v == null) return false;
+        if (v instanceof Boolean) return (Boolean)v;
+        if (v instanceof Number) return ((Number)v).doubleValue() != 0;
+        return v.toString().length() > 0;
+    }
+} /* vim: set expandtab : */
@@ -0,0 +1,408 @@
+/*
+ * Copyright (c) 2012-present Christopher J. Brody (aka Chris Brody)
+ * Copyright (c) 2005-2010, Nitobi Software Inc.
+ * Copyright (c) 2010, IBM Corporation
+ */
+
+package io.sqlc;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+import java.nio.channels.FileChannel;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.cordova.CallbackContext;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Import of a local CSV or NDJSON (newline-delimited JSON) file into a table,
+ * streamed with a fixed size buffer and inserted by a statement compiled for
+ * each chunk of rows, with one transaction per chunk so that other batches
+ * can run in between the steps.
+ *
+ * NOTE: the chunks inserted before a failure remain committed.
+ */
+class SQLiteImportJob extends SQLiteJob
+{
+    static final String FORMAT_CSV = "csv";
+    static final String FORMAT_NDJSON = "ndjson";
+
+    private static final int READ_BUFFER_SIZE = 64*1024;
+
+    final File file;
+    final String format;
+    final String table;
+    final String conflict;
+    final int chunkRows;
+    final boolean skipErrors;
+
+    // CSV options:
+    final boolean header;
+    final char delimiter;
+
+    // column names (from the options, the CSV header, or the first NDJSON object):
+    private List<String> columns;
+
+    private FileInputStream in = null;
+    private RowReader reader = null;
+    private String query = null;
+
+    private long rowsImported = 0;
+    private long rowsIgnored = 0;
+    private long rowsFailed = 0;
+    private long totalBytes = 0;
+    private final JSONArray errors = new JSONArray();
+
+    /**
+     * @param file       The file to import
+     * @param format     FORMAT_CSV or FORMAT_NDJSON
+     * @param table      Target table (must exist)
+     * @param columns    Column names (null for the CSV header or the keys of the first NDJSON object)
+     * @param conflict   Conflict clause (such as "IGNORE" or "REPLACE"), null for none
+     * @param header     true if the CSV file starts with a header line
+     * @param delimiter  CSV field delimiter
+     * @param chunkRows  Number of rows to insert in each step (transaction)
+     * @param skipErrors true to skip (and count) the rows that fail
+     * @param cbc        Callback context for progress and the final result
+     */
+    SQLiteImportJob(File file, String format, String table, List<String> columns, String conflict,
+            boolean header, char delimiter, int chunkRows, boolean skipErrors, CallbackContext cbc) {
+        super(cbc);
+        this.file = file;
+        this.format = format;
+        this.table = table;
+        this.columns = columns;
+        this.conflict = conflict;
+        this.header = header;
+        this.delimiter = delimiter;
+        this.chunkRows = chunkRows;
+        this.skipErrors = skipErrors;
+    }
+
+    @Override
+    boolean step(SQLiteAndroidDatabase mydb) throws Exception {
+        if (reader == null) setup();
+
+        if (query != null) {
+            try {
+                JSONObject chunk = mydb.executeImportChunk(query, reader, chunkRows, skipErrors, errors);
+                rowsImported += chunk.getLong("inserted");
+                rowsIgnored += chunk.getLong("ignored");
+                rowsFailed += chunk.getLong("failed");
+            } catch (RuntimeException ex) {
+                throw new RuntimeException(ex.getMessage() + " (rows imported before: " + rowsImported + ")");
+            }
+        }
+
+        if (reader.done) {
+            cleanup(mydb);
+            return true;
+        }
+
+        JSONObject progress = new JSONObject();
+        progress.put("progress", true);
+        progress.put("rowsRead", reader.rowsRead);
+        progress.put("rowsImported", rowsImported);
+        progress.put("rowsIgnored", rowsIgnored);
+        progress.put("bytesRead", bytesRead());
+        progress.put("totalBytes", totalBytes);
+        sendProgress(progress);
+
+        return false;
+    }
+
+    @Override
+    JSONObject getResult() throws JSONException {
+        JSONObject result = new JSONObject();
+        result.put("table", table);
+        result.put("rowsRead", (reader != null) ? reader.rowsRead : 0);
+        result.put("rowsImported", rowsImported);
+        result.put("rowsIgnored", rowsIgnored);
+        result.put("failed", rowsFailed);
+        result.put("errors", errors);
+        return result;
+    }
+
+    @Override
+    void cleanup(SQLiteAndroidDatabase mydb) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException ex) {
+                // ignored
+            }
+            in = null;
+        }
+    }
+
+    private void setup() throws Exception {
+        in = new FileInputStream(file);
+        totalBytes = file.length();
+
+        Reader r = new InputStreamReader(in, "UTF-8");
+
+        if (format.equals(FORMAT_NDJSON)) {
+            NdjsonReader ndjson = new NdjsonReader(r);
+            reader = ndjson;
+            reader.skipByteOrderMark();
+            if (columns == null) columns = ndjson.firstObjectKeys();
+        } else {
+            if (!header && columns == null) {
+                throw new IllegalArgumentException("columns required for a CSV file with no header");
+            }
+
+            CsvReader csv = new CsvReader(r, delimiter);
+            reader = csv;
+            reader.skipByteOrderMark();
+            if (header) {
+                List<String> names = csv.readHeader();
+                if (columns == null) columns = names;
+            }
+        }
+
+        if (columns == null || columns.isEmpty()) {
+            // (empty file)
+            reader.done = true;
+            return;
+        }
+
+        if (reader instanceof NdjsonReader) ((NdjsonReader)reader).columns = columns;
+
+        StringBuilder sb = new StringBuilder("INSERT ");
+        if (conflict != null) sb.append("OR ").append(conflict).append(' ');
+        sb.append("INTO ").append(SQLiteExportJob.quote(table)).append(" (");
+        for (int i = 0; i < columns.size(); ++i) {
+            if (i > 0) sb.append(',');
+            sb.append(SQLiteExportJob.quote(columns.get(i)));
+        }
+        sb.append(") VALUES (");
+        for (int i = 0; i < columns.size(); ++i) {
+            sb.append((i > 0) ? ",?" : "?");
+        }
+        sb.append(')');
+
+        query = sb.toString();
+
+        if (reader instanceof CsvReader) ((CsvReader)reader).columnCount = columns.size();
+    }
+
+    private long bytesRead() {
+        try {
+            FileChannel channel = in.getChannel();
+            return channel.position();
+        } catch (Exception ex) {
+            return 0;
+        }
+    }
+
+    /**
+     * Reads the rows of an import file, with its own fixed size buffer.
+     */
+    static abstract class RowReader
+    {
+        private final Reader r;
+        private final char[] buf = new char[READ_BUFFER_SIZE];
+        private int pos = 0;
+        private int len = 0;
+
+        long rowsRead = 0;
+        boolean done = false;
+
+        RowReader(Reader r) {
+            this.r = r;
+        }
+
+        /**
+         * Read the values of the next row.
+         *
+         * @return column values or null at the end of the file
+         */
+        abstract Object[] readRow() throws IOException, JSONException;
+
+        // next char, or -1 at the end of the file:
+        int read() throws IOException {
+            if (pos == len) {
+                len = r.read(buf, 0, buf.length);
+                pos = 0;
+                if (len <= 0) {
+                    len = 0;
+                    return -1;
+                }
+            }
+            return buf[pos++];
+        }
+
+        // skip the UTF-8 byte order mark (if present) at the start of the file:
+        void skipByteOrderMark() throws IOException {
+            if (read() != '\uFEFF' && len > 0) --pos;
+        }
+
+        // next line (without line terminator), or null at the end of the file:
+        String readLine() throws IOException {
+            StringBuilder sb = new StringBuilder();
+            int c = read();
+            if (c == -1) return null;
+            while (c != -1 && c != '\n') {
+                sb.append((char)c);
+                c = read();
+            }
+            int end = sb.length();
+            if (end > 0 && sb.charAt(end - 1) == '\r') sb.setLength(end - 1);
+            return sb.toString();
+        }
+    }
+
+    /**
+     * RFC 4180 CSV: quoted fields may contain delimiters, quotes (doubled), and line breaks.
+     * An empty unquoted field is NULL, an empty quoted field is an empty string.
+     */
+    static final class CsvReader extends RowReader
+    {
+        final char delimiter;
+
+        int columnCount = 0;
+
+        CsvReader(Reader r, char delimiter) {
+            super(r);
+            this.delimiter = delimiter;
+        }
+
+        List<String> readHeader() throws IOException {
+            List<String> fields = readFields();
+            if (fields == null) return null;
+
+            List<String> names = new ArrayList<String>();
+            for (String f: fields) names.add((f != null) ? f.trim() : "");
+            return names;
+        }
+
+        @Override
+        Object[] readRow() throws IOException {
+            List<String> fields;
+            do {
+                fields = readFields();
+                if (fields == null) {
+                    done = true;
+                    return null;
+                }
+                // (skip empty lines)
+            } while (fields.size() == 1 && fields.get(0) == null);
+
+            ++rowsRead;
+
+            Object[] values = new Object[columnCount];
+            for (int i = 0; i < columnCount && i < fields.size(); ++i) {
+                values[i] = fields.get(i);
+            }
+            return values;
+        }
+
+        private List<String> readFields() throws IOException {
+            int c = read();
+            if (c == -1) return null;
+
+            List<String> fields = new ArrayList<String>();
+            StringBuilder sb = new StringBuilder();
+            boolean quoted = false;
+            boolean inQuotes = false;
+
+            while (true) {
+                if (inQuotes) {
+                    if (c == -1) throw new IOException("unterminated quoted field in row " + (rowsRead + 1));
+                    if (c == '"') {
+                        c = read();
+                        if (c == '"') {
+                            sb.append('"');
+                        } else {
+                            inQuotes = false;
+                            continue;
+                        }
+                    } else {
+                        sb.append((char)c);
+                    }
+                } else if (c == delimiter || c == '\n' || c == -1) {
+                    int end = sb.length();
+                    if (c != delimiter && !quoted && end > 0 && sb.charAt(end - 1) == '\r') sb.setLength(end - 1);
+                    fields.add((quoted || sb.length() > 0) ? sb.toString() : null);
+                    if (c != delimiter) return fields;
+                    sb.setLength(0);
+                    quoted = false;
+                } else if (c == '"' && sb.length() == 0 && !quoted) {
+                    quoted = true;
+                    inQuotes = true;
+                } else if (c != '\r' || !quoted) {
+                    sb.append((char)c);
+                }
+                c = read();
+            }
+        }
+    }
+
+    /**
+     * NDJSON: one JSON object per line, mapped to the columns by key
+     * (missing keys are NULL, nested objects and arrays are stored as JSON text).
+     */
+    static final class NdjsonReader extends RowReader
+    {
+        List<String> columns;
+
+        private JSONObject first = null;
+
+        NdjsonReader(Reader r) {
+            super(r);
+        }
+
+        List<String> firstObjectKeys() throws IOException, JSONException {
+            first = nextObject();
+            if (first == null) return null;
+
+            List<String> keys = new ArrayList<String>();
+            Iterator<String> it = first.keys();
+            while (it.hasNext()) keys.add(it.next());
+            return keys;
+        }
+
+        @Override
+        Object[] readRow() throws IOException, JSONException {
+            JSONObject o = first;
+            first = null;
+            if (o == null) o = nextObject();
+            if (o == null) {
+                done = true;
+                return null;
+            }
+
+            ++rowsRead;
+
+            Object[] values = new Object[columns.size()];
+            for (int i = 0; i < values.length; ++i) {
+                values[i] = o.opt(columns.get(i));
+            }
+            return values;
+        }
+
+        private JSONObject nextObject() throws IOException, JSONException {
+            String line;
+            do {
+                line = readLine();
+                if (line == null) return null;
+            } while (line.trim().length() == 0);
+
+            try {
+                return new JSONObject(line);
+            } catch (JSONException ex) {
+                throw new JSONException("invalid JSON in row " + (rowsRead + 1));
+            }
+        }
+    }
+} /* vim: set expandtab : */
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2012-present Christopher J. Brody (aka Chris Brody)
+ * Copyright (c) 2005-2010, Nitobi Software Inc.
+ * Copyright (c) 2010, IBM Corporation
+ */
+
+package io.sqlc;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Long-running database operation, executed in steps by the db thread
+ * in between the batches in the queue.
+ *
+ * NOTE: the db thread does not run any job step while a transaction is active.
+ */
+abstract class SQLiteJob
+{
+    final CallbackContext cbc;
+
+    SQLiteJob(CallbackContext cbc) {
+        this.cbc = cbc;
+    }
+
+    /**
+     * Execute the next step of the job (in the db thread).
+     *
+     * @param mydb   The open database
+     * @return true if the job is finished
+     */
+    abstract boolean step(SQLiteAndroidDatabase mydb) throws Exception;
+
+    /**
+     * Get the final result (upon completion).
+     */
+    abstract JSONObject getResult() throws JSONException;
+
+    /**
+     * Clean up after a failure or in case the database is closed
+     * before the job is finished (in the db thread).
+     *
+     * @param mydb   The database, possibly closed
+     */
+    void cleanup(SQLiteAndroidDatabase mydb) { }
+
+    /**
+     * An exclusive job does not start while any other job is in progress,
+     * and no other job is started until the exclusive job is finished.
+     */
+    boolean isExclusive() {
+        return false;
+    }
+
+    /**
+     * Report progress to JS (keeping the callback for the final result).
+     */
+    void sendProgress(JSONObject progress) {
+        PluginResult r = new PluginResult(PluginResult.Status.OK, progress);
+        r.setKeepCallback(true);
+        cbc.sendPluginResult(r);
+    }
+} /* vim: set expandtab : */
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2012-present Christopher J. Brody (aka Chris Brody)
+ * Copyright (c) 2005-2010, Nitobi Software Inc.
+ * Copyright (c) 2010, IBM Corporation
+ */
+
+package io.sqlc;
+
+import android.util.Log;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Batches for several databases from a single bridge call, executed in
+ * parallel by their db threads. The batch results are combined into a
+ * single result (in the order of the batches), or streamed to JS through
+ * keep-callback results in the order of completion.
+ *
+ * NOTE: the batch callbacks are called from the db threads (and the
+ * Cordova bridge thread in case of an early error), so the results are
+ * collected (and streamed) under a lock.
+ */
+class SQLiteMultiBatch
+{
+    final CallbackContext cbc;
+    final boolean stream;
+
+    private final JSONObject[] results;
+    private int remaining;
+
+    /**
+     * @param count   Number of batches
+     * @param stream  true to report each batch result upon completion
+     * @param cbc     Callback context for the (combined) results
+     */
+    SQLiteMultiBatch(int count, boolean stream, CallbackContext cbc) {
+        this.cbc = cbc;
+        this.stream = stream;
+        this.results = new JSONObject[count];
+        this.remaining = count;
+    }
+
+    /**
+     * Get the callback context for one of the batches.
+     *
+     * @param index   Index of the batch
+     * @param dbname  Database name of the batch (reported with the result)
+     */
+    CallbackContext callbackFor(int index, String dbname) {
+        return new BatchCallback(index, dbname);
+    }
+
+    private void complete(int index, JSONObject result) {
+        JSONArray combined = null;
+
+        synchronized (this) {
+            if (results[index] != null) return; // (NOT expected)
+
+            results[index] = result;
+            boolean done = (--remaining == 0);
+
+            if (stream) {
+                // NOTE: sent while holding the lock, so that no batch result
+                // can be sent after the final result of another db thread:
+                PluginResult r = new PluginResult(PluginResult.Status.OK, result);
+                r.setKeepCallback(true);
+                cbc.sendPluginResult(r);
+
+                if (done) cbc.success(newEndResult());
+                return;
+            }
+
+            if (!done) return;
+
+            combined = new JSONArray();
+            for (JSONObject r: results) combined.put(r);
+        }
+
+        cbc.success(combined);
+    }
+
+    private static JSONObject newEndResult() {
+        JSONObject end = new JSONObject();
+        try {
+            end.put("done", true);
+        } catch (JSONException ex) {
+            // NOT expected
+        }
+        return end;
+    }
+
+    private final class BatchCallback extends CallbackContext {
+        final int index;
+        final String dbname;
+
+        BatchCallback(int index, String dbname) {
+            super(cbc.getCallbackId(), null);
+            this.index = index;
+            this.dbname = dbname;
+        }
+
+        @Override
+        public void success(JSONArray batchResults) {
+            complete(index, newResult("success", "result", batchResults));
+        }
+
+        @Override
+        public void error(String message) {
+            complete(index, newResult("error", "message", message));
+        }
+
+        /**
+         * Any other result (NOT expected from a batch).
+         */
+        @Override
+        public void sendPluginResult(PluginResult pluginResult) {
+            error("unexpected batch result");
+        }
+
+        private JSONObject newResult(String type, String name, Object value) {
+            JSONObject r = new JSONObject();
+            try {
+                r.put("index", index);
+                r.put("dbname", dbname);
+                r.put("type", type);
+                r.put(name, value);
+            } catch (JSONException ex) {
+                Log.e(SQLitePlugin.class.getSimpleName(), "unexpected JSON error in multi batch result", ex);
+            }
+            return r;
+        }
+    }
+} /* vim: set expandtab : */
@@ -11,14 +11,30 @@ import android.annotation.SuppressLint;
 import android.util.Log;
 
 import java.io.File;
+import java.io.FileOutputStream;
 
 import java.lang.IllegalArgumentException;
 import java.lang.Number;
 
+import java.net.URI;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+import java.security.MessageDigest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
 
 // NOTE: more than CordovaPlugin & CallbackContext needed to support
@@ -38,15 +54,27 @@ public class SQLitePlugin extends CordovaPlugin {
      * expected to work properly with db threading.
      *
      * FUTURE TBD put DBRunner into a public class that can provide external accessor.
-     *
-     * ADDITIONAL NOTE: Storing as Map<String, DBRunner> to avoid portabiity issue
-     * between Java 6/7/8 as discussed in:
-     * https://gist.github.com/AlainODea/1375759b8720a3f9f094
-     *
-     * THANKS to @NeoLSN (Jason Yang/楊朝傑) for giving the pointer in:
-     * https://github.com/litehelpers/Cordova-sqlite-storage/issues/727
      */
-    static Map<String, DBRunner> dbrmap = new ConcurrentHashMap<String, DBRunner>();
+    static final SQLiteRunnerRegistry<DBRunner> dbrmap = new SQLiteRunnerRegistry<DBRunner>();
+
+    // directory for temporary databases (in the cache directory):
+    private static final String TEMP_DATABASE_DIR = "sqlc-temp";
+
+    // buffer size to copy a pre-populated database from the assets:
+    private static final int ASSET_COPY_BUFFER_SIZE = 256 * 1024;
+
+    // default time to close an idle query cursor:
+    private static final int DEFAULT_CURSOR_IDLE_TIMEOUT_SECONDS = 60;
+
+    // default workload trace file (in the files directory):
+    private static final String WORKLOAD_TRACE_NAME = "sqlc-workload.ndjson";
+
+    // workload recorder (null unless recording):
+    private volatile SQLiteWorkloadRecorder recorder = null;
+
+    // actions that are never recorded:
+    private static final EnumSet<Action> RECORDER_ACTIONS =
+        EnumSet.of(Action.startRecording, Action.stopRecording, Action.replayWorkload);
 
     /**
      * NOTE: Using default constructor, no explicit constructor.
@@ -58,6 +86,7 @@ public class SQLitePlugin extends CordovaPlugin {
      * needs the app's activity, which seems to be available only from the cordova member
      * (of the superclass). Also, newer versions of Cordova provide pluginInitialize()
      * which can be overridden more easily.
+     * NOTE: the native lib(s) are loaded in the background, the first open waits for the load.
      */
     @Override
     public void initialize(CordovaInterface cordova, CordovaWebView webView) {
@@ -86,6 +115,12 @@ public class SQLitePlugin extends CordovaPlugin {
             return false;
         }
 
+        // record the action (if enabled), except for the recorder actions:
+        SQLiteWorkloadRecorder rec = recorder;
+        if (rec != null && !RECORDER_ACTIONS.contains(action)) {
+            cbc = rec.wrap(actionAsString, args, cbc);
+        }
+
         try {
             return executeAndPossiblyThrow(action, args, cbc);
         } catch (JSONException e) {
@@ -110,6 +145,20 @@ public class SQLitePlugin extends CordovaPlugin {
                 cbc.success(echo_value);
                 break;
 
+            case getStats:
+                o = args.optJSONObject(0);
+                if (o == null) o = new JSONObject();
+
+                if (o.has("errorLogSampleRate")) {
+                    SQLiteErrorReporter.setLogSampleRate(o.getInt("errorLogSampleRate"));
+                }
+
+                JSONObject stats = new JSONObject();
+                stats.put("errors", SQLiteErrorReporter.getStats(o.optBoolean("reset", false)));
+                stats.put("libs", SQLiteAndroidDatabase.getLibsStats());
+                cbc.success(stats);
+                break;
+
             case open:
                 o = args.getJSONObject(0);
                 dbname = o.getString("name");
@@ -134,39 +183,208 @@ public class SQLitePlugin extends CordovaPlugin {
 
             case executeSqlBatch:
             case backgroundExecuteSqlBatch:
-                JSONObject allargs = args.getJSONObject(0);
-                JSONObject dbargs = allargs.getJSONObject("dbargs");
-                dbname = dbargs.getString("dbname");
-                JSONArray txargs = allargs.getJSONArray("executes");
+                this.queueBatch(args.getJSONObject(0), cbc);
+                break;
 
-                if (txargs.isNull(0)) {
-                    cbc.error("missing executes list");
-                } else {
-                    int len = txargs.length();
-                    String[] queries = new String[len];
-                    JSONArray[] jsonparams = new JSONArray[len];
-
-                    for (int i = 0; i < len; i++) {
-                        JSONObject a = txargs.getJSONObject(i);
-                        queries[i] = a.getString("sql");
-                        jsonparams[i] = a.getJSONArray("params");
-                    }
+            case executeMultiBatch:
+                o = args.getJSONObject(0);
+                this.queueMultiBatch(o.getJSONArray("batches"), o.optBoolean("stream", false), cbc);
+                break;
+
+            case executeTransaction:
+                o = args.getJSONObject(0);
 
-                    // put db query in the queue to be executed in the db thread:
-                    DBQuery q = new DBQuery(queries, jsonparams, cbc);
-                    DBRunner r = dbrmap.get(dbname);
-                    if (r != null) {
-                        try {
-                            r.q.put(q);
-                        } catch(Exception e) {
-                            Log.e(SQLitePlugin.class.getSimpleName(), "couldn't add to queue", e);
-                            cbc.error("couldn't add to queue");
-                        }
-                    } else {
-                        cbc.error("database not open");
+                DBRunner tr = getRunner(o.getJSONObject("dbargs"), cbc);
+                if (tr != null) {
+                    boolean continueOnError = o.optString("onError", "abort").equals("continue");
+                    tr.queueJob(new SQLiteTransactionJob(o.getJSONArray("executes"), continueOnError, cbc));
+                }
+                break;
+
+            case prepare:
+                o = args.getJSONObject(0);
+
+                DBRunner pr = getRunner(o.getJSONObject("dbargs"), cbc);
+                if (pr != null) {
+                    pr.queueJob(SQLitePreparedJob.prepare(o.getString("sql"), cbc));
+                }
+                break;
+
+            case executePrepared:
+                o = args.getJSONObject(0);
+
+                DBRunner er = getRunner(o.getJSONObject("dbargs"), cbc);
+                if (er != null) {
+                    er.queueJob(SQLitePreparedJob.execute(o.getJSONArray("executes"), cbc));
+                }
+                break;
+
+            case finalize:
+                o = args.getJSONObject(0);
+
+                DBRunner fr = getRunner(o.getJSONObject("dbargs"), cbc);
+                if (fr != null) {
+                    fr.queueJob(SQLitePreparedJob.finalize(o.getInt("handle"), cbc));
+                }
+                break;
+
+            case executeFiltered:
+                o = args.getJSONObject(0);
+
+                DBRunner qr = getRunner(o.getJSONObject("dbargs"), cbc);
+                if (qr != null) {
+                    SQLiteFunctions.Query fq;
+                    try {
+                        fq = new SQLiteFunctions.Query(o);
+                    } catch (IllegalArgumentException e) {
+                        cbc.error(e.getMessage());
+                        break;
                     }
+
+                    JSONArray fparams = o.optJSONArray("params");
+                    qr.queueJob(new SQLiteFilterJob(o.getString("sql"),
+                        (fparams != null) ? fparams : new JSONArray(), fq, cbc));
+                }
+                break;
+
+            case openCursor:
+                o = args.getJSONObject(0);
+
+                DBRunner ocr = getRunner(o.getJSONObject("dbargs"), cbc);
+                if (ocr != null) {
+                    JSONArray cparams = o.optJSONArray("params");
+                    long idleTimeoutMs = o.optLong("idleTimeout", DEFAULT_CURSOR_IDLE_TIMEOUT_SECONDS) * 1000;
+                    String keyColumn = o.has("keyColumn") ? o.getString("keyColumn") : null;
+                    ocr.queueJob(SQLiteCursorJob.open(o.getString("sql"),
+                        (cparams != null) ? cparams : new JSONArray(), keyColumn, idleTimeoutMs, cbc));
+                }
+                break;
+
+            case fetchCursor:
+                o = args.getJSONObject(0);
+
+                DBRunner fcr = getRunner(o.getJSONObject("dbargs"), cbc);
+                if (fcr != null) {
+                    fcr.queueJob(SQLiteCursorJob.fetch(o.getInt("handle"), o.optInt("count", 100), cbc));
+                }
+                break;
+
+            case closeCursor:
+                o = args.getJSONObject(0);
+
+                DBRunner ccr = getRunner(o.getJSONObject("dbargs"), cbc);
+                if (ccr != null) {
+                    ccr.queueJob(SQLiteCursorJob.close(o.getInt("handle"), cbc));
+                }
+                break;
+
+            case executeUpsertBatch:
+                o = args.getJSONObject(0);
+
+                DBRunner ur = getRunner(o.getJSONObject("dbargs"), cbc);
+                if (ur != null) {
+                    boolean abortOnError = o.optString("onError", "continue").equals("abort");
+                    ur.queueJob(new SQLiteUpsertJob(o.getString("sql"), o.getJSONArray("rows"), abortOnError, cbc));
+                }
+                break;
+
+            case attachDatabase:
+                o = args.getJSONObject(0);
+
+                DBRunner ar = getRunner(o.getJSONObject("dbargs"), cbc);
+                if (ar != null) {
+                    this.attachDatabase(ar, o, cbc);
+                }
+                break;
+
+            case detachDatabase:
+                o = args.getJSONObject(0);
+
+                DBRunner dr = getRunner(o.getJSONObject("dbargs"), cbc);
+                if (dr != null) {
+                    dr.queueJob(new SQLiteAttachJob(o.getString("alias"), dr.attachedAliases, cbc));
+                }
+                break;
+
+            case addChangeListener:
+                o = args.getJSONObject(0);
+
+                DBRunner cr = getRunner(o.getJSONObject("dbargs"), cbc);
+                if (cr != null) {
+                    // NOTE: keeps the callback for the change notifications:
+                    cr.changeNotifier.addListener(cbc);
+                }
+                break;
+
+            case removeChangeListeners:
+                o = args.getJSONObject(0);
+
+                DBRunner rr = getRunner(o.getJSONObject("dbargs"), cbc);
+                if (rr != null) {
+                    rr.changeNotifier.removeListeners();
+                    cbc.success();
+                }
+                break;
+
+            case importData:
+                o = args.getJSONObject(0);
+
+                DBRunner ir = getRunner(o.getJSONObject("dbargs"), cbc);
+                if (ir != null) {
+                    importData(ir, o, cbc);
+                }
+                break;
+
+            case exportQuery:
+                o = args.getJSONObject(0);
+
+                DBRunner xr = getRunner(o.getJSONObject("dbargs"), cbc);
+                if (xr != null) {
+                    exportQuery(xr, o, cbc);
+                }
+                break;
+
+            case exportDatabase:
+                o = args.getJSONObject(0);
+
+                DBRunner br = getRunner(o.getJSONObject("dbargs"), cbc);
+                if (br != null) {
+                    exportDatabase(br, o, cbc);
                 }
                 break;
+
+            case rekeyDatabase:
+                o = args.getJSONObject(0);
+
+                DBRunner kr = getRunner(o.getJSONObject("dbargs"), cbc);
+                if (kr != null) {
+                    rekeyDatabase(kr, o, cbc);
+                }
+                break;
+
+            case startRecording:
+                o = args.optJSONObject(0);
+                if (o == null) o = new JSONObject();
+
+                startRecording(o, cbc);
+                break;
+
+            case stopRecording:
+                SQLiteWorkloadRecorder sr = recorder;
+                recorder = null;
+                if (sr != null) {
+                    cbc.success(sr.stop());
+                } else {
+                    cbc.error("not recording");
+                }
+                break;
+
+            case replayWorkload:
+                o = args.optJSONObject(0);
+                if (o == null) o = new JSONObject();
+
+                replayWorkload(o, cbc);
+                break;
         }
 
         return status;
@@ -206,45 +424,165 @@ public class SQLitePlugin extends CordovaPlugin {
     // LOCAL METHODS
     // --------------------------------------------------------------------------
 
+    /**
+     * Put a batch in the queue of its database (or answer it from the query cache).
+     *
+     * @param allargs  Batch arguments: dbargs, executes, readOnly (optional)
+     * @param cbc      Callback context for the batch results
+     */
+    private void queueBatch(JSONObject allargs, CallbackContext cbc) throws JSONException {
+        JSONObject dbargs = allargs.getJSONObject("dbargs");
+        JSONArray txargs = allargs.getJSONArray("executes");
+
+        if (txargs.isNull(0)) {
+            cbc.error("missing executes list");
+        } else {
+            int len = txargs.length();
+            String[] queries = new String[len];
+            JSONArray[] jsonparams = new JSONArray[len];
+
+            for (int i = 0; i < len; i++) {
+                JSONObject a = txargs.getJSONObject(i);
+                queries[i] = a.getString("sql");
+                jsonparams[i] = a.getJSONArray("params");
+            }
+
+            // read-only batch (from readTransaction):
+            boolean readOnly = allargs.optBoolean("readOnly", false);
+
+            // put db query in the queue to be executed in the db thread:
+            SQLiteDBRunner.DBQuery q = new SQLiteDBRunner.DBQuery(queries, jsonparams, readOnly, cbc);
+            DBRunner r = getRunner(dbargs, cbc);
+            if (r != null) {
+                // answer from the query cache (if enabled) in case there are no
+                // batches or jobs waiting in (or running from) the queue, since
+                // a job such as an upsert batch may change the cached results:
+                if (r.queryCache != null && r.pendingBatches.get() == 0 && r.pendingJobs.get() == 0) {
+                    JSONArray cachedResults = r.queryCache.getBatchResults(queries, jsonparams);
+                    if (cachedResults != null) {
+                        cbc.success(cachedResults);
+                        return;
+                    }
+                }
+
+                // read-only batch on the separate read connection (if enabled),
+                // NOTE: attached databases are only available on the main connection:
+                ReadRunner reader = r.reader;
+                if (readOnly && reader != null && r.attachedAliases.isEmpty()) {
+                    try {
+                        reader.q.put(q);
+                        return;
+                    } catch(Exception e) {
+                        Log.e(SQLitePlugin.class.getSimpleName(), "couldn't add to read queue, using main queue", e);
+                    }
+                }
+
+                r.queueBatch(q);
+            }
+        }
+    }
+
+    /**
+     * Put the batches for several databases in their queues at once,
+     * to be executed in parallel by the db threads.
+     *
+     * @param batches  Batch arguments, in the same form as for executeSqlBatch
+     * @param stream   true to report each batch result upon completion
+     * @param cbc      Callback context for the (combined) results
+     */
+    private void queueMultiBatch(JSONArray batches, boolean stream, CallbackContext cbc) throws JSONException {
+        if (batches.length() == 0) {
+            cbc.success(new JSONArray());
+            return;
+        }
+
+        SQLiteMultiBatch multi = new SQLiteMultiBatch(batches.length(), stream, cbc);
+
+        for (int i = 0; i < batches.length(); ++i) {
+            JSONObject allargs = batches.getJSONObject(i);
+            JSONObject dbargs = allargs.optJSONObject("dbargs");
+            CallbackContext batchCbc = multi.callbackFor(i, (dbargs != null) ? dbargs.optString("dbname") : null);
+            try {
+                queueBatch(allargs, batchCbc);
+            } catch (JSONException e) {
+                batchCbc.error("invalid batch arguments: " + e.getMessage());
+            }
+        }
+    }
+
     private void stopDbThread(String dbname){
         this.closeDatabaseNow(dbname);
 
-        DBRunner r = dbrmap.get(dbname);
-        try {
-            // stop the db runner thread:
-            r.q.put(new DBQuery());
-        } catch(Exception e) {
-            Log.e(SQLitePlugin.class.getSimpleName(), "couldn't stop db thread", e);
-        }
-        dbrmap.remove(dbname);
+        dbrmap.stop(dbname);
     }
 
+    /**
+     * Start a db runner (thread) for a database. In case the database is still
+     * being closed, the new runner replaces the closing runner in the map
+     * and opens the database once the closing runner is finished.
+     */
     private void startDatabase(String dbname, JSONObject options, CallbackContext cbc) {
-        DBRunner r = dbrmap.get(dbname);
-
-        if (r != null) {
-            // NO LONGER EXPECTED due to BUG 666 workaround solution:
-            cbc.error("INTERNAL ERROR: database already open for db name: " + dbname);
-        } else {
-            r = new DBRunner(dbname, options, cbc);
-            dbrmap.put(dbname, r);
-            this.cordova.getThreadPool().execute(r);
+        DatabaseMode mode;
+        try {
+            mode = DatabaseMode.valueOf(options.optString("androidDatabaseMode", "file"));
+        } catch (IllegalArgumentException e) {
+            cbc.error("invalid androidDatabaseMode: " + options.optString("androidDatabaseMode"));
+            return;
         }
+
+        dbrmap.start(new DBRunner(dbname, mode, options, cbc), this.cordova.getThreadPool(), cbc);
+    }
+
+    /**
+     * Get the db runner for a request, checking the generation (if present
+     * in the request) so that a request for a closed generation fails fast.
+     *
+     * @return the db runner or null (with error sent to cbc)
+     */
+    private DBRunner getRunner(JSONObject dbargs, CallbackContext cbc) throws JSONException {
+        return dbrmap.get(dbargs.getString("dbname"), dbargs.optLong("generation", 0), cbc);
     }
+
     /**
      * Open a database.
      *
      * @param dbName   The name of the database file
+     * @param mode     The database mode: file, memory, or temp
      */
-    private SQLiteAndroidDatabase openDatabase(String dbname, String key, CallbackContext cbc, boolean old_impl) throws Exception {
+    private SQLiteAndroidDatabase openDatabase(String dbname, DatabaseMode mode, String key, String assetPath,
+            String assetChecksum, CallbackContext cbc, boolean old_impl) throws Exception {
         try {
             // ASSUMPTION: no db (connection/handle) is already stored in the map
             // [should be true according to the code in DBRunner.run()]
 
-            File dbfile = this.cordova.getActivity().getDatabasePath(dbname);
+            SQLiteAndroidDatabase.awaitLibs();
+
+            if (mode == DatabaseMode.memory) {
+                Log.v("info", "Open in-memory sqlite db: " + dbname);
+
+                SQLiteAndroidDatabase mydb = new SQLiteAndroidDatabase();
+                mydb.openInMemory(key);
+
+                return mydb;
+            }
+
+            File dbfile = (mode == DatabaseMode.temp) ? getTempDatabaseFile(dbname) :
+                this.cordova.getActivity().getDatabasePath(dbname);
+
+            if (mode == DatabaseMode.temp) {
+                // (left over in case the app was stopped before the database was closed)
+                deleteTempDatabase(dbfile);
+            }
+
+            // complete (or discard) an interrupted rekey operation:
+            SQLiteRekeyJob.recover(dbfile);
 
             if (!dbfile.exists()) {
                 dbfile.getParentFile().mkdirs();
+
+                if (assetPath != null) {
+                    this.createFromAssets(assetPath, dbfile, assetChecksum);
+                }
             }
 
             Log.v("info", "Open sqlite db: " + dbfile.getAbsolutePath());
@@ -252,8 +590,9 @@ public class SQLitePlugin extends CordovaPlugin {
             SQLiteAndroidDatabase mydb = new SQLiteAndroidDatabase();
             mydb.open(dbfile, key);
 
-            // NOTE: NO Android locking/closing BUG workaround needed here
-            cbc.success();
+            if (mode == DatabaseMode.temp) {
+                mydb.enableScratchMode();
+            }
 
             return mydb;
         } catch (Exception e) {
@@ -263,8 +602,83 @@ public class SQLitePlugin extends CordovaPlugin {
         }
     }
 
-    // NOTE: createFromAssets (pre-populated DB) feature is not
-    // supported for SQLCipher.
+    /**
+     * Get the file of a temporary database, in the cache directory of the app.
+     */
+    private File getTempDatabaseFile(String dbname) {
+        return new File(new File(this.cordova.getActivity().getCacheDir(), TEMP_DATABASE_DIR), dbname);
+    }
+
+    private static void deleteTempDatabase(File dbfile) {
+        dbfile.delete();
+        new File(dbfile.getAbsolutePath() + "-journal").delete();
+        new File(dbfile.getAbsolutePath() + "-wal").delete();
+        new File(dbfile.getAbsolutePath() + "-shm").delete();
+    }
+
+    /**
+     * Create a database from a pre-populated database file in the assets
+     * (already encrypted with the same key, or plaintext in case of an empty key).
+     *
+     * The asset is copied into a temporary file which is renamed to the database
+     * file upon completion, so that an interrupted copy is never opened.
+     *
+     * @param assetPath     Path of the database file in the assets
+     * @param dbfile        The database file to be created
+     * @param assetChecksum Expected SHA-256 checksum (hex) of the asset (optional)
+     */
+    private void createFromAssets(String assetPath, File dbfile, String assetChecksum) throws Exception {
+        File tempFile = new File(dbfile.getAbsolutePath() + "-install");
+
+        Log.v("info", "Copy pre-populated db from assets: " + assetPath);
+
+        MessageDigest digest = (assetChecksum != null) ? MessageDigest.getInstance("SHA-256") : null;
+
+        ReadableByteChannel in = Channels.newChannel(this.cordova.getActivity().getAssets().open(assetPath));
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tempFile);
+            FileChannel outChannel = out.getChannel();
+
+            ByteBuffer buf = ByteBuffer.allocateDirect(ASSET_COPY_BUFFER_SIZE);
+            while (in.read(buf) != -1) {
+                buf.flip();
+                if (digest != null) {
+                    digest.update(buf);
+                    buf.rewind();
+                }
+                while (buf.hasRemaining()) outChannel.write(buf);
+                buf.clear();
+            }
+
+            outChannel.force(true);
+        } catch (Exception e) {
+            tempFile.delete();
+            throw e;
+        } finally {
+            in.close();
+            if (out != null) out.close();
+        }
+
+        if (digest != null && !toHex(digest.digest()).equalsIgnoreCase(assetChecksum)) {
+            tempFile.delete();
+            throw new RuntimeException("checksum mismatch for pre-populated database: " + assetPath);
+        }
+
+        if (!tempFile.renameTo(dbfile)) {
+            tempFile.delete();
+            throw new RuntimeException("could not install pre-populated database: " + dbfile.getAbsolutePath());
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b: bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
 
     /**
      * Close a database (in another thread).
@@ -272,17 +686,7 @@ public class SQLitePlugin extends CordovaPlugin {
      * @param dbName   The name of the database file
      */
     private void closeDatabase(String dbname, CallbackContext cbc) {
-        DBRunner r = dbrmap.get(dbname);
-        if (r != null) {
-            try {
-                r.q.put(new DBQuery(false, cbc));
-            } catch(Exception e) {
-                if (cbc != null) {
-                    cbc.error("couldn't close database" + e);
-                }
-                Log.e(SQLitePlugin.class.getSimpleName(), "couldn't close database", e);
-            }
-        } else {
+        if (!dbrmap.close(dbname, false, cbc, this.cordova.getThreadPool())) {
             if (cbc != null) {
                 cbc.success();
             }
@@ -298,25 +702,276 @@ public class SQLitePlugin extends CordovaPlugin {
         DBRunner r = dbrmap.get(dbname);
 
         if (r != null) {
-            SQLiteAndroidDatabase mydb = r.mydb;
+            SQLiteRunnerDatabase mydb = r.mydb;
 
             if (mydb != null)
                 mydb.closeDatabaseNow();
         }
     }
 
-    private void deleteDatabase(String dbname, CallbackContext cbc) {
-        DBRunner r = dbrmap.get(dbname);
-        if (r != null) {
-            try {
-                r.q.put(new DBQuery(true, cbc));
-            } catch(Exception e) {
-                if (cbc != null) {
-                    cbc.error("couldn't close database" + e);
+    /**
+     * Export an open database into a new database file (in another thread).
+     *
+     * @param r        The db runner
+     * @param options  Export options: target (database file name), key (optional), chunkRows (optional),
+     *                 snapshot (optional, default for in-memory and temporary databases)
+     */
+    private void exportDatabase(DBRunner r, JSONObject options, CallbackContext cbc) throws JSONException {
+        String targetName = options.getString("target");
+        if (targetName.equals(r.dbname) && r.mode == DatabaseMode.file) {
+            cbc.error("cannot export database to itself");
+            return;
+        }
+
+        File target = this.cordova.getActivity().getDatabasePath(targetName);
+
+        // same key by default (null), empty key for plaintext export:
+        String key = options.has("key") ? options.getString("key") : null;
+
+        int chunkRows = options.optInt("chunkRows", 1000);
+
+        // single step copy (nothing to interleave with for a scratch database):
+        boolean snapshot = options.optBoolean("snapshot", r.mode != DatabaseMode.file);
+
+        r.queueJob(new SQLiteExportJob(target, key, chunkRows, snapshot, cbc));
+    }
+
+    /**
+     * Import a local CSV or NDJSON file into a table of an open database (in another thread).
+     *
+     * @param r        The db runner
+     * @param options  Import options: path (see getLocalFile), table, format (optional),
+     *                 columns (optional), header (optional), delimiter (optional),
+     *                 onConflict (optional), chunkRows (optional), onError (optional)
+     */
+    private void importData(DBRunner r, JSONObject options, CallbackContext cbc) throws JSONException {
+        String path = options.getString("path");
+        File file = getLocalFile(path);
+        if (file == null) {
+            cbc.error("invalid import file path: " + path);
+            return;
+        }
+
+        String format = options.optString("format", path.endsWith(".ndjson") || path.endsWith(".jsonl") ?
+            SQLiteImportJob.FORMAT_NDJSON : SQLiteImportJob.FORMAT_CSV);
+        if (!format.equals(SQLiteImportJob.FORMAT_CSV) && !format.equals(SQLiteImportJob.FORMAT_NDJSON)) {
+            cbc.error("invalid import format: " + format);
+            return;
+        }
+
+        String conflict = null;
+        if (options.has("onConflict")) {
+            conflict = options.getString("onConflict").toUpperCase(Locale.ENGLISH);
+            if (!conflict.equals("IGNORE") && !conflict.equals("REPLACE")) {
+                cbc.error("invalid onConflict option: " + options.getString("onConflict"));
+                return;
+            }
+        }
+
+        String delimiter = options.optString("delimiter", ",");
+        if (delimiter.length() != 1) {
+            cbc.error("invalid delimiter: " + delimiter);
+            return;
+        }
+
+        List<String> columns = null;
+        JSONArray columnsArray = options.optJSONArray("columns");
+        if (columnsArray != null) {
+            columns = new ArrayList<String>();
+            for (int i = 0; i < columnsArray.length(); ++i) columns.add(columnsArray.getString(i));
+        }
+
+        int chunkRows = options.optInt("chunkRows", 1000);
+        boolean skipErrors = options.optString("onError", "abort").equals("skip");
+
+        r.queueJob(new SQLiteImportJob(file, format, options.getString("table"), columns, conflict,
+            options.optBoolean("header", true), delimiter.charAt(0), chunkRows, skipErrors, cbc));
+    }
+
+    /**
+     * Start recording the workload (plugin actions) to a local trace file.
+     *
+     * @param options  Recorder options: path (optional), redact (optional, default true),
+     *                 maxEntries (optional)
+     */
+    private void startRecording(JSONObject options, CallbackContext cbc) throws JSONException {
+        if (recorder != null) {
+            cbc.error("already recording");
+            return;
+        }
+
+        File file = getWorkloadTraceFile(options);
+        if (file == null) {
+            cbc.error("invalid trace file path: " + options.optString("path"));
+            return;
+        }
+
+        try {
+            recorder = new SQLiteWorkloadRecorder(file, options.optBoolean("redact", true),
+                options.optLong("maxEntries", Long.MAX_VALUE));
+        } catch (Exception e) {
+            cbc.error("could not start recording: " + e.getMessage());
+            return;
+        }
+
+        JSONObject result = new JSONObject();
+        result.put("path", file.getAbsolutePath());
+        cbc.success(result);
+    }
+
+    /**
+     * Replay a workload trace against scratch databases (in another thread).
+     *
+     * @param options  Replay options: path (optional), inMemory (optional, default true),
+     *                 setup (optional list of statements for each scratch database)
+     */
+    private void replayWorkload(JSONObject options, final CallbackContext cbc) throws JSONException {
+        File file = getWorkloadTraceFile(options);
+        if (file == null || !file.exists()) {
+            cbc.error("trace file not found: " + options.optString("path", WORKLOAD_TRACE_NAME));
+            return;
+        }
+
+        File scratchDir = null;
+        if (!options.optBoolean("inMemory", true)) {
+            scratchDir = new File(this.cordova.getActivity().getCacheDir(), TEMP_DATABASE_DIR);
+            scratchDir.mkdirs();
+        }
+
+        final SQLiteWorkloadReplayer replayer =
+            new SQLiteWorkloadReplayer(file, scratchDir, options.optJSONArray("setup"));
+
+        this.cordova.getThreadPool().execute(new Runnable() {
+            public void run() {
+                try {
+                    SQLiteAndroidDatabase.awaitLibs();
+                    cbc.success(replayer.replay());
+                } catch (Exception e) {
+                    Log.e(SQLitePlugin.class.getSimpleName(), "workload replay failed", e);
+                    cbc.error("workload replay failed: " + e.getMessage());
                 }
-                Log.e(SQLitePlugin.class.getSimpleName(), "couldn't close database", e);
             }
-        } else {
+        });
+    }
+
+    private File getWorkloadTraceFile(JSONObject options) {
+        return getLocalFile(options.optString("path", WORKLOAD_TRACE_NAME));
+    }
+
+    /**
+     * Get a local file from a file path, a file:// URL, or a path relative
+     * to the files directory of the app.
+     *
+     * @return the file or null if the path is not valid
+     */
+    private File getLocalFile(String path) {
+        File file;
+        try {
+            file = path.startsWith("file:") ? new File(new URI(path)) : new File(path);
+        } catch (Exception e) {
+            return null;
+        }
+
+        return file.isAbsolute() ? file : new File(this.cordova.getActivity().getFilesDir(), path);
+    }
+
+    /**
+     * Export the results of a query to a local CSV or NDJSON file (in the db thread).
+     *
+     * @param r        The db runner
+     * @param options  Export options: sql, params (optional), path (see getLocalFile), format (optional),
+     *                 gzip (optional), header (optional), delimiter (optional), keyColumn (optional),
+     *                 chunkRows (optional)
+     */
+    private void exportQuery(DBRunner r, JSONObject options, CallbackContext cbc) throws JSONException {
+        String path = options.getString("path");
+        File file = getLocalFile(path);
+        if (file == null) {
+            cbc.error("invalid export file path: " + path);
+            return;
+        }
+
+        String format = options.optString("format", path.endsWith(".ndjson") || path.endsWith(".jsonl") ||
+            path.endsWith(".ndjson.gz") || path.endsWith(".jsonl.gz") ?
+            SQLiteImportJob.FORMAT_NDJSON : SQLiteImportJob.FORMAT_CSV);
+        if (!format.equals(SQLiteImportJob.FORMAT_CSV) && !format.equals(SQLiteImportJob.FORMAT_NDJSON)) {
+            cbc.error("invalid export format: " + format);
+            return;
+        }
+
+        String delimiter = options.optString("delimiter", ",");
+        if (delimiter.length() != 1) {
+            cbc.error("invalid delimiter: " + delimiter);
+            return;
+        }
+
+        int chunkRows = options.optInt("chunkRows", 1000);
+        if (chunkRows < 1) {
+            cbc.error("invalid chunkRows: " + chunkRows);
+            return;
+        }
+
+        JSONArray params = options.optJSONArray("params");
+        String keyColumn = options.has("keyColumn") ? options.getString("keyColumn") : null;
+
+        r.queueJob(new SQLiteQueryExportJob(options.getString("sql"), (params != null) ? params : new JSONArray(),
+            file, format, options.optBoolean("gzip", path.endsWith(".gz")), options.optBoolean("header", true),
+            delimiter.charAt(0), keyColumn, chunkRows, cbc));
+    }
+
+    /**
+     * Change the key of an open database (in another thread).
+     *
+     * @param r        The db runner
+     * @param options  Rekey options: key (new key), chunkRows (optional)
+     */
+    private void rekeyDatabase(DBRunner r, JSONObject options, CallbackContext cbc) throws JSONException {
+        if (r.readConnection) {
+            // NOTE: the read connection would keep reading the replaced database file
+            cbc.error("rekey is not supported with androidReadConnection");
+            return;
+        }
+
+        if (r.mode != DatabaseMode.file) {
+            cbc.error("rekey is not supported for an in-memory or temporary database");
+            return;
+        }
+
+        File dbfile = this.cordova.getActivity().getDatabasePath(r.dbname);
+
+        int chunkRows = options.optInt("chunkRows", 1000);
+
+        r.queueJob(new SQLiteRekeyJob(dbfile, options.getString("key"), chunkRows, cbc));
+    }
+
+    /**
+     * Attach an additional database to an open database (in another thread).
+     *
+     * @param r        The db runner
+     * @param options  Attach options: name (database file name) or memory (true), alias, key (optional)
+     */
+    private void attachDatabase(DBRunner r, JSONObject options, CallbackContext cbc) throws JSONException {
+        // in-memory database (no file), only visible to this connection:
+        File file = null;
+
+        if (!options.optBoolean("memory", false)) {
+            String name = options.getString("name");
+            if (dbrmap.containsKey(name)) {
+                // NOTE: would be a second connection to the same database file
+                Log.v("info", "attach database that is also open: " + name);
+            }
+
+            file = this.cordova.getActivity().getDatabasePath(name);
+        }
+
+        // same key by default (null), empty key for plaintext:
+        String key = options.has("key") ? options.getString("key") : null;
+
+        r.queueJob(new SQLiteAttachJob(options.getString("alias"), file, key, r.attachedAliases, cbc));
+    }
+
+    private void deleteDatabase(String dbname, CallbackContext cbc) {
+        if (!dbrmap.close(dbname, true, cbc, this.cordova.getThreadPool())) {
             boolean deleteResult = this.deleteDatabaseNow(dbname);
             if (deleteResult) {
                 cbc.success();
@@ -337,6 +992,9 @@ public class SQLitePlugin extends CordovaPlugin {
         File dbfile = this.cordova.getActivity().getDatabasePath(dbname);
 
         try {
+            // (files of an interrupted rekey operation, if any)
+            SQLiteRekeyJob.deleteFiles(dbfile);
+
             return cordova.getActivity().deleteDatabase(dbfile.getAbsolutePath());
         } catch (Exception e) {
             Log.e(SQLitePlugin.class.getSimpleName(), "couldn't delete database", e);
@@ -344,17 +1002,37 @@ public class SQLitePlugin extends CordovaPlugin {
         }
     }
 
-    private class DBRunner implements Runnable {
-        final String dbname;
+    private class DBRunner extends SQLiteDBRunner {
+        final DatabaseMode mode;
         final String dbkey;
 
-        final BlockingQueue<DBQuery> q;
-        final CallbackContext openCbc;
+        // pre-populated database in the assets (optional):
+        final String assetPath;
+        final String assetChecksum;
 
-        SQLiteAndroidDatabase mydb;
+        // versioned schema migrations to apply before the open callback (optional):
+        final JSONArray migrations;
 
-        DBRunner(final String dbname, JSONObject options, CallbackContext cbc) {
-            this.dbname = dbname;
+        // warm-up options (optional):
+        final JSONObject warmUp;
+
+        final SQLiteQueryCache queryCache;
+
+        final SQLiteChangeNotifier changeNotifier;
+
+        // separate read-only connection for read-only batches (opt-in):
+        final boolean readConnection;
+        volatile ReadRunner reader = null;
+
+        // aliases of the databases attached by attachDatabase:
+        final Set<String> attachedAliases = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        // the open database (db thread only):
+        SQLiteAndroidDatabase db;
+
+        DBRunner(final String dbname, DatabaseMode mode, JSONObject options, CallbackContext cbc) {
+            super(dbname, dbrmap, cbc);
+            this.mode = mode;
 
             String key = ""; // (no encryption by default)
             if (options.has("key")) {
@@ -367,109 +1045,222 @@ public class SQLitePlugin extends CordovaPlugin {
             }
             this.dbkey = key;
 
-            this.q = new LinkedBlockingQueue<DBQuery>();
-            this.openCbc = cbc;
+            // createFromResource: "1" for www/<dbname>, otherwise path relative to www
+            String createFromResource = options.optString("createFromResource", null);
+            if (createFromResource == null || createFromResource.length() == 0) {
+                this.assetPath = null;
+            } else if (createFromResource.equals("1")) {
+                this.assetPath = "www/" + dbname;
+            } else {
+                this.assetPath = "www/" + createFromResource;
+            }
+            this.assetChecksum = options.optString("createFromLocationChecksum", null);
+
+            this.migrations = options.optJSONArray("androidMigrations");
+
+            this.warmUp = options.optJSONObject("androidWarmUp");
+
+            // opt-in SELECT result cache, with max size in bytes:
+            long queryCacheSize = options.optLong("androidQueryCacheSize", 0);
+            this.queryCache = (queryCacheSize > 0) ? new SQLiteQueryCache(queryCacheSize) : null;
+
+            this.changeNotifier = new SQLiteChangeNotifier(dbname);
+
+            // NOTE: an in-memory database cannot be shared with another connection
+            this.readConnection = options.optBoolean("androidReadConnection", false) && mode != DatabaseMode.memory;
         }
 
-        public void run() {
+        @Override
+        SQLiteRunnerDatabase openDatabase(JSONObject openResult) throws Exception {
+            // NOTE: batches are queued (waiting) while a pre-populated database is copied
+            SQLiteAndroidDatabase mydb = SQLitePlugin.this.openDatabase(dbname, this.mode, this.dbkey,
+                this.assetPath, this.assetChecksum, this.openCbc, false);
+
+            // NOTE: batches are queued (waiting) while the migrations are applied
+            if (migrations != null && migrations.length() > 0) {
+                try {
+                    openResult.put("migration", mydb.applyMigrations(migrations));
+                } catch (Exception e) {
+                    Log.e(SQLitePlugin.class.getSimpleName(), "migrations failed, stopping db thread", e);
+                    mydb.closeDatabaseNow();
+                    if (mode == DatabaseMode.temp) {
+                        deleteTempDatabase(getTempDatabaseFile(dbname));
+                    }
+                    openCbc.error("can't open database: " + e.getMessage());
+                    return null;
+                }
+            }
+
+            this.db = mydb;
+
+            if (queryCache != null) {
+                mydb.enableQueryCache(queryCache);
+            }
+
+            mydb.enableChangeNotifier(changeNotifier);
+
+            if (readConnection) {
+                startReader();
+            }
+
+            // warm-up before the open callback, unless the first batches may jump ahead:
+            if (warmUp != null && !warmUpLater()) {
+                SQLiteWarmUpJob w = new SQLiteWarmUpJob(dbname, warmUp);
+                try {
+                    while (!w.step(mydb));
+                    w.cbc.success(w.getResult());
+                } catch (Exception e) {
+                    Log.e(SQLitePlugin.class.getSimpleName(), "unexpected warm-up error", e);
+                }
+            }
+
+            return mydb;
+        }
+
+        @Override
+        void afterOpen() {
+            if (warmUpLater()) {
+                // (one item in each step, behind the batches in the queue)
+                pendingJobs.incrementAndGet();
+                q.offer(new DBQuery(new SQLiteWarmUpJob(dbname, warmUp)));
+            }
+        }
+
+        @Override
+        void afterStop() {
+            stopReader();
+        }
+
+        @Override
+        void closeDatabase() throws Exception {
+            super.closeDatabase();
+
+            if (mode == DatabaseMode.temp) {
+                deleteTempDatabase(getTempDatabaseFile(dbname));
+            }
+
+            changeNotifier.removeListeners();
+        }
+
+        @Override
+        boolean deleteDatabase() {
+            // (temporary database file already deleted upon close)
+            return mode != DatabaseMode.file || deleteDatabaseNow(dbname);
+        }
+
+        private boolean warmUpLater() {
+            return warmUp != null && warmUp.optBoolean("yieldToBatches", false);
+        }
+
+        /**
+         * Start the separate read connection (in WAL mode) with its own thread.
+         * Read-only batches use the main queue in case of a failure.
+         */
+        private void startReader() {
             try {
-                this.mydb = openDatabase(dbname, this.dbkey, this.openCbc, false);
+                db.enableWriteAheadLogging();
+
+                SQLiteAndroidDatabase readdb = new SQLiteAndroidDatabase();
+                readdb.openReadOnly(db.dbFile, this.dbkey);
+
+                ReadRunner r = new ReadRunner(readdb);
+                cordova.getThreadPool().execute(r);
+                this.reader = r;
             } catch (Exception e) {
-                Log.e(SQLitePlugin.class.getSimpleName(), "unexpected error, stopping db thread", e);
-                dbrmap.remove(dbname);
-                return;
+                Log.e(SQLitePlugin.class.getSimpleName(), "couldn't open read connection, ignored", e);
+            }
+        }
+
+        /**
+         * Stop the read connection thread (if started) and wait until it is closed.
+         */
+        private void stopReader() {
+            ReadRunner r = this.reader;
+            if (r == null) return;
+
+            this.reader = null;
+
+            try {
+                r.q.put(new DBQuery());
+                r.closed.await();
+            } catch (InterruptedException e) {
+                Log.e(SQLitePlugin.class.getSimpleName(), "interrupted while closing read connection", e);
             }
+        }
+    }
 
-            DBQuery dbq = null;
+    /**
+     * Thread for read-only batches on a separate (read-only) connection.
+     */
+    private class ReadRunner implements Runnable {
+        final BlockingQueue<SQLiteDBRunner.DBQuery> q = new LinkedBlockingQueue<SQLiteDBRunner.DBQuery>();
+        final CountDownLatch closed = new CountDownLatch(1);
+
+        final SQLiteAndroidDatabase readdb;
 
+        ReadRunner(SQLiteAndroidDatabase readdb) {
+            this.readdb = readdb;
+        }
+
+        public void run() {
             try {
-                dbq = q.take();
+                SQLiteDBRunner.DBQuery dbq = q.take();
 
                 while (!dbq.stop) {
-                    mydb.executeSqlBatch(dbq.queries, dbq.jsonparams, dbq.cbc);
+                    readdb.executeReadOnlyBatch(dbq.queries, dbq.jsonparams, dbq.cbc);
 
                     dbq = q.take();
                 }
             } catch (Exception e) {
-                Log.e(SQLitePlugin.class.getSimpleName(), "unexpected error", e);
+                Log.e(SQLitePlugin.class.getSimpleName(), "unexpected error in read connection thread", e);
             }
 
-            if (dbq != null && dbq.close) {
-                try {
-                    closeDatabaseNow(dbname);
-
-                    dbrmap.remove(dbname); // (should) remove ourself
-
-                    if (!dbq.delete) {
-                        dbq.cbc.success();
-                    } else {
-                        try {
-                            boolean deleteResult = deleteDatabaseNow(dbname);
-                            if (deleteResult) {
-                                dbq.cbc.success();
-                            } else {
-                                dbq.cbc.error("couldn't delete database");
-                            }
-                        } catch (Exception e) {
-                            Log.e(SQLitePlugin.class.getSimpleName(), "couldn't delete database", e);
-                            dbq.cbc.error("couldn't delete database: " + e);
-                        }
-                    }                    
-                } catch (Exception e) {
-                    Log.e(SQLitePlugin.class.getSimpleName(), "couldn't close database", e);
-                    if (dbq.cbc != null) {
-                        dbq.cbc.error("couldn't close database: " + e);
-                    }
-                }
+            // fail any read-only batches left in the queue:
+            SQLiteDBRunner.DBQuery dbq;
+            while ((dbq = q.poll()) != null) {
+                if (dbq.cbc != null) dbq.cbc.error("database closed");
             }
+
+            readdb.closeDatabaseNow();
+            closed.countDown();
         }
     }
 
-    private final class DBQuery {
-        // XXX TODO replace with DBRunner action enum:
-        final boolean stop;
-        final boolean close;
-        final boolean delete;
-        final String[] queries;
-        final JSONArray[] jsonparams;
-        final CallbackContext cbc;
-
-        DBQuery(String[] myqueries, JSONArray[] params, CallbackContext c) {
-            this.stop = false;
-            this.close = false;
-            this.delete = false;
-            this.queries = myqueries;
-            this.jsonparams = params;
-            this.cbc = c;
-        }
-
-        DBQuery(boolean delete, CallbackContext cbc) {
-            this.stop = true;
-            this.close = true;
-            this.delete = delete;
-            this.queries = null;
-            this.jsonparams = null;
-            this.cbc = cbc;
-        }
-
-        // signal the DBRunner thread to stop:
-        DBQuery() {
-            this.stop = true;
-            this.close = false;
-            this.delete = false;
-            this.queries = null;
-            this.jsonparams = null;
-            this.cbc = null;
-        }
+    private static enum DatabaseMode {
+        file,
+        memory,
+        temp,
     }
 
     private static enum Action {
         echoStringValue,
+        getStats,
         open,
         close,
         delete,
         executeSqlBatch,
         backgroundExecuteSqlBatch,
+        executeMultiBatch,
+        executeTransaction,
+        executeUpsertBatch,
+        prepare,
+        executePrepared,
+        finalize,
+        executeFiltered,
+        openCursor,
+        fetchCursor,
+        closeCursor,
+        addChangeListener,
+        removeChangeListeners,
+        importData,
+        exportQuery,
+        exportDatabase,
+        rekeyDatabase,
+        attachDatabase,
+        detachDatabase,
+        startRecording,
+        stopRecording,
+        replayWorkload,
     }
 }
 
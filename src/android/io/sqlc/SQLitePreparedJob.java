@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2012-present Christopher J. Brody (aka Chris Brody)
+ * Copyright (c) 2005-2010, Nitobi Software Inc.
+ * Copyright (c) 2010, IBM Corporation
+ */
+
+package io.sqlc;
+
+import org.apache.cordova.CallbackContext;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Prepare, execute (by handle), or finalize a prepared statement on the
+ * connection of an open database, executed in the db thread when no
+ * transaction is active.
+ *
+ * NOTE: the handles are only valid for the connection they were prepared
+ * on, all prepared statements are finalized when the database is closed
+ * (or reopened, such as by rekey).
+ */
+class SQLitePreparedJob extends SQLiteJob
+{
+    static enum Operation {
+        prepare,
+        execute,
+        finalize,
+    }
+
+    final Operation operation;
+    final String sql;
+    final int handle;
+    final JSONArray executes;
+
+    private JSONObject result = null;
+
+    private SQLitePreparedJob(Operation operation, String sql, int handle, JSONArray executes, CallbackContext cbc) {
+        super(cbc);
+        this.operation = operation;
+        this.sql = sql;
+        this.handle = handle;
+        this.executes = executes;
+    }
+
+    static SQLitePreparedJob prepare(String sql, CallbackContext cbc) {
+        return new SQLitePreparedJob(Operation.prepare, sql, 0, null, cbc);
+    }
+
+    /**
+     * @param executes  Array of [ handle, params ] arrays
+     */
+    static SQLitePreparedJob execute(JSONArray executes, CallbackContext cbc) {
+        return new SQLitePreparedJob(Operation.execute, null, 0, executes, cbc);
+    }
+
+    static SQLitePreparedJob finalize(int handle, CallbackContext cbc) {
+        return new SQLitePreparedJob(Operation.finalize, null, handle, null, cbc);
+    }
+
+    @Override
+    boolean step(SQLiteAndroidDatabase mydb) throws Exception {
+        result = new JSONObject();
+
+        switch (operation) {
+            case prepare:
+                result.put("handle", mydb.prepareStatement(sql));
+                break;
+
+            case execute:
+                result.put("results", mydb.executePreparedBatch(executes));
+                break;
+
+            case finalize:
+                mydb.finalizeStatement(handle);
+                result.put("handle", handle);
+                break;
+        }
+
+        return true;
+    }
+
+    @Override
+    JSONObject getResult() throws JSONException {
+        return result;
+    }
+} /* vim: set expandtab : */
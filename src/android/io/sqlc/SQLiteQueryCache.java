@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2012-present Christopher J. Brody (aka Chris Brody)
+ * Copyright (c) 2005-2010, Nitobi Software Inc.
+ * Copyright (c) 2010, IBM Corporation
+ */
+
+package io.sqlc;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Opt-in SELECT result cache (one per database), bounded by (estimated) bytes
+ * with LRU eviction and invalidated by the tables touched in writes.
+ *
+ * NOTE: entries are only added by the db thread but may be read from the
+ * Cordova bridge thread, so all access to the entry map is synchronized.
+ */
+class SQLiteQueryCache
+{
+    // NOTE: queries calling any of these functions (or using any of the
+    // CURRENT_* keywords, with no parentheses) are never cached:
+    private static final Pattern VOLATILE_FUNCTION = Pattern.compile(
+            "\\b(random|randomblob|date|time|datetime|julianday|strftime|changes|total_changes|last_insert_rowid|sqlite_version)\\s*\\(" +
+            "|\\bcurrent_(timestamp|date|time)\\b",
+            Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern FROM_OR_JOIN = Pattern.compile("\\b(?:FROM|JOIN)\\b",
+            Pattern.CASE_INSENSITIVE);
+
+    // words that can follow a table name in a FROM clause (not an alias):
+    private static final Set<String> NOT_ALIAS = new HashSet<String>();
+    static {
+        String[] words = { "where", "group", "order", "limit", "join", "left", "right",
+            "full", "inner", "outer", "cross", "natural", "on", "using", "union", "except",
+            "intersect", "having", "window", "indexed", "not" };
+        for (String w: words) NOT_ALIAS.add(w);
+    }
+
+    private final long maxBytes;
+
+    private long currentBytes = 0;
+
+    // access-ordered for LRU eviction:
+    private final LinkedHashMap<String, Entry> entries =
+        new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    // table name -> keys of the entries that read from the table
+    private final Map<String, Set<String>> tableKeys = new HashMap<String, Set<String>>();
+
+    SQLiteQueryCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    static String keyFor(String query, JSONArray params) {
+        return query + '\u0000' + (params == null ? "" : params.toString());
+    }
+
+    synchronized JSONObject get(String key) {
+        Entry e = entries.get(key);
+        return (e != null) ? e.result : null;
+    }
+
+    /**
+     * Get the results of a complete batch, if and only if every statement is cached.
+     *
+     * @return batch results in the same form as SQLiteAndroidDatabase.executeSqlBatch()
+     *         or null in case of any cache miss
+     */
+    synchronized JSONArray getBatchResults(String[] queryarr, JSONArray[] jsonparamsArr) {
+        JSONObject[] hits = new JSONObject[queryarr.length];
+
+        for (int i = 0; i < queryarr.length; ++i) {
+            Entry e = entries.get(keyFor(queryarr[i], jsonparamsArr[i]));
+            if (e == null) return null;
+            hits[i] = e.result;
+        }
+
+        JSONArray batchResults = new JSONArray();
+        try {
+            for (JSONObject result: hits) {
+                JSONObject r = new JSONObject();
+                r.put("type", "success");
+                r.put("result", result);
+                batchResults.put(r);
+            }
+        } catch (JSONException ex) {
+            // NOT expected:
+            return null;
+        }
+
+        return batchResults;
+    }
+
+    synchronized void put(String key, Set<String> tables, JSONObject result) {
+        // estimated size of the UTF-16 strings:
+        long size = 2L * (key.length() + result.toString().length());
+
+        if (size > maxBytes) return;
+
+        removeEntry(key);
+
+        while (currentBytes + size > maxBytes && !entries.isEmpty()) {
+            removeEntry(entries.keySet().iterator().next());
+        }
+
+        entries.put(key, new Entry(tables, result, size));
+        currentBytes += size;
+
+        for (String table: tables) {
+            Set<String> keys = tableKeys.get(table);
+            if (keys == null) {
+                keys = new HashSet<String>();
+                tableKeys.put(table, keys);
+            }
+            keys.add(key);
+        }
+    }
+
+    synchronized void invalidateTable(String table) {
+        Set<String> keys = tableKeys.remove(table);
+        if (keys == null) return;
+
+        for (String key: keys) {
+            removeEntry(key);
+        }
+    }
+
+    synchronized void invalidateAll() {
+        entries.clear();
+        tableKeys.clear();
+        currentBytes = 0;
+    }
+
+    private void removeEntry(String key) {
+        Entry e = entries.remove(key);
+        if (e == null) return;
+
+        currentBytes -= e.size;
+
+        for (String table: e.tables) {
+            Set<String> keys = tableKeys.get(table);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty()) tableKeys.remove(table);
+            }
+        }
+    }
+
+    /**
+     * Get the (normalized) names of the tables read by a SELECT statement.
+     *
+     * @return set of table names (possibly empty) or null if the statement
+     *         should not be cached
+     */
+    static Set<String> getReadTables(String query) {
+        if (VOLATILE_FUNCTION.matcher(query).find()) return null;
+
+        Set<String> tables = new HashSet<String>();
+
+        Matcher m = FROM_OR_JOIN.matcher(query);
+        while (m.find()) {
+            int pos = m.end();
+
+            // table list, separated by commas:
+            while (true) {
+                pos = skipSpaces(query, pos);
+                if (pos >= query.length() || query.charAt(pos) == '(') {
+                    // subquery (tables found by its own FROM) or table-valued function
+                    break;
+                }
+
+                int end = scanName(query, pos);
+                if (end == pos) return null;
+                tables.add(normalizeTableName(query.substring(pos, end)));
+                pos = skipSpaces(query, end);
+
+                // table-valued function is not supported:
+                if (pos < query.length() && query.charAt(pos) == '(') return null;
+
+                // optional alias:
+                int aliasEnd = scanName(query, pos);
+                if (aliasEnd > pos) {
+                    String word = query.substring(pos, aliasEnd).toLowerCase(Locale.ENGLISH);
+                    if (word.equals("as")) {
+                        pos = skipSpaces(query, aliasEnd);
+                        pos = skipSpaces(query, scanName(query, pos));
+                    } else if (!NOT_ALIAS.contains(word)) {
+                        pos = skipSpaces(query, aliasEnd);
+                    }
+                }
+
+                if (pos < query.length() && query.charAt(pos) == ',') {
+                    ++pos;
+                } else {
+                    break;
+                }
+            }
+        }
+
+        // constant SELECT (such as "SELECT 1") with no function call(s):
+        if (tables.isEmpty() && query.indexOf('(') != -1) return null;
+
+        return tables;
+    }
+
+    /**
+     * Normalize a table name: unquote, lower case, and strip "main." schema prefix.
+     */
+    static String normalizeTableName(String name) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < name.length(); ++i) {
+            char c = name.charAt(i);
+            if (c != '"' && c != '`' && c != '[' && c != ']') sb.append(c);
+        }
+
+        String normalized = sb.toString().toLowerCase(Locale.ENGLISH);
+        if (normalized.startsWith("main.")) normalized = normalized.substring(5);
+
+        return normalized;
+    }
+
+    private static int skipSpaces(String s, int pos) {
+        while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) ++pos;
+        return pos;
+    }
+
+    // scan a (possibly quoted and/or schema-qualified) name:
+    private static int scanName(String s, int pos) {
+        int i = pos;
+        while (i < s.length()) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '`' || c == '[') {
+                char close = (c == '[') ? ']' : c;
+                int end = s.indexOf(close, i + 1);
+                if (end == -1) return pos;
+                i = end + 1;
+            } else if (Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '.') {
+                ++i;
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+
+    private static final class Entry {
+        final Set<String> tables;
+        final JSONObject result;
+        final long size;
+
+        Entry(Set<String> tables, JSONObject result, long size) {
+            this.tables = tables;
+            this.result = result;
+            this.size = size;
+        }
+    }
+} /* vim: set expandtab : */
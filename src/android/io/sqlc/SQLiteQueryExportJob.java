@@ -0,0 +1,344 @@
+/*
+ * Copyright (c) 2012-present Christopher J. Brody (aka Chris Brody)
+ * Copyright (c) 2005-2010, Nitobi Software Inc.
+ * Copyright (c) 2010, IBM Corporation
+ */
+
+package io.sqlc;
+
+// SQLCipher version of database classes:
+import net.sqlcipher.*;
+import net.sqlcipher.database.*;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.cordova.CallbackContext;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Export of the results of a query to a local CSV or NDJSON (newline-delimited
+ * JSON) file, optionally gzip compressed, streamed with a fixed size buffer.
+ *
+ * The rows are read by keyset paging (see SQLiteAndroidDatabase.queryPage),
+ * one page of a number of rows in each step so that other batches can run
+ * in between the steps, with no row repeated or skipped in case of changes
+ * in between. With no key column, a plain table query is paged by rowid
+ * (see SQLiteAndroidDatabase.getRowidKeyQuery), any other statement is
+ * rejected.
+ *
+ * The rows are written to a partial file, which replaces the target file
+ * when the export is complete.
+ */
+class SQLiteQueryExportJob extends SQLiteJob
+{
+    private static final int WRITE_BUFFER_SIZE = 64*1024;
+
+    final String sql;
+    final JSONArray params;
+    final File target;
+    final String format;
+    final boolean gzip;
+    final boolean header;
+    final char delimiter;
+    final String keyColumn;
+    final int chunkRows;
+
+    // keyset query and key column of the pages (by rowid with no key column):
+    private String pageSql = null;
+    private String pageKeyColumn = null;
+
+    private Cursor cur = null;
+    private Object lastKey = null;
+    private CountingOutputStream counter = null;
+    private Writer out = null;
+    private String[] columns = null;
+
+    // index in the page cursor of each exported column:
+    private int[] columnIndexes = null;
+
+    private long rows = 0;
+
+    /**
+     * @param sql        SELECT statement
+     * @param params     Query parameters
+     * @param target     The target file (replaced upon completion)
+     * @param format     SQLiteImportJob.FORMAT_CSV or FORMAT_NDJSON
+     * @param gzip       true for gzip compression
+     * @param header     true to start a CSV file with a header line
+     * @param delimiter  CSV field delimiter
+     * @param keyColumn  Result column with unique (not null) values for keyset paging,
+     *                   or null for a plain table query (paged by rowid)
+     * @param chunkRows  Number of rows to write in each step
+     * @param cbc        Callback context for progress and the final result
+     */
+    SQLiteQueryExportJob(String sql, JSONArray params, File target, String format, boolean gzip,
+            boolean header, char delimiter, String keyColumn, int chunkRows, CallbackContext cbc) {
+        super(cbc);
+        this.sql = sql;
+        this.params = params;
+        this.target = target;
+        this.format = format;
+        this.gzip = gzip;
+        this.header = header;
+        this.delimiter = delimiter;
+        this.keyColumn = keyColumn;
+        this.chunkRows = chunkRows;
+    }
+
+    @Override
+    boolean step(SQLiteAndroidDatabase mydb) throws Exception {
+        if (out == null) setup(mydb);
+
+        cur = mydb.queryPage(pageSql, params, pageKeyColumn, lastKey, chunkRows);
+        int count = 0;
+        try {
+            int keyIndex = SQLiteAndroidDatabase.getKeyColumnIndex(cur, pageKeyColumn);
+            while (cur.moveToNext()) {
+                writeRow();
+                lastKey = SQLiteAndroidDatabase.getKeyValue(cur, keyIndex);
+                ++count;
+            }
+        } finally {
+            cur.close();
+            cur = null;
+        }
+
+        if (count < chunkRows) {
+            finish();
+            return true;
+        }
+
+        sendProgress();
+        return false;
+    }
+
+    @Override
+    JSONObject getResult() throws JSONException {
+        JSONObject result = new JSONObject();
+        result.put("path", target.getAbsolutePath());
+        result.put("rows", rows);
+        result.put("bytes", target.length());
+        return result;
+    }
+
+    @Override
+    void cleanup(SQLiteAndroidDatabase mydb) {
+        close();
+        getPartialFile().delete();
+    }
+
+    private void setup(SQLiteAndroidDatabase mydb) throws Exception {
+        if (SQLiteAndroidDatabase.isNoRowsStatement(sql, SQLiteAndroidDatabase.getQueryType(sql))) {
+            throw new RuntimeException("export needs a statement that returns rows: " + sql);
+        }
+
+        pageSql = sql;
+        pageKeyColumn = keyColumn;
+        if (keyColumn == null) {
+            String rowidQuery = SQLiteAndroidDatabase.getRowidKeyQuery(sql);
+            if (rowidQuery == null || !mydb.hasRowidKey(rowidQuery, params)) {
+                throw new RuntimeException("export needs a keyColumn (except for a plain table query): " + sql);
+            }
+            pageSql = rowidQuery;
+            pageKeyColumn = SQLiteAndroidDatabase.ROWID_KEY_COLUMN;
+        }
+
+        // (check the query and the key column, with no rows read)
+        Cursor check = mydb.queryPage(pageSql, params, pageKeyColumn, null, 0);
+        try {
+            int keyIndex = SQLiteAndroidDatabase.getKeyColumnIndex(check, pageKeyColumn);
+            // (with no rowid key column added by getRowidKeyQuery)
+            int skipIndex = (keyColumn == null) ? keyIndex : -1;
+
+            String[] names = check.getColumnNames();
+            columns = new String[names.length - ((skipIndex >= 0) ? 1 : 0)];
+            columnIndexes = new int[columns.length];
+            for (int i = 0, c = 0; i < names.length; ++i) {
+                if (i == skipIndex) continue;
+                columns[c] = names[i];
+                columnIndexes[c] = i;
+                ++c;
+            }
+        } finally {
+            check.close();
+        }
+
+        target.getParentFile().mkdirs();
+
+        counter = new CountingOutputStream(new FileOutputStream(getPartialFile()));
+        OutputStream os = gzip ? new GZIPOutputStream(counter, WRITE_BUFFER_SIZE) : counter;
+        out = new BufferedWriter(new OutputStreamWriter(os, "UTF-8"), WRITE_BUFFER_SIZE);
+
+        if (header && !format.equals(SQLiteImportJob.FORMAT_NDJSON)) {
+            for (int i = 0; i < columns.length; ++i) {
+                if (i > 0) out.write(delimiter);
+                writeCsvField(columns[i]);
+            }
+            out.write("\r\n");
+        }
+    }
+
+    private void writeRow() throws IOException {
+        if (format.equals(SQLiteImportJob.FORMAT_NDJSON)) {
+            writeJsonRow();
+        } else {
+            writeCsvRow();
+        }
+        ++rows;
+    }
+
+    private void sendProgress() throws IOException, JSONException {
+        out.flush();
+
+        JSONObject progress = new JSONObject();
+        progress.put("progress", true);
+        progress.put("rows", rows);
+        progress.put("bytes", counter.count);
+        sendProgress(progress);
+    }
+
+    private void finish() throws IOException {
+        Writer w = out;
+        out = null;
+        try {
+            w.close();
+        } finally {
+            if (cur != null) {
+                cur.close();
+                cur = null;
+            }
+        }
+
+        File partial = getPartialFile();
+        target.delete();
+        if (!partial.renameTo(target)) {
+            partial.delete();
+            throw new IOException("could not replace export file: " + target.getAbsolutePath());
+        }
+    }
+
+    private void close() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException ex) {
+                // ignored
+            }
+            out = null;
+        }
+
+        if (cur != null) {
+            cur.close();
+            cur = null;
+        }
+    }
+
+    private File getPartialFile() {
+        return new File(target.getAbsolutePath() + ".part");
+    }
+
+    // RFC 4180 CSV, NULL as an empty unquoted field (as for import):
+    private void writeCsvRow() throws IOException {
+        for (int c = 0; c < columns.length; ++c) {
+            if (c > 0) out.write(delimiter);
+
+            int i = columnIndexes[c];
+            switch (cur.getType(i)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    break;
+                case Cursor.FIELD_TYPE_INTEGER:
+                    out.write(Long.toString(cur.getLong(i)));
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    // (SQLite text form of the value)
+                    out.write(cur.getString(i));
+                    break;
+                default: /* (text or BLOB) */
+                    writeCsvField(cur.getString(i));
+                    break;
+            }
+        }
+        out.write("\r\n");
+    }
+
+    private void writeCsvField(String value) throws IOException {
+        boolean quote = value.length() == 0;
+        for (int i = 0; i < value.length() && !quote; ++i) {
+            char c = value.charAt(i);
+            quote = (c == delimiter || c == '"' || c == '\n' || c == '\r');
+        }
+
+        if (!quote) {
+            out.write(value);
+            return;
+        }
+
+        out.write('"');
+        out.write(value.replace("\"", "\"\""));
+        out.write('"');
+    }
+
+    private void writeJsonRow() throws IOException {
+        JSONObject row = new JSONObject();
+        try {
+            for (int c = 0; c < columns.length; ++c) {
+                int i = columnIndexes[c];
+                switch (cur.getType(i)) {
+                    case Cursor.FIELD_TYPE_NULL:
+                        row.put(columns[c], JSONObject.NULL);
+                        break;
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        row.put(columns[c], cur.getLong(i));
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        row.put(columns[c], cur.getDouble(i));
+                        break;
+                    default: /* (text or BLOB) */
+                        row.put(columns[c], cur.getString(i));
+                        break;
+                }
+            }
+        } catch (JSONException ex) {
+            // (such as a NaN value)
+            throw new IOException("could not export row " + (rows + 1) + ": " + ex.getMessage());
+        }
+
+        out.write(row.toString());
+        out.write('\n');
+    }
+
+    /**
+     * Counts the bytes written to the file (after compression).
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count = 0;
+
+        CountingOutputStream(OutputStream os) {
+            super(os);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            ++count;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+} /* vim: set expandtab : */
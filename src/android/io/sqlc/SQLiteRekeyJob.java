@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2012-present Christopher J. Brody (aka Chris Brody)
+ * Copyright (c) 2005-2010, Nitobi Software Inc.
+ * Copyright (c) 2010, IBM Corporation
+ */
+
+package io.sqlc;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.apache.cordova.CallbackContext;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Incremental rekey of an open database: the database is exported (in steps)
+ * into a new database file with the new key, which then replaces the database
+ * file and is reopened with the new key.
+ *
+ * A small journal file records the phase of the rekey operation (never the key):
+ * - "copy": the original database file is still valid with the old key;
+ * - "swap": the new database file is complete and replaces the original file.
+ * recover() completes an interrupted swap, or discards an interrupted copy,
+ * before the database is opened again. The journal is only deleted once the
+ * recovery is done, so that a failed recovery is tried again upon the next open.
+ *
+ * NOTE: the swap closes and reopens the database, so the rekey job is exclusive
+ * and does not start while prepared statements or query cursors are open.
+ */
+class SQLiteRekeyJob extends SQLiteJob
+{
+    static final String PHASE_COPY = "copy";
+    static final String PHASE_SWAP = "swap";
+
+    final File dbfile;
+    final String newKey;
+
+    private final SQLiteExportJob export;
+
+    private boolean started = false;
+
+    /**
+     * @param dbfile    The database file
+     * @param newKey    The new key
+     * @param chunkRows Number of rows to copy in each step
+     * @param cbc       Callback context for progress and the final result
+     */
+    SQLiteRekeyJob(File dbfile, String newKey, int chunkRows, CallbackContext cbc) {
+        super(cbc);
+        this.dbfile = dbfile;
+        this.newKey = newKey;
+        this.export = new SQLiteExportJob(getRekeyedFile(dbfile), newKey, chunkRows, cbc);
+    }
+
+    @Override
+    boolean isExclusive() {
+        return true;
+    }
+
+    @Override
+    boolean step(SQLiteAndroidDatabase mydb) throws Exception {
+        if (!started) {
+            if (mydb.hasOpenHandles()) {
+                throw new RuntimeException("cannot rekey with open prepared statements or cursors");
+            }
+
+            writeJournal(dbfile, PHASE_COPY);
+            started = true;
+        }
+
+        if (!export.step(mydb)) return false;
+
+        // new database file is complete, replace the original file:
+        writeJournal(dbfile, PHASE_SWAP);
+
+        mydb.closeDatabaseNow();
+
+        File rekeyed = getRekeyedFile(dbfile);
+        if (!rekeyed.renameTo(dbfile)) {
+            // database file is still valid with the old key:
+            mydb.open(dbfile, mydb.dbkey);
+            rekeyed.delete();
+            getJournalFile(dbfile).delete();
+            throw new RuntimeException("could not replace database file");
+        }
+
+        mydb.open(dbfile, newKey);
+
+        getJournalFile(dbfile).delete();
+
+        return true;
+    }
+
+    @Override
+    JSONObject getResult() throws JSONException {
+        JSONObject result = export.getResult();
+        result.put("path", dbfile.getAbsolutePath());
+        return result;
+    }
+
+    @Override
+    void cleanup(SQLiteAndroidDatabase mydb) {
+        export.cleanup(mydb);
+        getRekeyedFile(dbfile).delete();
+        getJournalFile(dbfile).delete();
+    }
+
+    /**
+     * Recover from an interrupted rekey operation (before the database is opened):
+     * - no journal: nothing to do;
+     * - "swap": the rekeyed database file replaces the database file, unless
+     *   it was already renamed;
+     * - "copy" (or a journal that was not completely written): the partial
+     *   copy is deleted, the database file is still valid with the old key.
+     *
+     * @return true if the database file was replaced by a (completed) rekeyed database
+     * @throws IOException if an interrupted swap could not be completed
+     *         (the journal is kept to try again upon the next open)
+     */
+    static boolean recover(File dbfile) throws IOException {
+        File journal = getJournalFile(dbfile);
+        if (!journal.exists()) return false;
+
+        File rekeyed = getRekeyedFile(dbfile);
+        String phase = readJournal(journal);
+
+        boolean replaced = false;
+
+        if (PHASE_SWAP.equals(phase)) {
+            if (rekeyed.exists() && !rekeyed.renameTo(dbfile)) {
+                throw new IOException("could not complete interrupted rekey of: " + dbfile.getAbsolutePath());
+            }
+            // (or the swap was already done)
+            replaced = true;
+            Log.v("rekey", "completed interrupted rekey of: " + dbfile.getAbsolutePath());
+        } else {
+            // interrupted copy (original database file is still valid):
+            deletePartialCopy(dbfile);
+            Log.v("rekey", "discarded interrupted rekey of: " + dbfile.getAbsolutePath());
+        }
+
+        journal.delete();
+
+        return replaced;
+    }
+
+    /**
+     * Delete the files of an interrupted rekey operation, along with the database
+     * (so that they are never applied to a new database with the same name).
+     */
+    static void deleteFiles(File dbfile) {
+        deletePartialCopy(dbfile);
+        getJournalFile(dbfile).delete();
+    }
+
+    private static void deletePartialCopy(File dbfile) {
+        File rekeyed = getRekeyedFile(dbfile);
+        rekeyed.delete();
+        new File(rekeyed.getAbsolutePath() + "-journal").delete();
+        new File(rekeyed.getAbsolutePath() + "-export").delete();
+        new File(rekeyed.getAbsolutePath() + "-export-journal").delete();
+    }
+
+    static File getRekeyedFile(File dbfile) {
+        return new File(dbfile.getAbsolutePath() + "-rekeyed");
+    }
+
+    static File getJournalFile(File dbfile) {
+        return new File(dbfile.getAbsolutePath() + "-rekey");
+    }
+
+    static void writeJournal(File dbfile, String phase) throws IOException {
+        FileOutputStream out = new FileOutputStream(getJournalFile(dbfile));
+        try {
+            out.write(phase.getBytes("UTF-8"));
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String readJournal(File journal) {
+        try {
+            FileInputStream in = new FileInputStream(journal);
+            try {
+                byte[] buf = new byte[16];
+                int len = in.read(buf);
+                return (len > 0) ? new String(buf, 0, len, "UTF-8") : "";
+            } finally {
+                in.close();
+            }
+        } catch (IOException ex) {
+            Log.e(SQLitePlugin.class.getSimpleName(), "couldn't read rekey journal", ex);
+            return "";
+        }
+    }
+} /* vim: set expandtab : */
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2012-present Christopher J. Brody (aka Chris Brody)
+ * Copyright (c) 2005-2010, Nitobi Software Inc.
+ * Copyright (c) 2010, IBM Corporation
+ */
+
+package io.sqlc;
+
+import org.apache.cordova.CallbackContext;
+
+import org.json.JSONArray;
+
+/**
+ * Database of a db runner (see SQLiteDBRunner), as used by the db thread:
+ * implemented by SQLiteAndroidDatabase, and by a fake database in the JVM tests
+ * of the runner and queue lifecycle.
+ */
+interface SQLiteRunnerDatabase
+{
+    /**
+     * Execute a batch (the results are sent to the callback context).
+     */
+    void executeSqlBatch(String[] queryarr, JSONArray[] jsonparamsArr, CallbackContext cbc);
+
+    /**
+     * Execute a read-only batch (the results are sent to the callback context).
+     */
+    void executeReadOnlyBatch(String[] queryarr, JSONArray[] jsonparamsArr, CallbackContext cbc);
+
+    /**
+     * @return true while a transaction is in progress (the jobs wait for its end)
+     */
+    boolean isTransactionActive();
+
+    /**
+     * Close the idle query cursors.
+     *
+     * @return time in milliseconds until the next idle cursor expires, or -1 if no cursor is open
+     */
+    long expireCursors();
+
+    /**
+     * Run the next step of a job.
+     *
+     * @return true if the job is finished
+     */
+    boolean stepJob(SQLiteJob job) throws Exception;
+
+    /**
+     * Clean up after a job that failed or was cancelled.
+     */
+    void cleanupJob(SQLiteJob job);
+
+    void closeDatabaseNow();
+} /* vim: set expandtab : */
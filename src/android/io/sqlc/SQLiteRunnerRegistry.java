@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2012-present Christopher J. Brody (aka Chris Brody)
+ * Copyright (c) 2005-2010, Nitobi Software Inc.
+ * Copyright (c) 2010, IBM Corporation
+ */
+
+package io.sqlc;
+
+import android.util.Log;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cordova.CallbackContext;
+
+/**
+ * Multiple database runner map: starts, finds, and closes the db runners
+ * (see SQLiteDBRunner) by database name.
+ *
+ * NOTE: Storing as Map<String, R> to avoid portabiity issue
+ * between Java 6/7/8 as discussed in:
+ * https://gist.github.com/AlainODea/1375759b8720a3f9f094
+ *
+ * THANKS to @NeoLSN (Jason Yang/楊朝傑) for giving the pointer in:
+ * https://github.com/litehelpers/Cordova-sqlite-storage/issues/727
+ */
+class SQLiteRunnerRegistry<R extends SQLiteDBRunner> {
+    private final Map<String, R> runners = new ConcurrentHashMap<String, R>();
+
+    /**
+     * Start a db runner (thread) for a database. In case the database is still
+     * being closed, the new runner replaces the closing runner in the map
+     * and opens the database once the closing runner is finished.
+     *
+     * @return false if the database is already open (with error sent to cbc)
+     */
+    boolean start(R r, Executor executor, CallbackContext cbc) {
+        while (true) {
+            R existing = runners.putIfAbsent(r.dbname, r);
+            if (existing == null) break;
+
+            if (!existing.closing.get()) {
+                // NO LONGER EXPECTED due to BUG 666 workaround solution:
+                cbc.error("INTERNAL ERROR: database already open for db name: " + r.dbname);
+                return false;
+            }
+
+            // pipelined reopen:
+            if (runners.replace(r.dbname, existing, r)) {
+                r.previous = existing;
+                break;
+            }
+        }
+
+        executor.execute(r);
+        return true;
+    }
+
+    R get(String dbname) {
+        return runners.get(dbname);
+    }
+
+    /**
+     * Get the db runner for a request, checking the generation (0 if not
+     * present in the request) so that a request for a closed generation fails fast.
+     *
+     * @return the db runner or null (with error sent to cbc)
+     */
+    R get(String dbname, long generation, CallbackContext cbc) {
+        R r = runners.get(dbname);
+        if (r == null) {
+            cbc.error("database not open");
+            return null;
+        }
+
+        if (generation != 0 && generation != r.generation) {
+            cbc.error("database handle is stale (database was closed or reopened)");
+            return null;
+        }
+
+        return r;
+    }
+
+    boolean containsKey(String dbname) {
+        return runners.containsKey(dbname);
+    }
+
+    boolean isEmpty() {
+        return runners.isEmpty();
+    }
+
+    Set<String> keySet() {
+        return runners.keySet();
+    }
+
+    /**
+     * Remove a runner (if it is still in the map for its database).
+     */
+    boolean remove(String dbname, SQLiteDBRunner r) {
+        return runners.remove(dbname, r);
+    }
+
+    /**
+     * Close (or delete) a database: the first request stops the runner,
+     * the other requests wait for the runner to finish (in another thread).
+     *
+     * @return false if the database is not open (nothing sent to cbc)
+     */
+    boolean close(String dbname, boolean delete, CallbackContext cbc, Executor executor) {
+        R r = runners.get(dbname);
+        if (r == null) return false;
+
+        if (!r.closing.compareAndSet(false, true)) {
+            // already closing:
+            afterClose(r, delete, cbc, executor);
+            return true;
+        }
+
+        try {
+            r.q.put(new SQLiteDBRunner.DBQuery(delete, cbc));
+        } catch(Exception e) {
+            if (cbc != null) {
+                cbc.error("couldn't close database" + e);
+            }
+            Log.e(SQLiteRunnerRegistry.class.getSimpleName(), "couldn't close database", e);
+        }
+        return true;
+    }
+
+    /**
+     * Stop the runner of a database (with no close callback) and remove it from the map.
+     */
+    void stop(String dbname) {
+        R r = runners.get(dbname);
+        if (r == null) return;
+
+        r.closing.set(true);
+        try {
+            // stop the db runner thread:
+            r.q.put(new SQLiteDBRunner.DBQuery());
+        } catch(Exception e) {
+            Log.e(SQLiteRunnerRegistry.class.getSimpleName(), "couldn't stop db thread", e);
+        }
+        runners.remove(dbname, r);
+    }
+
+    /**
+     * Wait (in another thread) for a runner that is already closing,
+     * then report the close or delete result.
+     */
+    private void afterClose(final R r, final boolean delete, final CallbackContext cbc, Executor executor) {
+        executor.execute(new Runnable() {
+            public void run() {
+                try {
+                    if (!r.closed.await(SQLiteDBRunner.CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                        cbc.error("timed out waiting for database to close");
+                        return;
+                    }
+                } catch (InterruptedException e) {
+                    cbc.error("interrupted waiting for database to close");
+                    return;
+                }
+
+                if (!delete || r.deleteDatabase()) {
+                    cbc.success();
+                } else {
+                    cbc.error("couldn't delete database");
+                }
+            }
+        });
+    }
+} /* vim: set expandtab : */
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2012-present Christopher J. Brody (aka Chris Brody)
+ * Copyright (c) 2005-2010, Nitobi Software Inc.
+ * Copyright (c) 2010, IBM Corporation
+ */
+
+package io.sqlc;
+
+import org.apache.cordova.CallbackContext;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Complete transaction (list of statements with savepoint groups),
+ * executed atomically in a single step of the db thread.
+ */
+class SQLiteTransactionJob extends SQLiteJob
+{
+    final JSONArray executes;
+    final boolean continueOnError;
+
+    private JSONObject result = null;
+
+    /**
+     * @param executes        List of statements and savepoint groups
+     * @param continueOnError true to continue after a statement error, false to abort
+     * @param cbc             Callback context for the result
+     */
+    SQLiteTransactionJob(JSONArray executes, boolean continueOnError, CallbackContext cbc) {
+        super(cbc);
+        this.executes = executes;
+        this.continueOnError = continueOnError;
+    }
+
+    @Override
+    boolean step(SQLiteAndroidDatabase mydb) throws Exception {
+        result = mydb.executeTransaction(executes, continueOnError);
+        return true;
+    }
+
+    @Override
+    JSONObject getResult() throws JSONException {
+        return result;
+    }
+} /* vim: set expandtab : */
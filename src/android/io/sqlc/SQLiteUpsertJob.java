@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2012-present Christopher J. Brody (aka Chris Brody)
+ * Copyright (c) 2005-2010, Nitobi Software Inc.
+ * Copyright (c) 2010, IBM Corporation
+ */
+
+package io.sqlc;
+
+import org.apache.cordova.CallbackContext;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Upsert batch (one INSERT statement with many rows of parameters),
+ * executed in a single transaction in one step of the db thread.
+ */
+class SQLiteUpsertJob extends SQLiteJob
+{
+    final String sql;
+    final JSONArray rows;
+    final boolean abortOnError;
+
+    private JSONObject result = null;
+
+    /**
+     * @param sql          INSERT or REPLACE statement with parameters
+     * @param rows         Array of parameter arrays
+     * @param abortOnError true to roll back all rows in case of an error other than a handled conflict
+     * @param cbc          Callback context for the result
+     */
+    SQLiteUpsertJob(String sql, JSONArray rows, boolean abortOnError, CallbackContext cbc) {
+        super(cbc);
+        this.sql = sql;
+        this.rows = rows;
+        this.abortOnError = abortOnError;
+    }
+
+    @Override
+    boolean step(SQLiteAndroidDatabase mydb) throws Exception {
+        result = mydb.executeUpsertBatch(sql, rows, abortOnError);
+        return true;
+    }
+
+    @Override
+    JSONObject getResult() throws JSONException {
+        return result;
+    }
+} /* vim: set expandtab : */
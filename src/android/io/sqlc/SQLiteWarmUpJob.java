@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2012-present Christopher J. Brody (aka Chris Brody)
+ * Copyright (c) 2005-2010, Nitobi Software Inc.
+ * Copyright (c) 2010, IBM Corporation
+ */
+
+package io.sqlc;
+
+import android.util.Log;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Warm-up of a newly opened database, one item in each step: statements
+ * compiled into the statement cache, then tables and indexes read into
+ * the page cache, until done or the time budget is used up.
+ *
+ * NOTE: the warm-up has no JS callback, the result is logged.
+ */
+class SQLiteWarmUpJob extends SQLiteJob
+{
+    final JSONArray statements;
+    final JSONArray tables;
+    final long budgetNanos;
+
+    private int next = 0;
+    private int compiled = 0;
+    private int read = 0;
+    private int failed = 0;
+    private long usedNanos = 0;
+
+    /**
+     * @param dbname   The name of the database (for the log)
+     * @param options  Warm-up options: statements, tables, budgetMs
+     */
+    SQLiteWarmUpJob(String dbname, JSONObject options) {
+        super(new LogCallback(dbname));
+        JSONArray s = options.optJSONArray("statements");
+        JSONArray t = options.optJSONArray("tables");
+        this.statements = (s != null) ? s : new JSONArray();
+        this.tables = (t != null) ? t : new JSONArray();
+        this.budgetNanos = options.optLong("budgetMs", 500) * 1000 * 1000;
+    }
+
+    @Override
+    boolean step(SQLiteAndroidDatabase mydb) throws Exception {
+        int total = statements.length() + tables.length();
+        if (next >= total || usedNanos >= budgetNanos) return true;
+
+        long start = System.nanoTime();
+
+        try {
+            if (next < statements.length()) {
+                mydb.precompileStatement(statements.getString(next));
+                ++compiled;
+            } else {
+                mydb.readAhead(tables.getString(next - statements.length()));
+                ++read;
+            }
+        } catch (Exception ex) {
+            // (the app will get the error from its own statement, if any)
+            ++failed;
+            Log.v("warmUp", "warm-up item failed: " + ex.getMessage());
+        }
+
+        ++next;
+        usedNanos += System.nanoTime() - start;
+
+        return next >= total || usedNanos >= budgetNanos;
+    }
+
+    @Override
+    JSONObject getResult() throws JSONException {
+        JSONObject result = new JSONObject();
+        result.put("compiled", compiled);
+        result.put("read", read);
+        result.put("failed", failed);
+        result.put("skipped", statements.length() + tables.length() - next);
+        result.put("ms", usedNanos / 1000 / 1000.0);
+        return result;
+    }
+
+    /**
+     * Logs the warm-up result.
+     */
+    private static final class LogCallback extends CallbackContext {
+        final String dbname;
+
+        LogCallback(String dbname) {
+            super("warmUp", null);
+            this.dbname = dbname;
+        }
+
+        @Override
+        public void sendPluginResult(PluginResult pluginResult) {
+            Log.v("warmUp", "warm-up of " + dbname + ": " + pluginResult.getMessage());
+        }
+    }
+} /* vim: set expandtab : */
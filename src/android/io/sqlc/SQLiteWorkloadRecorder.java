@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2012-present Christopher J. Brody (aka Chris Brody)
+ * Copyright (c) 2005-2010, Nitobi Software Inc.
+ * Copyright (c) 2010, IBM Corporation
+ */
+
+package io.sqlc;
+
+import android.util.Log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Optional workload recorder: each plugin action is written to a local trace
+ * file (one JSON object per line) upon completion, with its database name,
+ * statements, parameter shapes, batch boundaries, and latency, to be replayed
+ * by SQLiteWorkloadReplayer.
+ *
+ * By default the parameter values are redacted: only their shapes are recorded
+ * ("i" integer, "r" real, "s" string, "n" null), and the key is never recorded.
+ *
+ * NOTE: entries are written from the Cordova bridge thread and the db threads,
+ * so all access to the writer is synchronized.
+ */
+class SQLiteWorkloadRecorder
+{
+    final File file;
+    final boolean redact;
+    final long maxEntries;
+
+    private final long startNanos = System.nanoTime();
+
+    private Writer out;
+    private long entries = 0;
+    private long dropped = 0;
+
+    /**
+     * @param file        The trace file (replaced)
+     * @param redact      true to record the parameter shapes only
+     * @param maxEntries  Max number of entries (others are dropped)
+     */
+    SQLiteWorkloadRecorder(File file, boolean redact, long maxEntries) throws IOException {
+        this.file = file;
+        this.redact = redact;
+        this.maxEntries = maxEntries;
+
+        file.getParentFile().mkdirs();
+        this.out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+    }
+
+    /**
+     * Wrap the callback context of an action, to record the action upon completion.
+     */
+    CallbackContext wrap(String action, JSONArray args, CallbackContext cbc) {
+        JSONObject entry = new JSONObject();
+        try {
+            entry.put("t", elapsedMs(System.nanoTime()));
+            entry.put("action", action);
+
+            JSONObject o = args.optJSONObject(0);
+            if (o != null) describe(action, o, entry);
+        } catch (JSONException ex) {
+            Log.e(SQLitePlugin.class.getSimpleName(), "unexpected JSON error in workload recorder", ex);
+        }
+
+        return new RecordingCallback(entry, cbc);
+    }
+
+    /**
+     * Stop recording and close the trace file.
+     *
+     * @return { path, entries, dropped }
+     */
+    synchronized JSONObject stop() throws JSONException {
+        try {
+            if (out != null) out.close();
+        } catch (IOException ex) {
+            Log.e(SQLitePlugin.class.getSimpleName(), "couldn't close workload trace", ex);
+        }
+        out = null;
+
+        JSONObject result = new JSONObject();
+        result.put("path", file.getAbsolutePath());
+        result.put("entries", entries);
+        result.put("dropped", dropped);
+        return result;
+    }
+
+    private synchronized void write(JSONObject entry) {
+        if (out == null) return;
+
+        if (entries >= maxEntries) {
+            ++dropped;
+            return;
+        }
+
+        try {
+            out.write(entry.toString());
+            out.write('\n');
+            ++entries;
+        } catch (IOException ex) {
+            Log.e(SQLitePlugin.class.getSimpleName(), "couldn't write workload trace, stopped", ex);
+            try {
+                out.close();
+            } catch (IOException ignored) { }
+            out = null;
+        }
+    }
+
+    private double elapsedMs(long nanos) {
+        return (nanos - startNanos) / 1000 / 1000.0;
+    }
+
+    /**
+     * Add the database name and statements of an action to a trace entry.
+     */
+    private void describe(String action, JSONObject o, JSONObject entry) throws JSONException {
+        JSONObject dbargs = o.optJSONObject("dbargs");
+        String dbname = (dbargs != null) ? dbargs.optString("dbname", null) :
+            o.has("dbname") ? o.optString("dbname") :
+            o.has("name") ? o.optString("name") : o.optString("path", null);
+        if (dbname != null) entry.put("db", dbname);
+
+        if (o.has("readOnly")) entry.put("readOnly", o.optBoolean("readOnly"));
+
+        if (action.equals("executeMultiBatch")) {
+            JSONArray batches = o.optJSONArray("batches");
+            JSONArray recorded = new JSONArray();
+            for (int i = 0; batches != null && i < batches.length(); ++i) {
+                JSONObject b = new JSONObject();
+                describe("executeSqlBatch", batches.getJSONObject(i), b);
+                recorded.put(b);
+            }
+            entry.put("batches", recorded);
+        } else if (o.has("executes") && !action.equals("executePrepared")) {
+            JSONArray batch = new JSONArray();
+            addStatements(o.getJSONArray("executes"), batch);
+            entry.put("batch", batch);
+        } else if (o.has("sql")) {
+            JSONArray batch = new JSONArray();
+            batch.put(statement(o.getString("sql"), null));
+            entry.put("batch", batch);
+        }
+
+        if (action.equals("open")) {
+            // NOTE: the key is never recorded
+            entry.put("keyed", o.optString("key", "").length() > 0);
+            if (o.has("androidDatabaseMode")) entry.put("mode", o.getString("androidDatabaseMode"));
+        }
+    }
+
+    // statements of a batch or native transaction (savepoint groups flattened):
+    private void addStatements(JSONArray executes, JSONArray batch) throws JSONException {
+        for (int i = 0; i < executes.length(); ++i) {
+            JSONObject e = executes.optJSONObject(i);
+            if (e == null) continue;
+
+            if (e.has("savepoint")) {
+                addStatements(e.getJSONArray("savepoint"), batch);
+            } else {
+                batch.put(statement(e.optString("sql"), e.optJSONArray("params")));
+            }
+        }
+    }
+
+    private JSONObject statement(String sql, JSONArray params) throws JSONException {
+        JSONObject st = new JSONObject();
+        st.put("sql", sql);
+
+        if (params != null && params.length() > 0) {
+            if (redact) {
+                st.put("p", shapeOf(params));
+            } else {
+                st.put("params", params);
+            }
+        }
+
+        return st;
+    }
+
+    /**
+     * Get the shapes of the parameters: "i" integer, "r" real, "s" string, "n" null.
+     */
+    static String shapeOf(JSONArray params) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < params.length(); ++i) {
+            Object v = params.opt(i);
+            if (v == null || v == JSONObject.NULL) {
+                sb.append('n');
+            } else if (v instanceof Float || v instanceof Double) {
+                sb.append('r');
+            } else if (v instanceof Number) {
+                sb.append('i');
+            } else {
+                sb.append('s');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Records the action with its latency upon the final result
+     * (progress and other keep-callback results are passed through).
+     */
+    private final class RecordingCallback extends CallbackContext {
+        final JSONObject entry;
+        final CallbackContext cbc;
+        final long startNanos = System.nanoTime();
+
+        RecordingCallback(JSONObject entry, CallbackContext cbc) {
+            super(cbc.getCallbackId(), null);
+            this.entry = entry;
+            this.cbc = cbc;
+        }
+
+        @Override
+        public void sendPluginResult(PluginResult pluginResult) {
+            if (!pluginResult.getKeepCallback()) {
+                try {
+                    entry.put("ms", (System.nanoTime() - startNanos) / 1000 / 1000.0);
+                    entry.put("ok", pluginResult.getStatus() == PluginResult.Status.OK.ordinal());
+                } catch (JSONException ex) {
+                    // NOT expected
+                }
+                write(entry);
+            }
+
+            cbc.sendPluginResult(pluginResult);
+        }
+    }
+} /* vim: set expandtab : */
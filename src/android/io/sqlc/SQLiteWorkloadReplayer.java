@@ -0,0 +1,312 @@
+/*
+ * Copyright (c) 2012-present Christopher J. Brody (aka Chris Brody)
+ * Copyright (c) 2005-2010, Nitobi Software Inc.
+ * Copyright (c) 2010, IBM Corporation
+ */
+
+package io.sqlc;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Replays a workload trace (from SQLiteWorkloadRecorder) against scratch
+ * databases, one for each recorded database name, and reports the throughput
+ * and the latency percentiles of the replayed actions.
+ *
+ * Redacted parameters are synthesized from their recorded shapes (with distinct
+ * values for each statement, to avoid unique constraint conflicts).
+ *
+ * NOTE: the replay needs the SQLCipher native libs, so it runs on the device
+ * (in a background thread) and not on a plain JVM.
+ */
+class SQLiteWorkloadReplayer
+{
+    final File trace;
+    final File scratchDir;
+    final JSONArray setup;
+
+    private final Map<String, SQLiteAndroidDatabase> databases = new HashMap<String, SQLiteAndroidDatabase>();
+
+    private long synthesized = 0;
+
+    private int entries = 0;
+    private int replayed = 0;
+    private int skipped = 0;
+    private int failed = 0;
+    private int failedStatements = 0;
+
+    private long[] latencies = new long[256];
+
+    /**
+     * @param trace      The trace file
+     * @param scratchDir Directory for the scratch database files, null for in-memory databases
+     * @param setup      Statements to execute on each scratch database before the replay (such as the schema), or null
+     */
+    SQLiteWorkloadReplayer(File trace, File scratchDir, JSONArray setup) {
+        this.trace = trace;
+        this.scratchDir = scratchDir;
+        this.setup = setup;
+    }
+
+    /**
+     * Replay the trace (in a background thread).
+     *
+     * @return { entries, replayed, skipped, failed, failedStatements, totalMs, opsPerSecond,
+     *           latency: { p50, p90, p99, max } } with the latencies in milliseconds
+     */
+    JSONObject replay() throws Exception {
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(trace), "UTF-8"));
+
+        long totalNanos = 0;
+
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.trim().length() == 0) continue;
+                ++entries;
+
+                JSONObject entry = new JSONObject(line);
+
+                long start = System.nanoTime();
+                Boolean ok = replayEntry(entry);
+                long nanos = System.nanoTime() - start;
+
+                if (ok == null) {
+                    ++skipped;
+                } else {
+                    if (!ok) ++failed;
+                    addLatency(nanos);
+                    totalNanos += nanos;
+                }
+            }
+        } finally {
+            in.close();
+            closeAll();
+        }
+
+        long[] sorted = Arrays.copyOf(latencies, replayed);
+        Arrays.sort(sorted);
+
+        JSONObject latency = new JSONObject();
+        latency.put("p50", percentileMs(sorted, 50));
+        latency.put("p90", percentileMs(sorted, 90));
+        latency.put("p99", percentileMs(sorted, 99));
+        latency.put("max", (replayed > 0) ? sorted[replayed - 1] / 1000 / 1000.0 : 0);
+
+        JSONObject result = new JSONObject();
+        result.put("entries", entries);
+        result.put("replayed", replayed);
+        result.put("skipped", skipped);
+        result.put("failed", failed);
+        result.put("failedStatements", failedStatements);
+        result.put("totalMs", totalNanos / 1000 / 1000.0);
+        result.put("opsPerSecond", (totalNanos > 0) ? replayed * 1.0e9 / totalNanos : 0);
+        result.put("latency", latency);
+        return result;
+    }
+
+    /**
+     * @return true if replayed, false if replayed with a failure, null if skipped
+     */
+    private Boolean replayEntry(JSONObject entry) throws Exception {
+        String action = entry.optString("action");
+
+        if (action.equals("executeMultiBatch")) {
+            JSONArray batches = entry.optJSONArray("batches");
+            if (batches == null) return null;
+
+            boolean ok = true;
+            for (int i = 0; i < batches.length(); ++i) {
+                JSONObject b = batches.getJSONObject(i);
+                if (!replayBatch(b.optString("db"), b.optJSONArray("batch"), b.optBoolean("readOnly"))) ok = false;
+            }
+            return ok;
+        }
+
+        JSONArray batch = entry.optJSONArray("batch");
+        if (batch == null || !entry.has("db")) return null;
+
+        if (action.equals("executeSqlBatch") || action.equals("backgroundExecuteSqlBatch")) {
+            return replayBatch(entry.getString("db"), batch, entry.optBoolean("readOnly"));
+        }
+
+        if (action.equals("executeTransaction")) {
+            JSONArray executes = new JSONArray();
+            for (int i = 0; i < batch.length(); ++i) {
+                JSONObject st = batch.getJSONObject(i);
+                JSONObject e = new JSONObject();
+                e.put("sql", st.getString("sql"));
+                e.put("params", paramsFor(st));
+                executes.put(e);
+            }
+
+            try {
+                JSONObject r = getDatabase(entry.getString("db")).executeTransaction(executes, true);
+                countFailedStatements(r.getJSONArray("results"));
+                return r.optBoolean("committed", false);
+            } catch (Exception ex) {
+                return false;
+            }
+        }
+
+        // (other actions such as open, close, and prepared statements)
+        return null;
+    }
+
+    private boolean replayBatch(String dbname, JSONArray batch, boolean readOnly) throws Exception {
+        if (batch == null || batch.length() == 0) return true;
+
+        int len = batch.length();
+        String[] queries = new String[len];
+        JSONArray[] jsonparams = new JSONArray[len];
+
+        for (int i = 0; i < len; ++i) {
+            JSONObject st = batch.getJSONObject(i);
+            queries[i] = st.getString("sql");
+            jsonparams[i] = paramsFor(st);
+        }
+
+        ReplayCallback cbc = new ReplayCallback();
+        SQLiteAndroidDatabase mydb = getDatabase(dbname);
+
+        if (readOnly) {
+            mydb.executeReadOnlyBatch(queries, jsonparams, cbc);
+        } else {
+            mydb.executeSqlBatch(queries, jsonparams, cbc);
+        }
+
+        if (cbc.results == null) return false;
+
+        return countFailedStatements(cbc.results) == 0;
+    }
+
+    private int countFailedStatements(JSONArray results) {
+        int count = 0;
+        for (int i = 0; i < results.length(); ++i) {
+            JSONObject r = results.optJSONObject(i);
+            if (r != null && "error".equals(r.optString("type"))) ++count;
+        }
+        failedStatements += count;
+        return count;
+    }
+
+    // recorded parameters, or parameters synthesized from the recorded shapes:
+    private JSONArray paramsFor(JSONObject st) throws JSONException {
+        JSONArray params = st.optJSONArray("params");
+        if (params != null) return params;
+
+        params = new JSONArray();
+
+        String shape = st.optString("p", "");
+        if (shape.length() == 0) return params;
+
+        long v = ++synthesized;
+        for (int i = 0; i < shape.length(); ++i) {
+            switch (shape.charAt(i)) {
+                case 'i': params.put(v); break;
+                case 'r': params.put(v + 0.5); break;
+                case 's': params.put("s" + v); break;
+                default: params.put(JSONObject.NULL); break;
+            }
+        }
+        return params;
+    }
+
+    private SQLiteAndroidDatabase getDatabase(String dbname) throws Exception {
+        SQLiteAndroidDatabase mydb = databases.get(dbname);
+        if (mydb != null) return mydb;
+
+        mydb = new SQLiteAndroidDatabase();
+
+        if (scratchDir != null) {
+            File dbfile = getScratchFile(dbname);
+            deleteScratchFile(dbfile);
+            mydb.open(dbfile, "");
+            mydb.enableScratchMode();
+        } else {
+            mydb.openInMemory("");
+        }
+
+        databases.put(dbname, mydb);
+
+        if (setup != null && setup.length() > 0) {
+            String[] queries = new String[setup.length()];
+            JSONArray[] jsonparams = new JSONArray[setup.length()];
+            for (int i = 0; i < queries.length; ++i) {
+                queries[i] = setup.getString(i);
+                jsonparams[i] = new JSONArray();
+            }
+            mydb.executeSqlBatch(queries, jsonparams, new ReplayCallback());
+        }
+
+        return mydb;
+    }
+
+    private void closeAll() {
+        for (Map.Entry<String, SQLiteAndroidDatabase> e: databases.entrySet()) {
+            e.getValue().closeDatabaseNow();
+            if (scratchDir != null) deleteScratchFile(getScratchFile(e.getKey()));
+        }
+        databases.clear();
+    }
+
+    private File getScratchFile(String dbname) {
+        return new File(scratchDir, "replay-" + Integer.toHexString(dbname.hashCode()) + ".db");
+    }
+
+    private static void deleteScratchFile(File dbfile) {
+        dbfile.delete();
+        new File(dbfile.getAbsolutePath() + "-journal").delete();
+    }
+
+    private void addLatency(long nanos) {
+        if (replayed == latencies.length) latencies = Arrays.copyOf(latencies, replayed * 2);
+        latencies[replayed++] = nanos;
+    }
+
+    private static double percentileMs(long[] sorted, int p) {
+        if (sorted.length == 0) return 0;
+        int i = (int)Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(i, 0)] / 1000 / 1000.0;
+    }
+
+    /**
+     * Stub callback context that keeps the batch results.
+     */
+    private static final class ReplayCallback extends CallbackContext {
+        JSONArray results = null;
+
+        ReplayCallback() {
+            super("replay", null);
+        }
+
+        @Override
+        public void success(JSONArray batchResults) {
+            results = batchResults;
+        }
+
+        @Override
+        public void error(String message) {
+            results = null;
+        }
+
+        @Override
+        public void sendPluginResult(PluginResult pluginResult) {
+            // (ignored)
+        }
+    }
+} /* vim: set expandtab : */
@@ -0,0 +1,440 @@
+/*
+ * Copyright (c) 2012-present Christopher J. Brody (aka Chris Brody)
+ * Copyright (c) 2005-2010, Nitobi Software Inc.
+ * Copyright (c) 2010, IBM Corporation
+ */
+
+package io.sqlc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Db runner and queue lifecycle (SQLiteDBRunner, SQLiteRunnerRegistry) with
+ * a fake database: concurrent open, close, delete, batch, and job requests
+ * for the same databases, from several threads at once.
+ *
+ * NOTE: these are local JVM unit tests (the android.util.Log calls need
+ * unitTests.returnDefaultValues = true with the Android Gradle plugin).
+ */
+public class SQLiteDBRunnerStressTest {
+    private static final String[] NAMES = { "a.db", "b.db", "c.db" };
+    private static final int THREADS = 8;
+    private static final int REQUESTS = 400;
+    private static final int TIMEOUT_SECONDS = 30;
+
+    private static final String BLOCK = "BLOCK";
+
+    private ExecutorService executor;
+    private SQLiteRunnerRegistry<FakeRunner> registry;
+
+    // number of open fake databases for each name, and set if ever more than one:
+    private final Map<String, AtomicInteger> openCount = new ConcurrentHashMap<String, AtomicInteger>();
+    private final AtomicBoolean overlap = new AtomicBoolean(false);
+
+    private final List<Recorder> requests = new ArrayList<Recorder>();
+
+    // released to finish a BLOCK batch:
+    private volatile CountDownLatch unblock = new CountDownLatch(0);
+    private volatile CountDownLatch blocked = new CountDownLatch(0);
+
+    @Before
+    public void setUp() {
+        executor = Executors.newCachedThreadPool();
+        registry = new SQLiteRunnerRegistry<FakeRunner>();
+        for (String name: NAMES) openCount.put(name, new AtomicInteger(0));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        unblock.countDown();
+        for (String name: NAMES) close(name, false);
+        awaitAll();
+        executor.shutdownNow();
+    }
+
+    @Test(timeout = 120000)
+    public void everyRequestGetsOneResult() throws Exception {
+        final CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        Thread[] threads = new Thread[THREADS];
+
+        for (int t = 0; t < THREADS; ++t) {
+            final Random random = new Random(t);
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        barrier.await();
+                    } catch (Exception e) {
+                        return;
+                    }
+                    for (int i = 0; i < REQUESTS; ++i) randomRequest(random);
+                }
+            });
+            threads[t].start();
+        }
+
+        for (Thread t: threads) t.join();
+
+        for (int i = 0; i < NAMES.length; ++i) close(NAMES[i], i % 2 == 1);
+        awaitAll();
+
+        List<Recorder> all = getRequests();
+        for (Recorder r: all) {
+            assertEquals(r.what, 1, r.finalResults.get());
+        }
+
+        assertFalse("two connections open for the same database", overlap.get());
+        for (String name: NAMES) {
+            assertEquals(name, 0, openCount.get(name).get());
+            assertFalse(name, registry.containsKey(name));
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void requestForStaleGenerationIsRejected() throws Exception {
+        long first = open("a.db").awaitGeneration();
+        close("a.db", false).awaitSuccess();
+        long second = open("a.db").awaitGeneration();
+
+        assertTrue(first != second);
+
+        Recorder stale = batch("a.db", first, "SELECT 1");
+        stale.await();
+        assertEquals("database handle is stale (database was closed or reopened)", stale.errorMessage());
+
+        batch("a.db", second, "SELECT 1").awaitSuccess();
+        batch("a.db", 0, "SELECT 1").awaitSuccess();
+    }
+
+    @Test(timeout = 60000)
+    public void secondCloseWaitsForTheRunner() throws Exception {
+        long generation = open("a.db").awaitGeneration();
+        Recorder b = block("a.db", generation);
+
+        Recorder close1 = close("a.db", false);
+        Recorder close2 = close("a.db", true);
+        Recorder after = batch("a.db", generation, "SELECT 1");
+
+        assertFalse(close2.done.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(0, close1.finalResults.get());
+
+        unblock.countDown();
+
+        b.awaitSuccess();
+        close1.awaitSuccess();
+        close2.awaitSuccess();
+        after.await();
+        assertEquals("database closed", after.errorMessage());
+
+        assertFalse(registry.containsKey("a.db"));
+        assertEquals(0, openCount.get("a.db").get());
+    }
+
+    @Test(timeout = 60000)
+    public void reopenWaitsForThePreviousClose() throws Exception {
+        long generation = open("a.db").awaitGeneration();
+        block("a.db", generation);
+
+        Recorder closing = close("a.db", false);
+        Recorder reopen = open("a.db");
+
+        assertFalse(reopen.done.await(200, TimeUnit.MILLISECONDS));
+
+        unblock.countDown();
+
+        closing.awaitSuccess();
+        assertTrue(reopen.awaitGeneration() > generation);
+        assertFalse(overlap.get());
+        assertEquals(1, openCount.get("a.db").get());
+    }
+
+    @Test(timeout = 60000)
+    public void unfinishedJobsAreCancelledUponClose() throws Exception {
+        long generation = open("a.db").awaitGeneration();
+        FakeRunner r = registry.get("a.db");
+        block("a.db", generation);
+
+        FakeJob job = new FakeJob(5, false, new Recorder("job"));
+        r.queueJob(job);
+        Recorder closing = close("a.db", false);
+
+        unblock.countDown();
+
+        closing.awaitSuccess();
+        Recorder jobResult = (Recorder)job.cbc;
+        jobResult.await();
+        assertEquals("database closed", jobResult.errorMessage());
+        assertEquals(1, job.steps.get());
+        assertEquals(1, job.cleanups.get());
+
+        assertEquals(0, r.pendingJobs.get());
+        assertEquals(0, r.pendingBatches.get());
+    }
+
+    @Test(timeout = 60000)
+    public void exclusiveJobFailsWhileOtherJobsAreInProgress() throws Exception {
+        long generation = open("a.db").awaitGeneration();
+        FakeRunner r = registry.get("a.db");
+        block("a.db", generation);
+
+        FakeJob job = new FakeJob(3, false, new Recorder("job"));
+        FakeJob exclusive = new FakeJob(1, true, new Recorder("exclusive job"));
+        r.queueJob(job);
+        r.queueJob(exclusive);
+
+        unblock.countDown();
+
+        ((Recorder)job.cbc).awaitSuccess();
+        Recorder exclusiveResult = (Recorder)exclusive.cbc;
+        exclusiveResult.await();
+        assertEquals("job failed: other jobs are in progress", exclusiveResult.errorMessage());
+        assertEquals(0, exclusive.steps.get());
+        assertEquals(0, r.pendingJobs.get());
+    }
+
+    private void randomRequest(Random random) {
+        String name = NAMES[random.nextInt(NAMES.length)];
+        FakeRunner r = registry.get(name);
+        long generation = (r != null) ? r.generation : 0;
+
+        switch (random.nextInt(8)) {
+            case 0:
+                open(name);
+                break;
+            case 1:
+                close(name, false);
+                break;
+            case 2:
+                close(name, true);
+                break;
+            case 3:
+                // (possibly stale)
+                batch(name, Math.max(1, generation - random.nextInt(2)), "SELECT 1");
+                break;
+            case 4:
+                if (r != null) r.queueJob(new FakeJob(1 + random.nextInt(3), random.nextInt(4) == 0, newRecorder("job " + name)));
+                break;
+            default:
+                batch(name, generation, "SELECT 1");
+                break;
+        }
+    }
+
+    private Recorder open(String name) {
+        Recorder cbc = newRecorder("open " + name);
+        registry.start(new FakeRunner(name, registry, cbc), executor, cbc);
+        return cbc;
+    }
+
+    private Recorder close(String name, boolean delete) {
+        Recorder cbc = newRecorder((delete ? "delete " : "close ") + name);
+        if (!registry.close(name, delete, cbc, executor)) cbc.success();
+        return cbc;
+    }
+
+    private Recorder batch(String name, long generation, String sql) {
+        Recorder cbc = newRecorder("batch " + name);
+        FakeRunner r = registry.get(name, generation, cbc);
+        if (r != null) {
+            r.queueBatch(new SQLiteDBRunner.DBQuery(new String[] { sql }, new JSONArray[] { new JSONArray() }, false, cbc));
+        }
+        return cbc;
+    }
+
+    /**
+     * Queue a batch that blocks the db thread until unblock is released.
+     */
+    private Recorder block(String name, long generation) throws InterruptedException {
+        unblock = new CountDownLatch(1);
+        blocked = new CountDownLatch(1);
+        Recorder b = batch(name, generation, BLOCK);
+        assertTrue(blocked.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        return b;
+    }
+
+    private Recorder newRecorder(String what) {
+        Recorder r = new Recorder(what);
+        synchronized (requests) {
+            requests.add(r);
+        }
+        return r;
+    }
+
+    private List<Recorder> getRequests() {
+        synchronized (requests) {
+            return new ArrayList<Recorder>(requests);
+        }
+    }
+
+    private void awaitAll() throws InterruptedException {
+        for (Recorder r: getRequests()) {
+            assertTrue("no result for: " + r.what, r.done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+    }
+
+    private class FakeDatabase implements SQLiteRunnerDatabase {
+        final String dbname;
+        boolean open = true;
+
+        FakeDatabase(String dbname) {
+            this.dbname = dbname;
+            if (openCount.get(dbname).incrementAndGet() > 1) overlap.set(true);
+        }
+
+        public void executeSqlBatch(String[] queryarr, JSONArray[] jsonparamsArr, CallbackContext cbc) {
+            if (queryarr[0].equals(BLOCK)) {
+                blocked.countDown();
+                try {
+                    unblock.await();
+                } catch (InterruptedException e) {
+                    cbc.error("interrupted");
+                    return;
+                }
+            }
+            cbc.success(new JSONArray());
+        }
+
+        public void executeReadOnlyBatch(String[] queryarr, JSONArray[] jsonparamsArr, CallbackContext cbc) {
+            executeSqlBatch(queryarr, jsonparamsArr, cbc);
+        }
+
+        public boolean isTransactionActive() {
+            return false;
+        }
+
+        public long expireCursors() {
+            return -1;
+        }
+
+        public boolean stepJob(SQLiteJob job) throws Exception {
+            return job.step(null);
+        }
+
+        public void cleanupJob(SQLiteJob job) {
+            job.cleanup(null);
+        }
+
+        public void closeDatabaseNow() {
+            if (open) {
+                open = false;
+                openCount.get(dbname).decrementAndGet();
+            }
+        }
+    }
+
+    private class FakeRunner extends SQLiteDBRunner {
+        FakeRunner(String dbname, SQLiteRunnerRegistry<FakeRunner> registry, CallbackContext cbc) {
+            super(dbname, registry, cbc);
+        }
+
+        @Override
+        SQLiteRunnerDatabase openDatabase(JSONObject openResult) {
+            return new FakeDatabase(dbname);
+        }
+
+        @Override
+        boolean deleteDatabase() {
+            return true;
+        }
+    }
+
+    private static class FakeJob extends SQLiteJob {
+        final int totalSteps;
+        final boolean exclusive;
+        final AtomicInteger steps = new AtomicInteger(0);
+        final AtomicInteger cleanups = new AtomicInteger(0);
+
+        FakeJob(int totalSteps, boolean exclusive, CallbackContext cbc) {
+            super(cbc);
+            this.totalSteps = totalSteps;
+            this.exclusive = exclusive;
+        }
+
+        @Override
+        boolean step(SQLiteAndroidDatabase mydb) {
+            return steps.incrementAndGet() >= totalSteps;
+        }
+
+        @Override
+        JSONObject getResult() throws JSONException {
+            return new JSONObject().put("steps", steps.get());
+        }
+
+        @Override
+        void cleanup(SQLiteAndroidDatabase mydb) {
+            cleanups.incrementAndGet();
+        }
+
+        @Override
+        boolean isExclusive() {
+            return exclusive;
+        }
+    }
+
+    /**
+     * Records the final results (including any result sent after the
+     * first final result, which the Cordova bridge would drop).
+     */
+    private static class Recorder extends CallbackContext {
+        final String what;
+        final AtomicInteger finalResults = new AtomicInteger(0);
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile PluginResult result;
+
+        Recorder(String what) {
+            super(what, null);
+            this.what = what;
+        }
+
+        @Override
+        public void sendPluginResult(PluginResult pluginResult) {
+            if (pluginResult.getKeepCallback()) return;
+
+            if (finalResults.incrementAndGet() == 1) result = pluginResult;
+            done.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue("no result for: " + what, done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+
+        void awaitSuccess() throws InterruptedException {
+            await();
+            assertEquals(what + ": " + result.getMessage(), PluginResult.Status.OK.ordinal(), result.getStatus());
+        }
+
+        long awaitGeneration() throws Exception {
+            awaitSuccess();
+            return new JSONObject(result.getMessage()).getLong("generation");
+        }
+
+        String errorMessage() throws JSONException {
+            assertEquals(what, PluginResult.Status.ERROR.ordinal(), result.getStatus());
+            return new JSONArray("[" + result.getMessage() + "]").getString(0);
+        }
+    }
+} /* vim: set expandtab : */
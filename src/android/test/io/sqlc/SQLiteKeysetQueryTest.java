@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2012-present Christopher J. Brody (aka Chris Brody)
+ * Copyright (c) 2005-2010, Nitobi Software Inc.
+ * Copyright (c) 2010, IBM Corporation
+ */
+
+package io.sqlc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Queries of the keyset paging (SQLiteAndroidDatabase.queryPage): the check of
+ * the query order and the keyset query by rowid of a plain table query.
+ */
+public class SQLiteKeysetQueryTest {
+
+    @Test
+    public void maskQueryKeepsTheLength() {
+        String q = "SELECT 'a''b', \"c d\", [e f] /* g */ FROM t WHERE x IN (SELECT y FROM u) -- h\n";
+        String masked = SQLiteAndroidDatabase.maskQuery(q);
+
+        assertEquals(q.length(), masked.length());
+        assertEquals("SELECT 'xxxx', \"xxx\", [xxx]         FROM t WHERE x IN (" + spaces(15) + ")", masked.trim());
+    }
+
+    @Test
+    public void queryWithNoOrderIsAccepted() {
+        SQLiteAndroidDatabase.checkKeysetQuery("SELECT id, name FROM Items WHERE name > ?", "id");
+    }
+
+    @Test
+    public void orderByTheKeyIsAccepted() {
+        SQLiteAndroidDatabase.checkKeysetQuery("SELECT id FROM Items ORDER BY id", "id");
+        SQLiteAndroidDatabase.checkKeysetQuery("SELECT id FROM Items ORDER BY Items.\"id\" ASC;", "id");
+    }
+
+    @Test
+    public void orderWithinSubqueryIsAccepted() {
+        SQLiteAndroidDatabase.checkKeysetQuery(
+            "SELECT id, (SELECT max(ts) FROM Events ORDER BY ts LIMIT 1) AS last FROM Items", "id");
+        SQLiteAndroidDatabase.checkKeysetQuery(
+            "SELECT id, row_number() OVER (ORDER BY name) AS n FROM Items", "id");
+        SQLiteAndroidDatabase.checkKeysetQuery("SELECT id FROM Items WHERE name = 'ORDER BY name'", "id");
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void orderByOtherColumnIsRejected() {
+        SQLiteAndroidDatabase.checkKeysetQuery("SELECT id, ts FROM Items ORDER BY ts", "id");
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void descendingOrderIsRejected() {
+        SQLiteAndroidDatabase.checkKeysetQuery("SELECT id FROM Items ORDER BY id DESC", "id");
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void orderBySeveralColumnsIsRejected() {
+        SQLiteAndroidDatabase.checkKeysetQuery("SELECT id FROM Items ORDER BY id, name", "id");
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void limitIsRejected() {
+        SQLiteAndroidDatabase.checkKeysetQuery("SELECT id FROM Items LIMIT 10", "id");
+    }
+
+    @Test
+    public void rowidKeyQueryOfPlainTableQuery() {
+        assertEquals("SELECT Items.rowid AS \"_sqlc_rowid_\", * FROM Items",
+            SQLiteAndroidDatabase.getRowidKeyQuery("SELECT * FROM Items;"));
+        assertEquals("SELECT i.rowid AS \"_sqlc_rowid_\", id, name FROM Items AS i WHERE name > ?",
+            SQLiteAndroidDatabase.getRowidKeyQuery("SELECT id, name FROM Items AS i WHERE name > ?"));
+        assertEquals("select \"My Items\".rowid AS \"_sqlc_rowid_\", name from \"My Items\" where id in (select id from Other)",
+            SQLiteAndroidDatabase.getRowidKeyQuery("select name from \"My Items\" where id in (select id from Other)"));
+        assertEquals("SELECT main.Items.rowid AS \"_sqlc_rowid_\", name FROM main.Items",
+            SQLiteAndroidDatabase.getRowidKeyQuery("SELECT name FROM main.Items"));
+    }
+
+    @Test
+    public void noRowidKeyQueryOfOtherQueries() {
+        String[] queries = {
+            "SELECT DISTINCT name FROM Items",
+            "SELECT name FROM Items ORDER BY name",
+            "SELECT name FROM Items LIMIT 10",
+            "SELECT name, count(*) FROM Items GROUP BY name",
+            "SELECT count(*) FROM Items",
+            "SELECT a.name FROM Items a JOIN Other b ON a.id = b.id",
+            "SELECT a.name FROM Items a, Other b WHERE a.id = b.id",
+            "SELECT name FROM Items UNION SELECT name FROM Other",
+            "SELECT name FROM (SELECT name FROM Items)",
+            "WITH t AS (SELECT 1) SELECT * FROM t",
+            "PRAGMA table_info(Items)",
+        };
+
+        for (String q: queries) {
+            assertNull(q, SQLiteAndroidDatabase.getRowidKeyQuery(q));
+        }
+    }
+
+    private static String spaces(int count) {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < count) sb.append(' ');
+        return sb.toString();
+    }
+} /* vim: set expandtab : */
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2012-present Christopher J. Brody (aka Chris Brody)
+ * Copyright (c) 2005-2010, Nitobi Software Inc.
+ * Copyright (c) 2010, IBM Corporation
+ */
+
+package io.sqlc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Results of a multi-database batch (SQLiteMultiBatch), with the batch
+ * callbacks called from several threads at the same moment.
+ */
+public class SQLiteMultiBatchTest {
+    private static final int BATCHES = 8;
+    private static final int ROUNDS = 200;
+
+    @Test(timeout = 60000)
+    public void streamSendsEveryBatchResultBeforeDone() throws Exception {
+        for (int round = 0; round < ROUNDS; ++round) {
+            RecordingCallback cbc = new RecordingCallback();
+            completeAll(new SQLiteMultiBatch(BATCHES, true, cbc));
+
+            List<PluginResult> sent = cbc.getResults();
+            assertEquals(BATCHES + 1, sent.size());
+
+            boolean[] seen = new boolean[BATCHES];
+            for (int i = 0; i < BATCHES; ++i) {
+                PluginResult r = sent.get(i);
+                assertTrue(r.getKeepCallback());
+                JSONObject result = new JSONObject(r.getMessage());
+                assertEquals("success", result.getString("type"));
+                int index = result.getInt("index");
+                assertFalse(seen[index]);
+                seen[index] = true;
+            }
+
+            PluginResult end = sent.get(BATCHES);
+            assertFalse(end.getKeepCallback());
+            assertTrue(new JSONObject(end.getMessage()).getBoolean("done"));
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void combinedResultIsInBatchOrder() throws Exception {
+        for (int round = 0; round < ROUNDS; ++round) {
+            RecordingCallback cbc = new RecordingCallback();
+            completeAll(new SQLiteMultiBatch(BATCHES, false, cbc));
+
+            List<PluginResult> sent = cbc.getResults();
+            assertEquals(1, sent.size());
+
+            JSONArray combined = new JSONArray(sent.get(0).getMessage());
+            assertEquals(BATCHES, combined.length());
+            for (int i = 0; i < BATCHES; ++i) {
+                assertEquals(i, combined.getJSONObject(i).getInt("index"));
+                assertEquals("db" + i, combined.getJSONObject(i).getString("dbname"));
+            }
+        }
+    }
+
+    @Test
+    public void errorIsReportedWithTheOtherResults() throws Exception {
+        RecordingCallback cbc = new RecordingCallback();
+        SQLiteMultiBatch multi = new SQLiteMultiBatch(2, false, cbc);
+
+        multi.callbackFor(1, "db1").error("database not open");
+        assertEquals(0, cbc.getResults().size());
+
+        multi.callbackFor(0, "db0").success(new JSONArray());
+
+        JSONArray combined = new JSONArray(cbc.getResults().get(0).getMessage());
+        assertEquals("success", combined.getJSONObject(0).getString("type"));
+        assertEquals("error", combined.getJSONObject(1).getString("type"));
+        assertEquals("database not open", combined.getJSONObject(1).getString("message"));
+    }
+
+    /**
+     * Complete all batches from their own threads, released at the same moment.
+     */
+    private static void completeAll(final SQLiteMultiBatch multi) throws Exception {
+        final CyclicBarrier barrier = new CyclicBarrier(BATCHES);
+        Thread[] threads = new Thread[BATCHES];
+
+        for (int i = 0; i < BATCHES; ++i) {
+            final CallbackContext batchCbc = multi.callbackFor(i, "db" + i);
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        barrier.await();
+                    } catch (Exception e) {
+                        return;
+                    }
+                    batchCbc.success(new JSONArray());
+                }
+            });
+            threads[i].start();
+        }
+
+        for (Thread t: threads) t.join();
+    }
+
+    /**
+     * Records the results in the order they are sent (including any result
+     * sent after the final result, which the Cordova bridge would drop).
+     */
+    private static class RecordingCallback extends CallbackContext {
+        private final List<PluginResult> results = new ArrayList<PluginResult>();
+
+        RecordingCallback() {
+            super("multi-batch-test", null);
+        }
+
+        @Override
+        public synchronized void sendPluginResult(PluginResult pluginResult) {
+            results.add(pluginResult);
+        }
+
+        synchronized List<PluginResult> getResults() {
+            return new ArrayList<PluginResult>(results);
+        }
+    }
+} /* vim: set expandtab : */
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2012-present Christopher J. Brody (aka Chris Brody)
+ * Copyright (c) 2005-2010, Nitobi Software Inc.
+ * Copyright (c) 2010, IBM Corporation
+ */
+
+package io.sqlc;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Recovery of an interrupted rekey operation (SQLiteRekeyJob.recover) for each
+ * phase of the journal, with plain files in place of the database files.
+ */
+public class SQLiteRekeyJobTest {
+    private File dir;
+    private File dbfile;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("rekey-test", "");
+        dir.delete();
+        dir.mkdirs();
+        dbfile = new File(dir, "my.db");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f: files) f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void noJournal() throws IOException {
+        write(dbfile, "old");
+        write(SQLiteRekeyJob.getRekeyedFile(dbfile), "other");
+
+        assertFalse(SQLiteRekeyJob.recover(dbfile));
+
+        assertEquals("old", read(dbfile));
+        // (not touched with no journal)
+        assertTrue(SQLiteRekeyJob.getRekeyedFile(dbfile).exists());
+    }
+
+    @Test
+    public void interruptedCopyIsDiscarded() throws IOException {
+        write(dbfile, "old");
+        SQLiteRekeyJob.writeJournal(dbfile, SQLiteRekeyJob.PHASE_COPY);
+        File partial = new File(SQLiteRekeyJob.getRekeyedFile(dbfile).getAbsolutePath() + "-export");
+        write(partial, "partial");
+
+        assertFalse(SQLiteRekeyJob.recover(dbfile));
+
+        assertEquals("old", read(dbfile));
+        assertFalse(partial.exists());
+        assertFalse(SQLiteRekeyJob.getJournalFile(dbfile).exists());
+    }
+
+    @Test
+    public void incompleteJournalIsDiscarded() throws IOException {
+        write(dbfile, "old");
+        write(SQLiteRekeyJob.getJournalFile(dbfile), "");
+        write(SQLiteRekeyJob.getRekeyedFile(dbfile), "new");
+
+        assertFalse(SQLiteRekeyJob.recover(dbfile));
+
+        assertEquals("old", read(dbfile));
+        assertFalse(SQLiteRekeyJob.getRekeyedFile(dbfile).exists());
+        assertFalse(SQLiteRekeyJob.getJournalFile(dbfile).exists());
+    }
+
+    @Test
+    public void interruptedSwapIsCompleted() throws IOException {
+        write(dbfile, "old");
+        write(SQLiteRekeyJob.getRekeyedFile(dbfile), "new");
+        SQLiteRekeyJob.writeJournal(dbfile, SQLiteRekeyJob.PHASE_SWAP);
+
+        assertTrue(SQLiteRekeyJob.recover(dbfile));
+
+        assertEquals("new", read(dbfile));
+        assertFalse(SQLiteRekeyJob.getRekeyedFile(dbfile).exists());
+        assertFalse(SQLiteRekeyJob.getJournalFile(dbfile).exists());
+    }
+
+    @Test
+    public void swapAlreadyRenamed() throws IOException {
+        // (stopped after the rename, before the journal was deleted)
+        write(dbfile, "new");
+        SQLiteRekeyJob.writeJournal(dbfile, SQLiteRekeyJob.PHASE_SWAP);
+
+        assertTrue(SQLiteRekeyJob.recover(dbfile));
+
+        assertEquals("new", read(dbfile));
+        assertFalse(SQLiteRekeyJob.getJournalFile(dbfile).exists());
+    }
+
+    @Test
+    public void failedSwapKeepsJournal() throws IOException {
+        // (a non-empty directory cannot be replaced by rename)
+        dbfile.mkdirs();
+        File inner = new File(dbfile, "inner");
+        write(inner, "x");
+        write(SQLiteRekeyJob.getRekeyedFile(dbfile), "new");
+        SQLiteRekeyJob.writeJournal(dbfile, SQLiteRekeyJob.PHASE_SWAP);
+
+        try {
+            SQLiteRekeyJob.recover(dbfile);
+            fail("expected IOException");
+        } catch (IOException e) {
+            // EXPECTED
+        }
+
+        assertTrue(SQLiteRekeyJob.getRekeyedFile(dbfile).exists());
+        assertTrue(SQLiteRekeyJob.getJournalFile(dbfile).exists());
+
+        inner.delete();
+        dbfile.delete();
+    }
+
+    @Test
+    public void deleteFilesRemovesRekeyFiles() throws IOException {
+        write(SQLiteRekeyJob.getRekeyedFile(dbfile), "new");
+        SQLiteRekeyJob.writeJournal(dbfile, SQLiteRekeyJob.PHASE_SWAP);
+
+        SQLiteRekeyJob.deleteFiles(dbfile);
+
+        assertFalse(SQLiteRekeyJob.getRekeyedFile(dbfile).exists());
+        assertFalse(SQLiteRekeyJob.getJournalFile(dbfile).exists());
+
+        // a new database with the same name is not replaced:
+        write(dbfile, "other");
+        assertFalse(SQLiteRekeyJob.recover(dbfile));
+        assertEquals("other", read(dbfile));
+    }
+
+    private static void write(File file, String contents) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(contents.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String read(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            byte[] buf = new byte[(int)file.length()];
+            int len = in.read(buf);
+            return new String(buf, 0, Math.max(len, 0), "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+} /* vim: set expandtab : */
@@ -1,5 +1,5 @@
 (function() {
-  var DB_STATE_INIT, DB_STATE_OPEN, READ_ONLY_REGEX, SQLiteFactory, SQLitePlugin, SQLitePluginTransaction, SelfTest, argsArray, dblocations, iosLocationMap, newSQLError, nextTick, root, txLocks;
+  var DB_STATE_INIT, DB_STATE_OPEN, READ_ONLY_REGEX, SQLiteFactory, SQLitePlugin, SQLitePluginNativeTransaction, SQLitePluginTransaction, SelfTest, argsArray, dblocations, iosLocationMap, nativeExecutesFor, nativeOpens, newSQLError, nextTick, resultSetFor, root, txLocks;
 
   root = this;
 
@@ -11,6 +11,8 @@
 
   txLocks = {};
 
+  nativeOpens = {};
+
   newSQLError = function(error, code) {
     var sqlError;
     sqlError = error;
@@ -62,6 +64,64 @@
     };
   };
 
+  nativeExecutesFor = function(statements) {
+    var executes, group, j, k, len1, len2, params, ref, st, t, v;
+    executes = [];
+    for (j = 0, len1 = statements.length; j < len1; j++) {
+      st = statements[j];
+      if (!!st && st.constructor === Array) {
+        if (st.length === 0) {
+          throw newSQLError('executeTransaction array element of zero (0) length');
+        }
+        params = [];
+        if (!!st[1] && st[1].constructor === Array) {
+          ref = st[1];
+          for (k = 0, len2 = ref.length; k < len2; k++) {
+            v = ref[k];
+            t = typeof v;
+            params.push(v === null || v === void 0 ? null : t === 'number' || t === 'string' ? v : v.toString());
+          }
+        }
+        executes.push({
+          sql: st[0],
+          params: params
+        });
+      } else if (!!st && !!st.savepoint) {
+        if (st.savepoint.constructor !== Array) {
+          throw newSQLError('executeTransaction savepoint group expects an array');
+        }
+        group = {
+          savepoint: nativeExecutesFor(st.savepoint)
+        };
+        if (!!st.onError) {
+          group.onError = st.onError;
+        }
+        executes.push(group);
+      } else {
+        executes.push({
+          sql: st,
+          params: []
+        });
+      }
+    }
+    return executes;
+  };
+
+  resultSetFor = function(response) {
+    var rows;
+    rows = response.rows || [];
+    return {
+      rows: {
+        item: function(i) {
+          return rows[i];
+        },
+        length: rows.length
+      },
+      rowsAffected: response.rowsAffected || 0,
+      insertId: response.insertId || void 0
+    };
+  };
+
   SQLitePlugin = function(openargs, openSuccess, openError) {
     var dbname;
     if (!(openargs && openargs['name'])) {
@@ -165,6 +225,7 @@
     var openerrorcb, opensuccesscb, step2;
     if (this.dbname in this.openDBs) {
       console.log('database already open: ' + this.dbname);
+      this.nativeOpen = nativeOpens[this.dbname] || {};
       nextTick((function(_this) {
         return function() {
           success(_this);
@@ -173,9 +234,12 @@
     } else {
       console.log('OPEN database: ' + this.dbname);
       opensuccesscb = (function(_this) {
-        return function() {
+        return function(result) {
           var txLock;
           console.log('OPEN database: ' + _this.dbname + ' - OK');
+          if (!!result && !!result.generation) {
+            _this.nativeOpen.generation = result.generation;
+          }
           if (!_this.openDBs[_this.dbname]) {
             console.log('database was closed during open operation');
           }
@@ -192,16 +256,20 @@
         };
       })(this);
       openerrorcb = (function(_this) {
-        return function() {
+        return function(e) {
           console.log('OPEN database: ' + _this.dbname + ' FAILED, aborting any pending transactions');
           if (!!error) {
-            error(newSQLError('Could not open database'));
+            error(newSQLError('Could not open database' + (typeof e === 'string' ? ': ' + e : '')));
           }
           delete _this.openDBs[_this.dbname];
+          if (nativeOpens[_this.dbname] === _this.nativeOpen) {
+            delete nativeOpens[_this.dbname];
+          }
           _this.abortAllPendingTransactions();
         };
       })(this);
       this.openDBs[this.dbname] = DB_STATE_INIT;
+      this.nativeOpen = nativeOpens[this.dbname] = {};
       step2 = (function(_this) {
         return function() {
           cordova.exec(opensuccesscb, openerrorcb, "SQLitePlugin", "open", [_this.openargs]);
@@ -224,6 +292,7 @@
       }
       console.log('CLOSE database: ' + this.dbname);
       delete this.openDBs[this.dbname];
+      delete nativeOpens[this.dbname];
       if (txLocks[this.dbname]) {
         console.log('closing db with transaction queue length: ' + txLocks[this.dbname].queue.length);
       } else {
@@ -244,6 +313,13 @@
     }
   };
 
+  SQLitePlugin.prototype.dbargs = function() {
+    return {
+      dbname: this.dbname,
+      generation: this.nativeOpen.generation
+    };
+  };
+
   SQLitePlugin.prototype.executeSql = function(statement, params, success, error) {
     var myerror, myfn, mysuccess;
     mysuccess = function(t, r) {
@@ -297,6 +373,378 @@
     this.addTransaction(new SQLitePluginTransaction(this, myfn, error, success, true, false));
   };
 
+  SQLitePlugin.prototype.executeTransaction = function(statements, options, success, error) {
+    var executes, onError;
+    if (!statements || statements.constructor !== Array) {
+      throw newSQLError('executeTransaction expects an array');
+    }
+    if (!this.openDBs[this.dbname]) {
+      if (!!error) {
+        error(newSQLError('database not open'));
+      }
+      return;
+    }
+    executes = nativeExecutesFor(statements);
+    onError = !!options && options.onError === 'continue' ? 'continue' : 'abort';
+    this.addTransaction(new SQLitePluginNativeTransaction(this, executes, onError, success, error));
+  };
+
+  SQLitePlugin.prototype.addChangeListener = function(listener, error) {
+    var mylistener;
+    mylistener = function(message) {
+      if (!!message && !!message.changes) {
+        listener(message);
+      }
+    };
+    cordova.exec(mylistener, error, "SQLitePlugin", "addChangeListener", [
+      {
+        dbargs: this.dbargs()
+      }
+    ]);
+  };
+
+  SQLitePlugin.prototype.removeChangeListeners = function(success, error) {
+    cordova.exec(success, error, "SQLitePlugin", "removeChangeListeners", [
+      {
+        dbargs: this.dbargs()
+      }
+    ]);
+  };
+
+  SQLitePlugin.prototype.prepare = function(sql, success, error) {
+    var mysuccess;
+    if (typeof sql !== 'string') {
+      throw newSQLError('prepare expects a statement string');
+    }
+    mysuccess = function(result) {
+      if (!!success) {
+        success(result.handle);
+      }
+    };
+    cordova.exec(mysuccess, error, "SQLitePlugin", "prepare", [
+      {
+        dbargs: this.dbargs(),
+        sql: sql
+      }
+    ]);
+  };
+
+  SQLitePlugin.prototype.executePreparedBatch = function(executes, success, error) {
+    var mysuccess;
+    if (!executes || executes.constructor !== Array) {
+      throw newSQLError('executePreparedBatch expects an array of [handle, params] arrays');
+    }
+    mysuccess = function(result) {
+      var r;
+      if (!!success) {
+        success((function() {
+          var j, len1, ref, results;
+          ref = result.results;
+          results = [];
+          for (j = 0, len1 = ref.length; j < len1; j++) {
+            r = ref[j];
+            results.push(r.type === 'success' ? resultSetFor(r.result) : r.result);
+          }
+          return results;
+        })());
+      }
+    };
+    cordova.exec(mysuccess, error, "SQLitePlugin", "executePrepared", [
+      {
+        dbargs: this.dbargs(),
+        executes: executes
+      }
+    ]);
+  };
+
+  SQLitePlugin.prototype.executePrepared = function(handle, params, success, error) {
+    var mysuccess;
+    mysuccess = function(results) {
+      var r;
+      r = results[0];
+      if (r.rows !== void 0) {
+        if (!!success) {
+          success(r);
+        }
+      } else {
+        if (!!error) {
+          error(newSQLError(r.message, r.code));
+        }
+      }
+    };
+    this.executePreparedBatch([[handle, params || []]], mysuccess, error);
+  };
+
+  SQLitePlugin.prototype.finalize = function(handle, success, error) {
+    cordova.exec(success, error, "SQLitePlugin", "finalize", [
+      {
+        dbargs: this.dbargs(),
+        handle: handle
+      }
+    ]);
+  };
+
+  SQLitePlugin.prototype.executeFiltered = function(sql, params, options, success, error) {
+    var filterargs, j, len1, mysuccess, name, ref;
+    if (typeof sql !== 'string') {
+      throw newSQLError('executeFiltered expects a statement string');
+    }
+    filterargs = {
+      dbargs: this.dbargs(),
+      sql: sql,
+      params: params || []
+    };
+    ref = ['where', 'select', 'aggregate', 'limit'];
+    for (j = 0, len1 = ref.length; j < len1; j++) {
+      name = ref[j];
+      if (!!options && options[name] !== void 0) {
+        filterargs[name] = options[name];
+      }
+    }
+    mysuccess = function(result) {
+      var rs;
+      if (!!success) {
+        rs = resultSetFor(result);
+        rs.rowsScanned = result.rowsScanned;
+        success(rs);
+      }
+    };
+    cordova.exec(mysuccess, error, "SQLitePlugin", "executeFiltered", [filterargs]);
+  };
+
+  SQLitePlugin.prototype.openCursor = function(sql, params, options, success, error) {
+    var cursorargs, mysuccess;
+    if (typeof sql !== 'string') {
+      throw newSQLError('openCursor expects a statement string');
+    }
+    cursorargs = {
+      dbargs: this.dbargs(),
+      sql: sql,
+      params: params || []
+    };
+    if (!!options && options.idleTimeout !== void 0) {
+      cursorargs.idleTimeout = options.idleTimeout;
+    }
+    if (!!options && !!options.keyColumn) {
+      cursorargs.keyColumn = options.keyColumn;
+    }
+    mysuccess = function(result) {
+      if (!!success) {
+        success(result.handle);
+      }
+    };
+    cordova.exec(mysuccess, error, "SQLitePlugin", "openCursor", [cursorargs]);
+  };
+
+  SQLitePlugin.prototype.fetchCursor = function(handle, count, success, error) {
+    var mysuccess;
+    mysuccess = function(result) {
+      var rs;
+      if (!!success) {
+        rs = resultSetFor(result);
+        rs.done = result.done;
+        success(rs);
+      }
+    };
+    cordova.exec(mysuccess, error, "SQLitePlugin", "fetchCursor", [
+      {
+        dbargs: this.dbargs(),
+        handle: handle,
+        count: count
+      }
+    ]);
+  };
+
+  SQLitePlugin.prototype.closeCursor = function(handle, success, error) {
+    cordova.exec(success, error, "SQLitePlugin", "closeCursor", [
+      {
+        dbargs: this.dbargs(),
+        handle: handle
+      }
+    ]);
+  };
+
+  SQLitePlugin.prototype.importData = function(options, success, error, progress) {
+    var importargs, j, len1, mysuccess, name, ref;
+    if (!options || !options.path || !options.table) {
+      throw newSQLError('importData expects an options object with the file path and table name');
+    }
+    importargs = {
+      dbargs: this.dbargs(),
+      path: options.path,
+      table: options.table
+    };
+    ref = ['format', 'columns', 'header', 'delimiter', 'onConflict', 'chunkRows', 'onError'];
+    for (j = 0, len1 = ref.length; j < len1; j++) {
+      name = ref[j];
+      if (options[name] !== void 0) {
+        importargs[name] = options[name];
+      }
+    }
+    mysuccess = function(result) {
+      if (!!result && !!result.progress) {
+        if (!!progress) {
+          progress(result);
+        }
+      } else {
+        if (!!success) {
+          success(result);
+        }
+      }
+    };
+    cordova.exec(mysuccess, error, "SQLitePlugin", "importData", [importargs]);
+  };
+
+  SQLitePlugin.prototype.exportQuery = function(sql, params, options, success, error, progress) {
+    var exportargs, j, len1, mysuccess, name, ref;
+    if (typeof sql !== 'string' || !options || !options.path) {
+      throw newSQLError('exportQuery expects a statement string and an options object with the file path');
+    }
+    exportargs = {
+      dbargs: this.dbargs(),
+      sql: sql,
+      params: params || [],
+      path: options.path
+    };
+    ref = ['format', 'gzip', 'header', 'delimiter', 'keyColumn', 'chunkRows'];
+    for (j = 0, len1 = ref.length; j < len1; j++) {
+      name = ref[j];
+      if (options[name] !== void 0) {
+        exportargs[name] = options[name];
+      }
+    }
+    mysuccess = function(result) {
+      if (!!result && !!result.progress) {
+        if (!!progress) {
+          progress(result);
+        }
+      } else {
+        if (!!success) {
+          success(result);
+        }
+      }
+    };
+    cordova.exec(mysuccess, error, "SQLitePlugin", "exportQuery", [exportargs]);
+  };
+
+  SQLitePlugin.prototype.exportDatabase = function(options, success, error, progress) {
+    var exportargs, mysuccess;
+    if (!options || !options.name) {
+      throw newSQLError('exportDatabase expects an options object with the target database name');
+    }
+    exportargs = {
+      dbargs: this.dbargs(),
+      target: options.name
+    };
+    if (options.key !== void 0) {
+      exportargs.key = options.key;
+    }
+    if (!!options.chunkRows) {
+      exportargs.chunkRows = options.chunkRows;
+    }
+    if (options.snapshot !== void 0) {
+      exportargs.snapshot = !!options.snapshot;
+    }
+    mysuccess = function(result) {
+      if (!!result && !!result.progress) {
+        if (!!progress) {
+          progress(result);
+        }
+      } else {
+        if (!!success) {
+          success(result);
+        }
+      }
+    };
+    cordova.exec(mysuccess, error, "SQLitePlugin", "exportDatabase", [exportargs]);
+  };
+
+  SQLitePlugin.prototype.rekey = function(newKey, success, error, progress, chunkRows) {
+    var mysuccess, rekeyargs;
+    if (typeof newKey !== 'string') {
+      throw newSQLError('rekey expects the new key as a string');
+    }
+    rekeyargs = {
+      dbargs: this.dbargs(),
+      key: newKey
+    };
+    if (!!chunkRows) {
+      rekeyargs.chunkRows = chunkRows;
+    }
+    mysuccess = function(result) {
+      if (!!result && !!result.progress) {
+        if (!!progress) {
+          progress(result);
+        }
+      } else {
+        if (!!success) {
+          success(result);
+        }
+      }
+    };
+    cordova.exec(mysuccess, error, "SQLitePlugin", "rekeyDatabase", [rekeyargs]);
+  };
+
+  SQLitePlugin.prototype.executeUpsertBatch = function(sql, rows, options, success, error) {
+    var mysuccess, upsertargs;
+    if (typeof sql !== 'string') {
+      throw newSQLError('executeUpsertBatch expects an INSERT statement string');
+    }
+    if (!rows || rows.constructor !== Array) {
+      throw newSQLError('executeUpsertBatch expects an array of parameter arrays');
+    }
+    upsertargs = {
+      dbargs: this.dbargs(),
+      sql: sql,
+      rows: rows,
+      onError: !!options && options.onError === 'abort' ? 'abort' : 'continue'
+    };
+    mysuccess = function(result) {
+      var sqlError;
+      if (result.committed) {
+        if (!!success) {
+          success(result);
+        }
+      } else {
+        if (!!error) {
+          sqlError = newSQLError('upsert batch rolled back: ' + result.errors[0].message, result.errors[0].code);
+          sqlError.result = result;
+          error(sqlError);
+        }
+      }
+    };
+    cordova.exec(mysuccess, error, "SQLitePlugin", "executeUpsertBatch", [upsertargs]);
+  };
+
+  SQLitePlugin.prototype.attachDatabase = function(options, success, error) {
+    var attachargs;
+    if (!options || !(options.name || options.memory) || !options.alias) {
+      throw newSQLError('attachDatabase expects an options object with the database name (or memory) and alias');
+    }
+    attachargs = {
+      dbargs: this.dbargs(),
+      alias: options.alias
+    };
+    if (!!options.memory) {
+      attachargs.memory = true;
+    } else {
+      attachargs.name = options.name;
+    }
+    if (options.key !== void 0) {
+      attachargs.key = options.key;
+    }
+    cordova.exec(success, error, "SQLitePlugin", "attachDatabase", [attachargs]);
+  };
+
+  SQLitePlugin.prototype.detachDatabase = function(alias, success, error) {
+    cordova.exec(success, error, "SQLitePlugin", "detachDatabase", [
+      {
+        dbargs: this.dbargs(),
+        alias: alias
+      }
+    ]);
+  };
+
   SQLitePluginTransaction = function(db, fn, error, success, txlock, readOnly) {
     if (typeof fn !== "function") {
 
@@ -376,22 +824,10 @@
   };
 
   SQLitePluginTransaction.prototype.handleStatementSuccess = function(handler, response) {
-    var payload, rows;
     if (!handler) {
       return;
     }
-    rows = response.rows || [];
-    payload = {
-      rows: {
-        item: function(i) {
-          return rows[i];
-        },
-        length: rows.length
-      },
-      rowsAffected: response.rowsAffected || 0,
-      insertId: response.insertId || void 0
-    };
-    handler(this, payload);
+    handler(this, resultSetFor(response));
   };
 
   SQLitePluginTransaction.prototype.handleStatementFailure = function(handler, response) {
@@ -404,7 +840,7 @@
   };
 
   SQLitePluginTransaction.prototype.run = function() {
-    var batchExecutes, handlerFor, i, mycb, mycbmap, request, tropts, tx, txFailure, waiting;
+    var batchExecutes, batchargs, handlerFor, i, mycb, mycbmap, myerror, request, tropts, tx, txFailure, waiting;
     txFailure = null;
     tropts = [];
     batchExecutes = this.executes;
@@ -467,14 +903,23 @@
         }
       }
     };
-    cordova.exec(mycb, null, "SQLitePlugin", "backgroundExecuteSqlBatch", [
-      {
-        dbargs: {
-          dbname: this.db.dbname
-        },
-        executes: tropts
+    batchargs = {
+      dbargs: this.db.dbargs(),
+      executes: tropts
+    };
+    if (this.readOnly) {
+      batchargs.readOnly = true;
+    }
+    myerror = function(e) {
+      tx.executes = [];
+      tx.finalized = true;
+      txLocks[tx.db.dbname].inProgress = false;
+      tx.db.startNextTransaction();
+      if (tx.error && typeof tx.error === 'function') {
+        tx.error(newSQLError(e));
       }
-    ]);
+    };
+    cordova.exec(mycb, myerror, "SQLitePlugin", "backgroundExecuteSqlBatch", [batchargs]);
   };
 
   SQLitePluginTransaction.prototype.abort = function(txFailure) {
@@ -541,6 +986,65 @@
     }
   };
 
+  SQLitePluginNativeTransaction = function(db, executes, onError, success, error) {
+    this.db = db;
+    this.executes = executes;
+    this.onError = onError;
+    this.success = success;
+    this.error = error;
+  };
+
+  SQLitePluginNativeTransaction.prototype.start = function() {
+    var finished, myerror, mysuccess, tx;
+    tx = this;
+    finished = function() {
+      txLocks[tx.db.dbname].inProgress = false;
+      tx.db.startNextTransaction();
+    };
+    mysuccess = function(result) {
+      finished();
+      if (result.committed) {
+        if (!!tx.success) {
+          tx.success(result.results);
+        }
+      } else {
+        if (!!tx.error) {
+          tx.error(tx.abortError(result.results));
+        }
+      }
+    };
+    myerror = function(e) {
+      finished();
+      if (!!tx.error) {
+        tx.error(newSQLError(e));
+      }
+    };
+    cordova.exec(mysuccess, myerror, "SQLitePlugin", "executeTransaction", [
+      {
+        dbargs: this.db.dbargs(),
+        executes: this.executes,
+        onError: this.onError
+      }
+    ]);
+  };
+
+  SQLitePluginNativeTransaction.prototype.abortError = function(results) {
+    var r, sqlError;
+    r = results[results.length - 1];
+    while (!!r && !!r.result && !!r.result.results && r.result.results.length > 0) {
+      r = r.result.results[r.result.results.length - 1];
+    }
+    sqlError = newSQLError((!!r && !!r.result ? r.result.message : null), (!!r && !!r.result ? r.result.code : 0));
+    sqlError.results = results;
+    return sqlError;
+  };
+
+  SQLitePluginNativeTransaction.prototype.abortFromQ = function(sqlerror) {
+    if (this.error) {
+      this.error(sqlerror);
+    }
+  };
+
   dblocations = ["docs", "libs", "nosync"];
 
   iosLocationMap = {
@@ -582,6 +1086,8 @@
       openargs.dblocation = dblocation;
       if (!!openargs.createFromLocation && openargs.createFromLocation === 1) {
         openargs.createFromResource = "1";
+      } else if (!!openargs.createFromLocation && typeof openargs.createFromLocation === 'string') {
+        openargs.createFromResource = openargs.createFromLocation;
       }
       if (!!openargs.androidDatabaseImplementation && openargs.androidDatabaseImplementation === 2) {
         openargs.androidOldDatabaseImplementation = 1;
@@ -627,6 +1133,87 @@
       args.dblocation = dblocation;
       delete SQLitePlugin.prototype.openDBs[args.path];
       return cordova.exec(success, error, "SQLitePlugin", "delete", [args]);
+    },
+    executeMultiBatch: function(batches, options, success, error, progress) {
+      var b, batchargs, dbname, j, len1, mysuccess, nativeBatch, resultFor, stream, txLock;
+      if (!batches || batches.constructor !== Array) {
+        throw newSQLError('executeMultiBatch expects an array of batches');
+      }
+      batchargs = [];
+      for (j = 0, len1 = batches.length; j < len1; j++) {
+        b = batches[j];
+        if (!b || !b.db || !b.statements || b.statements.constructor !== Array) {
+          throw newSQLError('executeMultiBatch expects each batch with a db and an array of statements');
+        }
+        dbname = b.db.dbname;
+        txLock = txLocks[dbname];
+        if (SQLitePlugin.prototype.openDBs[dbname] !== DB_STATE_OPEN || (!!txLock && (txLock.inProgress || txLock.queue.length > 0))) {
+          if (!!error) {
+            nextTick((function(dbname) {
+              return function() {
+                return error(newSQLError('database not open or transaction in progress: ' + dbname));
+              };
+            })(dbname));
+          }
+          return;
+        }
+        nativeBatch = {
+          dbargs: b.db.dbargs(),
+          executes: nativeExecutesFor(b.statements)
+        };
+        if (!!b.readOnly) {
+          nativeBatch.readOnly = true;
+        }
+        batchargs.push(nativeBatch);
+      }
+      stream = !!options && !!options.stream;
+      resultFor = function(r) {
+        var sr;
+        if (r.type === 'success') {
+          r.results = (function() {
+            var k, len2, ref, results;
+            ref = r.result;
+            results = [];
+            for (k = 0, len2 = ref.length; k < len2; k++) {
+              sr = ref[k];
+              results.push(sr.type === 'success' ? resultSetFor(sr.result) : sr.result);
+            }
+            return results;
+          })();
+          delete r.result;
+        }
+        return r;
+      };
+      mysuccess = function(result) {
+        var k, len2, r;
+        if (!stream) {
+          if (!!success) {
+            success((function() {
+              var results;
+              results = [];
+              for (k = 0, len2 = result.length; k < len2; k++) {
+                r = result[k];
+                results.push(resultFor(r));
+              }
+              return results;
+            })());
+          }
+        } else if (!!result.done) {
+          if (!!success) {
+            success();
+          }
+        } else {
+          if (!!progress) {
+            progress(resultFor(result));
+          }
+        }
+      };
+      cordova.exec(mysuccess, error, "SQLitePlugin", "executeMultiBatch", [
+        {
+          batches: batchargs,
+          stream: stream
+        }
+      ]);
     }
   };
 
@@ -901,8 +1488,21 @@
       ]);
     },
     selfTest: SelfTest.start,
+    getStats: function(options, success, error) {
+      return cordova.exec(success, error, "SQLitePlugin", "getStats", [options || {}]);
+    },
+    startRecording: function(options, success, error) {
+      return cordova.exec(success, error, "SQLitePlugin", "startRecording", [options || {}]);
+    },
+    stopRecording: function(success, error) {
+      return cordova.exec(success, error, "SQLitePlugin", "stopRecording", []);
+    },
+    replayWorkload: function(options, success, error) {
+      return cordova.exec(success, error, "SQLitePlugin", "replayWorkload", [options || {}]);
+    },
     openDatabase: SQLiteFactory.openDatabase,
-    deleteDatabase: SQLiteFactory.deleteDatabase
+    deleteDatabase: SQLiteFactory.deleteDatabase,
+    executeMultiBatch: SQLiteFactory.executeMultiBatch
   };
 
 }).call(this);